@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import org.apache.commons.net.imap.IMAPReply;
+import org.apache.commons.net.io.CRLFLineReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * ResponseParser against reply-string path: lines of commons-net IMAP.getReply joined to reply string,
+ * converted to response data and scanned by regular expression as regex extractor does.
+ * Both paths take UIDs (or SEARCH numbers) of the reply and keep response text. Reply-string path keeps literal
+ * lines in reply string and scans them too, as commons-net does, parser path skips literals, so body case
+ * measures cost of literal retention rather than of parsing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+    private static final String TAG = "A1";
+
+    /**
+     * fetch - 1000 x FETCH (UID FLAGS RFC822.SIZE), search - SEARCH of 20000 UIDs,
+     * body - 16 x FETCH BODY[] of 64K, kept only by reply-string path
+     */
+    @Param({"fetch", "search", "body"})
+    public String reply;
+
+    private byte[] data;
+    private Pattern pattern;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder text = new StringBuilder();
+        if(reply.equals("fetch")) {
+            for(int i = 1; i <= 1000; ++i) {
+                text.append("* ").append(i).append(" FETCH (UID ").append(100000 + i)
+                        .append(" FLAGS (\\Seen $Forwarded) RFC822.SIZE ").append(4000 + i).append(")\r\n");
+            }
+            pattern = Pattern.compile("UID (\\d+)");
+        } else if(reply.equals("search")) {
+            text.append("* SEARCH");
+            for(int i = 1; i <= 20000; ++i) text.append(' ').append(100000 + i);
+            text.append("\r\n");
+            pattern = Pattern.compile(" (\\d+)");
+        } else {
+            StringBuilder body = new StringBuilder();
+            while(body.length() < 65536) body.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod\r\n");
+            for(int i = 1; i <= 16; ++i) {
+                text.append("* ").append(i).append(" FETCH (UID ").append(100000 + i).append(" BODY[] {")
+                        .append(body.length()).append("}\r\n").append(body).append(")\r\n");
+            }
+            pattern = Pattern.compile("UID (\\d+)");
+        }
+        text.append(TAG).append(" OK FETCH completed\r\n");
+        data = text.toString().getBytes("ISO-8859-1");
+    }
+
+    @Benchmark
+    public long replyString() throws IOException {
+        BufferedReader reader = new CRLFLineReader(new InputStreamReader(new ByteArrayInputStream(data), "ISO-8859-1"));
+        // IMAP.getReply
+        List<String> lines = new ArrayList<String>();
+        String line = reader.readLine();
+        lines.add(line);
+        while(IMAPReply.isUntagged(line)) {
+            int literalCount = IMAPReply.literalCount(line);
+            while(literalCount >= 0) {
+                line = reader.readLine();
+                lines.add(line);
+                literalCount -= line.length() + 2;
+            }
+            line = reader.readLine();
+            lines.add(line);
+        }
+        // IMAP.getReplyString, then response data of sampler and string of regex extractor
+        StringBuilder reply = new StringBuilder();
+        for(String l : lines) reply.append(l).append("\r\n");
+        byte[] response = reply.toString().getBytes();
+        long sum = 0;
+        Matcher matcher = pattern.matcher(new String(response));
+        while(matcher.find()) sum += Long.parseLong(matcher.group(1));
+        return sum + response.length;
+    }
+
+    @Benchmark
+    public long parser() throws IOException {
+        ResponseParser parser = new ResponseParser(new ResponseReader(new ByteArrayInputStream(data)));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        parser.setTranscript(response, Integer.MAX_VALUE);
+        final long[] sum = {0};
+        parser.readCompletion(TAG, new ResponseAdapter() {
+            @Override
+            public void fetchNumber(ByteSlice item, long value) {
+                if(item.equalsIgnoreCase("UID")) sum[0] += value;
+            }
+            @Override
+            public void search(long low, long high) {
+                for(long value = low; value <= high; ++value) sum[0] += value;
+            }
+        });
+        return sum[0] + response.size();
+    }
+}
@@ -1,33 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
 package me.schiz.jmeter.protocol;
 
 import org.apache.commons.net.SocketClient;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
- * Created with IntelliJ IDEA.
- * User: schizophrenia
- * Date: 25.11.13
- * Time: 17:27
- * To change this template use File | Settings | File Templates.
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.2
+ * Socket session stored in SessionStorage: client, its transport type and pool bookkeeping
  */
 public class Session {
-	public enum _encryption {
-		PLAIN,
-		SSL,
-		STARTTLS
-	}
+    private final SocketClient client;
+    private final SessionStorage.PROTOCOL protocol;
+    private volatile SessionStorage.proto_type type;
+
+    // not null if session was borrowed from SessionPool
+    private volatile SessionPool.Key poolKey = null;
+    // user name of successful LOGIN, null if not authenticated
+    private volatile String authenticated = null;
 
-	public enum _protocol {
-		IMAP, POP3, SMTP
-	}
+    // last time of use by sampler and by SessionKeeper, ms
+    private volatile long lastUsed;
+    private volatile long lastKeepAlive = 0;
+    private final AtomicBoolean keepAlivePending = new AtomicBoolean(false);
+    // session waits in IdleLoop, only IdleLoop may use its client
+    private volatile boolean idling = false;
+    // samplers in the middle of sample, -1 once SessionKeeper has reaped session
+    private final AtomicInteger users = new AtomicInteger(0);
+    // pool bucket which counts session in its total, null once its slot is freed
+    private final AtomicReference<SessionPool.Bucket> slot = new AtomicReference<SessionPool.Bucket>(null);
 
-	public SocketClient socketClient;
-	public _encryption encryption;
-	public _protocol protoctol;
+    public Session(SocketClient client, SessionStorage.PROTOCOL protocol, SessionStorage.proto_type type) {
+        this.client = client;
+        this.protocol = protocol;
+        this.type = type;
+        this.lastUsed = System.currentTimeMillis();
+    }
 
-	public void Session() {}
-	public void Session(SocketClient socketClient, _encryption encryption, _protocol protoctol) {
-		this.socketClient = socketClient;
-		this.encryption = encryption;
-		this.protoctol = protoctol;
-	}
+    public SocketClient getClient() {
+        return client;
+    }
+    public SessionStorage.PROTOCOL getProtocol() {
+        return protocol;
+    }
+    public SessionStorage.proto_type getType() {
+        return type;
+    }
+    public void setType(SessionStorage.proto_type type) {
+        this.type = type;
+    }
+    public SessionPool.Key getPoolKey() {
+        return poolKey;
+    }
+    public void setPoolKey(SessionPool.Key poolKey) {
+        this.poolKey = poolKey;
+    }
+    public boolean isPooled() {
+        return poolKey != null;
+    }
+    public String getAuthenticated() {
+        return authenticated;
+    }
+    public void setAuthenticated(String user) {
+        this.authenticated = user;
+    }
+    public boolean isAuthenticated(String user) {
+        return authenticated != null && authenticated.equals(user);
+    }
+    public boolean isIdling() {
+        return idling;
+    }
+    public void setIdling(boolean idling) {
+        this.idling = idling;
+    }
+    public long getLastUsed() {
+        return lastUsed;
+    }
+    public void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+    /**
+     * Marks session busy until {@link #release()}, SessionKeeper doesn't reap busy sessions
+     * @return false if session is already reaped
+     */
+    public boolean acquire() {
+        while(true) {
+            int count = users.get();
+            if(count < 0) return false;
+            if(users.compareAndSet(count, count + 1)) return true;
+        }
+    }
+    /**
+     * Ends use of {@link #acquire()}, which counts as use of session for idle TTL
+     */
+    public void release() {
+        touch();
+        users.decrementAndGet();
+    }
+    /**
+     * @return true if session is not busy, it can't be acquired after it
+     */
+    boolean reap() {
+        return users.compareAndSet(0, -1);
+    }
+    void count(SessionPool.Bucket bucket) {
+        slot.set(bucket);
+    }
+    SessionPool.Bucket getCounted() {
+        return slot.get();
+    }
+    /**
+     * @return bucket which counted session, null for all callers but first one
+     */
+    SessionPool.Bucket uncount() {
+        return slot.getAndSet(null);
+    }
+    public long getLastKeepAlive() {
+        return lastKeepAlive;
+    }
+    public void setLastKeepAlive(long lastKeepAlive) {
+        this.lastKeepAlive = lastKeepAlive;
+    }
+    /**
+     * @return true if caller owns keepalive of this session until {@link #keepAliveDone()}
+     */
+    public boolean keepAliveStart() {
+        return keepAlivePending.compareAndSet(false, true);
+    }
+    public void keepAliveDone() {
+        keepAlivePending.set(false);
+    }
 }
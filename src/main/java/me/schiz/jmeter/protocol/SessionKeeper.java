@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol;
+
+import org.apache.commons.net.SocketClient;
+import org.apache.commons.net.imap.IMAPClient;
+import org.apache.commons.net.pop3.POP3Client;
+import org.apache.commons.net.pop3.POP3Command;
+import org.apache.commons.net.pop3.POP3Reply;
+import org.apache.commons.net.smtp.SMTPClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Background keepalive (protocol NOOP) and reaper of idle sessions in SessionStorage and SessionPool
+ */
+public class SessionKeeper {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final long MIN_PERIOD = 100;
+
+    private final SessionStorage storage;
+    private ScheduledExecutorService scheduler = null;
+
+    // NOOP after this time of inactivity, ms. 0 - disabled
+    private volatile long keepAliveInterval = 0;
+    // close sessions unused by samplers for this time, ms. 0 - disabled
+    private volatile long idleTtl = 0;
+
+    private final AtomicLong keptAlive = new AtomicLong(0);
+    private final AtomicLong reaped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+    public SessionKeeper(SessionStorage storage) {
+        this.storage = storage;
+    }
+
+    public synchronized void start(long keepAliveInterval, long idleTtl, int threads) {
+        stop();
+        this.keepAliveInterval = keepAliveInterval;
+        this.idleTtl = idleTtl;
+        keptAlive.set(0);
+        reaped.set(0);
+        failed.set(0);
+        if(keepAliveInterval <= 0 && idleTtl <= 0) return;
+
+        long period = Long.MAX_VALUE;
+        if(keepAliveInterval > 0) period = keepAliveInterval / 2;
+        if(idleTtl > 0) period = Math.min(period, idleTtl / 2);
+        period = Math.max(period, MIN_PERIOD);
+
+        final AtomicInteger counter = new AtomicInteger(0);
+        scheduler = Executors.newScheduledThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "session-keeper-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    log.error("session keeper sweep failed", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        log.info("session keeper started: keepalive " + keepAliveInterval + "ms, idle ttl " + idleTtl + "ms, period " + period + "ms");
+    }
+
+    public synchronized void stop() {
+        if(scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+        log.info("session keeper stopped: " + keptAlive.get() + " kept alive, " + reaped.get() + " reaped, " + failed.get() + " failed");
+    }
+
+    public long getKeptAlive() {
+        return keptAlive.get();
+    }
+    public long getReaped() {
+        return reaped.get();
+    }
+    public long getFailed() {
+        return failed.get();
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for(Map.Entry<String, Session> entry : storage.getSessions().entrySet()) {
+            Session session = entry.getValue();
+            if(isExpired(session, now)) {
+                // busy session may be in the middle of sample longer than idle TTL
+                if(session.reap() && storage.getSessions().remove(entry.getKey(), session)) {
+                    if(session.isPooled()) storage.getPool().invalidate(session);
+                    else close(session);
+                    reaped.incrementAndGet();
+                    log.debug("session `" + entry.getKey() + "` reaped");
+                }
+            } else if(needKeepAlive(session, now)) {
+                submitKeepAlive(entry.getKey(), session);
+            }
+        }
+        for(Session session : storage.getPool().getIdleSessions()) {
+            if(isExpired(session, now)) {
+                if(storage.getPool().evict(session, false)) reaped.incrementAndGet();
+            } else if(needKeepAlive(session, now)) {
+                submitKeepAlive(null, session);
+            }
+        }
+    }
+
+    // IDLE sessions are renewed by IdleLoop
+    private boolean isExpired(Session session, long now) {
+        return idleTtl > 0 && !session.isIdling() && now - session.getLastUsed() >= idleTtl;
+    }
+
+    private boolean needKeepAlive(Session session, long now) {
+        return keepAliveInterval > 0 && !session.isIdling()
+                && now - Math.max(session.getLastUsed(), session.getLastKeepAlive()) >= keepAliveInterval;
+    }
+
+    private void submitKeepAlive(final String name, final Session session) {
+        if(!session.keepAliveStart()) return;
+        ScheduledExecutorService executor = scheduler;
+        if(executor == null) {
+            session.keepAliveDone();
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    keepAlive(name, session);
+                } finally {
+                    session.keepAliveDone();
+                }
+            }
+        });
+    }
+
+    private void keepAlive(String name, Session session) {
+        SocketClient client = session.getClient();
+        boolean success;
+        synchronized(client) {
+            try {
+                success = noop(client);
+            } catch (IOException e) {
+                log.warn("keepalive of session " + (name == null ? session.getPoolKey() : "`" + name + "`") + " failed", e);
+                success = false;
+            }
+            session.setLastKeepAlive(System.currentTimeMillis());
+        }
+        if(success) {
+            keptAlive.incrementAndGet();
+            return;
+        }
+        failed.incrementAndGet();
+        if(name == null) {
+            storage.getPool().evict(session, true);
+        } else if(session.reap() && storage.getSessions().remove(name, session)) {
+            // like sweep(), session acquired by sampler meanwhile is left to it
+            if(session.isPooled()) storage.getPool().invalidate(session);
+            else close(session);
+        }
+    }
+
+    private boolean noop(SocketClient client) throws IOException {
+        if(!client.isConnected()) return false;
+        if(client instanceof IMAPClient) return ((IMAPClient) client).noop();
+        if(client instanceof POP3Client) {
+            // POP3Client.noop() sends nothing outside TRANSACTION state, any reply keeps unauthenticated session alive
+            POP3Client pop3 = (POP3Client) client;
+            int reply = pop3.sendCommand(POP3Command.NOOP);
+            return reply == POP3Reply.OK || pop3.getState() != POP3Client.TRANSACTION_STATE;
+        }
+        if(client instanceof SMTPClient) return ((SMTPClient) client).sendNoOp();
+        return false;
+    }
+
+    private void close(Session session) {
+        try {
+            session.getClient().disconnect();
+        } catch (IOException e) {
+            log.warn("can't close session", e);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol;
+
+import me.schiz.jmeter.protocol.net.SessionClient;
+import org.apache.commons.net.SocketClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.2
+ * Bounded pool of connected sessions per (protocol, host, port, transport type).
+ * Returned sessions are recycled (see SessionClient#recycle()), so borrower gets session in state of its key
+ */
+public class SessionPool {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final ConcurrentHashMap<Key, Bucket> buckets = new ConcurrentHashMap<Key, Bucket>();
+    private ExecutorService filler = null;
+
+    // max sessions (idle + borrowed) per key, 0 - unbounded
+    private volatile int maxSize = 0;
+    // idle sessions kept ready per key
+    private volatile int minIdle = 0;
+    // max time to wait for free session, ms
+    private volatile long waitTimeout = 0;
+
+    /**
+     * Opens new connected client for pool
+     */
+    public interface Connector {
+        SocketClient connect() throws IOException;
+    }
+
+    public static class Key {
+        private final SessionStorage.PROTOCOL protocol;
+        private final String host;
+        private final int port;
+        private final SessionStorage.proto_type type;
+
+        public Key(SessionStorage.PROTOCOL protocol, String host, int port, SessionStorage.proto_type type) {
+            this.protocol = protocol;
+            this.host = host;
+            this.port = port;
+            this.type = type;
+        }
+
+        public SessionStorage.PROTOCOL getProtocol() {
+            return protocol;
+        }
+        public SessionStorage.proto_type getType() {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return port == key.port && protocol == key.protocol && type == key.type && host.equals(key.host);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = protocol.hashCode();
+            result = 31 * result + host.hashCode();
+            result = 31 * result + port;
+            result = 31 * result + type.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return protocol + "://" + host + ":" + port + "/" + type;
+        }
+    }
+
+    // sessions hold bucket which counted them, so slot is freed once and in that bucket, see Session#uncount()
+    static class Bucket {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition available = lock.newCondition();
+        // LIFO: most recently used session is on the head
+        final ArrayDeque<Session> idle = new ArrayDeque<Session>();
+        volatile Connector connector = null;
+        int total = 0;
+        int filling = 0;
+    }
+
+    public void configure(int maxSize, int minIdle, long waitTimeout) {
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.waitTimeout = waitTimeout;
+        log.info("session pool: max size " + maxSize + ", min idle " + minIdle + ", wait timeout " + waitTimeout + "ms");
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Checks out idle session, preferring one authenticated as <code>user</code>,
+     * or opens new one if pool is not full. Waits up to wait timeout otherwise.
+     */
+    public Session borrow(Key key, String user, Connector connector) throws IOException {
+        Bucket bucket = getBucket(key);
+        bucket.connector = connector;
+        List<Session> garbage = new ArrayList<Session>();
+        Session session = null;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTimeout);
+
+        bucket.lock.lock();
+        try {
+            while(session == null) {
+                session = pollIdle(bucket, user);
+                if(session != null) {
+                    if(session.getClient().isConnected()) break;
+                    if(session.uncount() != null) bucket.total--;
+                    garbage.add(session);
+                    session = null;
+                    continue;
+                }
+                if(maxSize <= 0 || bucket.total < maxSize) {
+                    bucket.total++;
+                    break;
+                }
+                // pool is full: drop idle session authenticated as somebody else
+                Session stale = bucket.idle.pollLast();
+                if(stale != null) {
+                    if(stale.uncount() != null) bucket.total--;
+                    garbage.add(stale);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) throw new IOException("session pool " + key + " exhausted (" + bucket.total + " sessions)");
+                try {
+                    bucket.available.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for session " + key);
+                }
+            }
+        } finally {
+            bucket.lock.unlock();
+            close(garbage);
+        }
+
+        if(session == null) {
+            try {
+                session = open(key, connector);
+            } catch (IOException e) {
+                release(bucket);
+                throw e;
+            }
+            session.count(bucket);
+        }
+        fill(key, bucket);
+        return session;
+    }
+
+    /**
+     * Returns session to the pool. Disconnected sessions, sessions which can't be recycled
+     * and sessions borrowed before {@link #clear()} are dropped.
+     */
+    public void giveBack(Session session) {
+        Bucket bucket = session.getCounted();
+        if(bucket == null) {
+            // slot is already freed by invalidate()
+            close(session);
+            return;
+        }
+        if(buckets.get(session.getPoolKey()) != bucket || !session.getClient().isConnected() || !recycle(session)) {
+            invalidate(session);
+            return;
+        }
+        session.touch();
+        boolean added = false;
+        bucket.lock.lock();
+        try {
+            // invalidated meanwhile
+            if(session.getCounted() == bucket) {
+                bucket.idle.addFirst(session);
+                bucket.available.signal();
+                added = true;
+            }
+        } finally {
+            bucket.lock.unlock();
+        }
+        if(!added) close(session);
+    }
+
+    /**
+     * @return snapshot of idle sessions of all keys
+     */
+    public List<Session> getIdleSessions() {
+        List<Session> sessions = new ArrayList<Session>();
+        for(Bucket bucket : buckets.values()) {
+            bucket.lock.lock();
+            try {
+                sessions.addAll(bucket.idle);
+            } finally {
+                bucket.lock.unlock();
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Closes idle session if it is still idle and there are more than min idle sessions
+     * @return false if session was borrowed meanwhile or is needed for min idle
+     */
+    public boolean evict(Session session, boolean force) {
+        Bucket bucket = buckets.get(session.getPoolKey());
+        if(bucket == null) return false;
+        bucket.lock.lock();
+        try {
+            if(!force && bucket.idle.size() <= minIdle) return false;
+            if(!bucket.idle.remove(session)) return false;
+            if(session.uncount() != null) bucket.total--;
+            bucket.available.signal();
+        } finally {
+            bucket.lock.unlock();
+        }
+        close(session);
+        return true;
+    }
+
+    /**
+     * Closes session and frees its slot in the bucket which counted it, repeated calls only close it
+     */
+    public void invalidate(Session session) {
+        Bucket bucket = session.uncount();
+        if(bucket != null) {
+            bucket.lock.lock();
+            try {
+                bucket.idle.remove(session);
+                bucket.total--;
+                bucket.available.signal();
+            } finally {
+                bucket.lock.unlock();
+            }
+        }
+        close(session);
+    }
+
+    /**
+     * Closes all idle sessions and forgets all keys, so next test starts with full capacity.
+     * Sessions borrowed before are closed when they are given back
+     */
+    public void clear() {
+        int closed = 0;
+        for(Key key : new ArrayList<Key>(buckets.keySet())) {
+            Bucket bucket = buckets.remove(key);
+            if(bucket == null) continue;
+            List<Session> garbage;
+            bucket.lock.lock();
+            try {
+                garbage = new ArrayList<Session>(bucket.idle);
+                bucket.idle.clear();
+                for(Session session : garbage) session.uncount();
+                bucket.available.signalAll();
+            } finally {
+                bucket.lock.unlock();
+            }
+            close(garbage);
+            closed += garbage.size();
+        }
+        log.info("session pool cleared, " + closed + " idle sessions closed");
+    }
+
+    private Bucket getBucket(Key key) {
+        Bucket bucket = buckets.get(key);
+        if(bucket == null) {
+            Bucket created = new Bucket();
+            bucket = buckets.putIfAbsent(key, created);
+            if(bucket == null) bucket = created;
+        }
+        return bucket;
+    }
+
+    private Session pollIdle(Bucket bucket, String user) {
+        Session fallback = null;
+        Iterator<Session> it = bucket.idle.iterator();
+        while(it.hasNext()) {
+            Session session = it.next();
+            if(user != null && session.isAuthenticated(user)) {
+                it.remove();
+                return session;
+            }
+            if(fallback == null && session.getAuthenticated() == null) fallback = session;
+        }
+        if(fallback != null) bucket.idle.remove(fallback);
+        return fallback;
+    }
+
+    private Session open(Key key, Connector connector) throws IOException {
+        Session session = new Session(connector.connect(), key.getProtocol(), key.getType());
+        session.setPoolKey(key);
+        return session;
+    }
+
+    private void release(Bucket bucket) {
+        bucket.lock.lock();
+        try {
+            bucket.total--;
+            bucket.available.signal();
+        } finally {
+            bucket.lock.unlock();
+        }
+    }
+
+    // tops up idle sessions to min idle in background
+    private void fill(final Key key, final Bucket bucket) {
+        if(minIdle <= 0) return;
+        int missing;
+        bucket.lock.lock();
+        try {
+            missing = minIdle - bucket.idle.size() - bucket.filling;
+            if(maxSize > 0) missing = Math.min(missing, maxSize - bucket.total);
+            if(missing <= 0) return;
+            bucket.total += missing;
+            bucket.filling += missing;
+        } finally {
+            bucket.lock.unlock();
+        }
+        for(int i = 0; i < missing; ++i) {
+            getFiller().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Session session = null;
+                    try {
+                        session = open(key, bucket.connector);
+                    } catch (IOException e) {
+                        log.warn("can't open idle session " + key, e);
+                    }
+                    boolean cleared = buckets.get(key) != bucket;
+                    bucket.lock.lock();
+                    try {
+                        bucket.filling--;
+                        if(session != null && !cleared) {
+                            session.count(bucket);
+                            bucket.idle.addLast(session);
+                        } else {
+                            bucket.total--;
+                        }
+                        bucket.available.signal();
+                    } finally {
+                        bucket.lock.unlock();
+                    }
+                    if(session != null && cleared) close(session);
+                }
+            });
+        }
+    }
+
+    private synchronized ExecutorService getFiller() {
+        if(filler == null) {
+            filler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "session-pool-filler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return filler;
+    }
+
+    private boolean recycle(Session session) {
+        SocketClient client = session.getClient();
+        if(!(client instanceof SessionClient)) return true;
+        synchronized(client) {
+            try {
+                return ((SessionClient) client).recycle();
+            } catch (IOException e) {
+                log.warn("can't recycle pooled session " + session.getPoolKey(), e);
+                return false;
+            }
+        }
+    }
+
+    private void close(List<Session> sessions) {
+        for(Session session : sessions) close(session);
+    }
+
+    private void close(Session session) {
+        try {
+            session.getClient().disconnect();
+        } catch (IOException e) {
+            log.warn("can't close pooled session " + session.getPoolKey(), e);
+        }
+    }
+}
@@ -17,12 +17,15 @@
  */
 package me.schiz.jmeter.protocol;
 
-import org.apache.commons.net.PrintCommandListener;
+import me.schiz.jmeter.protocol.net.WireTrace;
 import org.apache.commons.net.SocketClient;
+import org.apache.commons.net.imap.IMAPClient;
+import org.apache.commons.net.pop3.POP3Client;
+import org.apache.commons.net.smtp.SMTPClient;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
-import java.io.*;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -33,9 +36,9 @@ import java.util.concurrent.ConcurrentHashMap;
 public class SessionStorage {
     private static final Logger log = LoggingManager.getLoggerForClass();
     private static SessionStorage instance = null;
-    private ConcurrentHashMap<String, SocketClient> map = null;
-    private ConcurrentHashMap<String, PrintWriter> logMap = null;
-    private ConcurrentHashMap<String, proto_type> protoTypeMap = null;
+    private ConcurrentHashMap<String, Session> map = null;
+    private SessionPool pool = null;
+    private SessionKeeper keeper = null;
 
     public enum proto_type {
         PLAIN,
@@ -44,12 +47,20 @@ public class SessionStorage {
     }
 
     public enum PROTOCOL {
-        IMAP, POP3, SMTP
+        IMAP, POP3, SMTP;
+
+        public static PROTOCOL of(SocketClient client) {
+            if(client instanceof IMAPClient) return IMAP;
+            if(client instanceof POP3Client) return POP3;
+            if(client instanceof SMTPClient) return SMTP;
+            throw new IllegalArgumentException("unknown client " + client.getClass().getName());
+        }
     }
 
     public SessionStorage() {
-        map = new ConcurrentHashMap<String, SocketClient>();
-        protoTypeMap = new ConcurrentHashMap<String, proto_type>();
+        map = new ConcurrentHashMap<String, Session>();
+        pool = new SessionPool();
+        keeper = new SessionKeeper(this);
     }
 
     public static SessionStorage getInstance() {
@@ -59,43 +70,99 @@ public class SessionStorage {
         }
     }
 
+    public SessionPool getPool() {
+        return pool;
+    }
+
+    public SessionKeeper getKeeper() {
+        return keeper;
+    }
+
+    ConcurrentHashMap<String, Session> getSessions() {
+        return map;
+    }
+
     public SocketClient getClient(String client) {
         log.debug("get client `" + client + "`");
-        return map.get(client);
+        Session session = map.get(client);
+        if(session == null) return null;
+        session.touch();
+        return session.getClient();
+    }
+
+    public Session getSession(String client) {
+        Session session = map.get(client);
+        if(session != null) session.touch();
+        return session;
     }
 
     public proto_type getClientType(String client) {
         log.debug("get client `" + client + "`");
-        return protoTypeMap.get(client);
+        Session session = map.get(client);
+        return session == null ? null : session.getType();
     }
 
     public void putClient(String client, SocketClient imapClient, proto_type type) {
-        map.put(client, imapClient);
-        protoTypeMap.put(client, type);
-        log.debug("put client `" + client + "` with type " + type);
+        putSession(client, new Session(imapClient, PROTOCOL.of(imapClient), type));
     }
 
+    /**
+     * Pooled session stored before under the same name is invalidated, otherwise it would keep its pool slot forever
+     */
+    public void putSession(String client, Session session) {
+        session.touch();
+        Session previous = map.put(client, session);
+        if(previous != null && previous != session && previous.isPooled()) pool.invalidate(previous);
+        log.debug("put client `" + client + "` with type " + session.getType());
+    }
+
+    /**
+     * Removes session from storage. Pooled sessions are invalidated in pool,
+     * because they are removed only after I/O errors.
+     */
     public void removeClient(String client) {
-        map.remove(client);
+        Session session = map.remove(client);
+        if(session != null && session.isPooled()) pool.invalidate(session);
         log.debug("remove client `" + client + "`");
     }
-    public void installLog(String client, String logPath) {
-        if(map.get(client) == null) {
+
+    /**
+     * Removes session from storage and gives it back to pool
+     * @return false if session is not pooled or was already removed, e.g. by SessionKeeper or IdleLoop
+     */
+    public boolean releaseClient(String client) {
+        Session session = map.get(client);
+        if(session == null || !session.isPooled()) return false;
+        if(!map.remove(client, session)) return false;
+        pool.giveBack(session);
+        log.debug("release client `" + client + "` to pool " + session.getPoolKey());
+        return true;
+    }
+
+    /**
+     * Removes pooled sessions left in storage at test end and invalidates them
+     */
+    public void invalidatePooled() {
+        for(Map.Entry<String, Session> entry : map.entrySet()) {
+            Session session = entry.getValue();
+            if(session.isPooled() && map.remove(entry.getKey(), session)) pool.invalidate(session);
+        }
+    }
+
+    /**
+     * Traces commands and replies of client to WireTrace, regardless of its sample rate
+     */
+    public void installLog(String client) {
+        Session session = map.get(client);
+        if(session == null) {
             log.warn("can't install log, because not found client `" + client + "`");
             return;
         }
-        try {
-            PrintWriter pw = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(logPath,
-                    false)), "UTF-8"), true);
-
-            logMap.put(client, pw);
-
-            map.get(client).addProtocolCommandListener(new PrintCommandListener(pw, true));
-        } catch (UnsupportedEncodingException e) {
-            log.error("UTF-8 not supported", e);
-        } catch (FileNotFoundException e) {
-            log.error("Not found `" + logPath + "`", e);
+        if(!WireTrace.getInstance().isEnabled()) {
+            log.warn("can't install log for client `" + client + "`, wire trace is disabled");
+            return;
         }
+        WireTrace.getInstance().trace(session.getClient(), client);
     }
 
 }
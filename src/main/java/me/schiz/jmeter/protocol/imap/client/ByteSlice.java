@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * View of bytes in buffer of ResponseReader, e.g. atom or quoted string of response. Slice is reused
+ * by parser and is valid only during call of ResponseHandler, String is made only by {@link #toString()}
+ */
+public final class ByteSlice {
+    private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+    private static final int MAX_DIGITS = 18;
+
+    private byte[] array = new byte[0];
+    private int offset = 0;
+    private int length = 0;
+
+    ByteSlice set(byte[] array, int offset, int length) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+    public boolean isEmpty() {
+        return length == 0;
+    }
+    public int byteAt(int index) {
+        return array[offset + index] & 0xff;
+    }
+
+    /**
+     * @param ascii e.g. "UID" or "BODY[]"
+     */
+    public boolean equalsIgnoreCase(String ascii) {
+        return length == ascii.length() && regionMatches(ascii);
+    }
+    public boolean startsWithIgnoreCase(String ascii) {
+        return length >= ascii.length() && regionMatches(ascii);
+    }
+
+    /**
+     * @return value of number, -1 if slice is not a number
+     */
+    public long toNumber() {
+        if(length == 0 || length > MAX_DIGITS) return -1;
+        long value = 0;
+        for(int i = offset; i < offset + length; ++i) {
+            int digit = array[i] - '0';
+            if(digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(array, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(array, offset, length, ENCODING);
+    }
+
+    private boolean regionMatches(String ascii) {
+        for(int i = 0; i < ascii.length(); ++i) {
+            int a = array[offset + i];
+            int b = ascii.charAt(i);
+            if(a != b && upper(a) != upper(b)) return false;
+        }
+        return true;
+    }
+
+    private static int upper(int c) {
+        return c >= 'a' && c <= 'z' ? c - 32 : c;
+    }
+}
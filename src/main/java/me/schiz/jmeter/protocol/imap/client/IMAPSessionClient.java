@@ -0,0 +1,759 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import me.schiz.jmeter.protocol.net.Capabilities;
+import me.schiz.jmeter.protocol.net.Compression;
+import me.schiz.jmeter.protocol.net.ConnectionStats;
+import me.schiz.jmeter.protocol.net.MeteredSocketFactory;
+import me.schiz.jmeter.protocol.net.SaslMechanism;
+import me.schiz.jmeter.protocol.net.SessionClient;
+import me.schiz.jmeter.protocol.net.SharedSSLContext;
+import org.apache.commons.net.imap.IMAPCommand;
+import org.apache.commons.net.imap.IMAPReply;
+import org.apache.commons.net.imap.IMAPSClient;
+
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.2
+ * IMAP client over SharedSSLContext: implicit TLS, STARTTLS and plain connections with connect phase and TLS handshake statistics.
+ * Authenticates by SASL mechanisms. Remembers capabilities announced in greeting, LOGIN/AUTHENTICATE and CAPABILITY
+ * responses, they are cached per endpoint and authentication state (see Capabilities).
+ * Responses are read by ResponseReader, FETCH and {@link #execute} parse them in its buffer (see ResponseParser)
+ * and stream literals of large replies (FETCH BODY[]) to sink instead of keeping reply lines in heap.
+ * Pipelines tagged commands and matches completions by tag. APPENDs streamed messages as non-synchronizing literals if announced.
+ * IDLE sessions (RFC 2177) wait for pushes in IdleLoop, see {@link #getChannel()}.
+ * COMPRESS=DEFLATE (RFC 4978) puts Compression between TLS and readers/writers of session
+ */
+public class IMAPSessionClient extends IMAPSClient implements SessionClient {
+    private static final int MAX_AUTH_STEPS = 8;
+    // copy buffer of APPEND literals
+    private static final int BUFFER_SIZE = 8192;
+    // reply text kept by stream(), literals are never kept
+    private static final int MAX_TEXT = 65536;
+    // RFC 7888: LITERAL- allows non-synchronizing literals up to 4096 bytes
+    private static final int MAX_LITERAL_MINUS = 4096;
+    // encoding of IMAP reader and writer
+    private static final String ENCODING = "ISO-8859-1";
+    private static final byte[] CRLF = {'\r', '\n'};
+    // bound of each read of IDLE pushes, so shared worker isn't held by incomplete line
+    private static final int PUSH_TIMEOUT = 1000;
+    private final boolean implicit;
+    private final ConnectionStats stats = new ConnectionStats();
+    private String hostname = null;
+    // end of STARTTLS command, start of TLS handshake
+    private long upgraded = 0;
+    // capabilities of current state, null if not announced since connect, STARTTLS or login
+    private Capabilities capabilities = null;
+    private boolean authenticated = false;
+    private final MailboxState mailbox = new MailboxState();
+    // channel of plain socket, stays the same under TLS
+    private SocketChannel channel = null;
+    private ResponseReader responses = null;
+    private ResponseParser parser = null;
+    private byte[] bytes = null;
+    private Compression compression = null;
+
+    /**
+     * Message of streamed reply: untagged FETCH response and its literals
+     */
+    public static class Message {
+        public final String id;
+        public final long bytes;
+        public final long start;
+        public final long end;
+
+        Message(String id, long bytes, long start, long end) {
+            this.id = id;
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Reply of streamed command. Data is raw response lines without literals, truncated to 64K
+     */
+    public static class StreamedReply {
+        public final int code;
+        public final byte[] data;
+        // time of first reply line, ms
+        public final long firstByte;
+        public final long literalBytes;
+        public final List<Message> messages;
+
+        StreamedReply(int code, byte[] data, long firstByte, long literalBytes, List<Message> messages) {
+            this.code = code;
+            this.data = data;
+            this.firstByte = firstByte;
+            this.literalBytes = literalBytes;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * Times messages of streamed FETCH and copies their body sections to sink, events go on to mailbox state
+     */
+    private static class FetchCollector extends ResponseAdapter {
+        private final OutputStream sink;
+        final List<Message> messages = new ArrayList<Message>();
+        long firstByte = 0;
+        long literalBytes = 0;
+        private long messageBytes = 0;
+        private long messageStart = 0;
+
+        FetchCollector(ResponseHandler next, OutputStream sink) {
+            super(next);
+            this.sink = sink;
+        }
+
+        private void received() {
+            if(firstByte == 0) firstByte = System.currentTimeMillis();
+        }
+
+        @Override
+        public void fetchStart(long sequence) {
+            received();
+            messageStart = System.currentTimeMillis();
+            messageBytes = 0;
+            super.fetchStart(sequence);
+        }
+        @Override
+        public OutputStream fetchData(ByteSlice item, long size) throws IOException {
+            super.fetchData(item, size);
+            if(!item.startsWithIgnoreCase("BODY[") && !item.startsWithIgnoreCase("BINARY[")
+                    && !item.startsWithIgnoreCase("RFC822")) return null;
+            literalBytes += size;
+            messageBytes += size;
+            return sink;
+        }
+        @Override
+        public void fetchEnd(long sequence) {
+            messages.add(new Message(String.valueOf(sequence), messageBytes, messageStart, System.currentTimeMillis()));
+            super.fetchEnd(sequence);
+        }
+        @Override
+        public void exists(long count) {
+            received();
+            super.exists(count);
+        }
+        @Override
+        public void expunge(long sequence) {
+            received();
+            super.expunge(sequence);
+        }
+        @Override
+        public void searchStart(boolean extended, boolean uid) {
+            received();
+            super.searchStart(extended, uid);
+        }
+        @Override
+        public void responseCode(ByteSlice code, ByteSlice value) {
+            received();
+            super.responseCode(code, value);
+        }
+        @Override
+        public void status(ByteSlice tag, int code) {
+            received();
+            super.status(tag, code);
+        }
+        @Override
+        public void continuation() {
+            received();
+            super.continuation();
+        }
+        @Override
+        public void untagged(ByteSlice kind) {
+            received();
+            super.untagged(kind);
+        }
+    }
+
+    /**
+     * Completion of pipelined command with untagged responses received since previous completion
+     */
+    public static class Reply {
+        public final String command;
+        public final String tag;
+        public final int code;
+        public final String text;
+        public final long start;
+        public final long end;
+
+        Reply(String command, String tag, int code, String text, long start, long end) {
+            this.command = command;
+            this.tag = tag;
+            this.code = code;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param implicit TLS handshake right after TCP connect, otherwise plain connection (STARTTLS is possible)
+     */
+    public IMAPSessionClient(boolean implicit) {
+        super(false, SharedSSLContext.getInstance().getContext());
+        this.implicit = implicit;
+        setSocketFactory(new MeteredSocketFactory(stats));
+        SharedSSLContext shared = SharedSSLContext.getInstance();
+        if(shared.getProtocols() != null) setEnabledProtocols(shared.getProtocols());
+        if(shared.getCipherSuites() != null) setEnabledCipherSuites(shared.getCipherSuites());
+    }
+
+    @Override
+    public void connect(String hostname, int port) throws SocketException, IOException {
+        this.hostname = hostname;
+        super.connect(resolve(hostname), port);
+    }
+
+    @Override
+    public void connect(String hostname, int port, InetAddress localAddr, int localPort) throws SocketException, IOException {
+        this.hostname = hostname;
+        super.connect(resolve(hostname), port, localAddr, localPort);
+    }
+
+    @Override
+    protected void _connectAction_() throws IOException {
+        endCompression();
+        channel = _socket_.getChannel();
+        if(implicit) {
+            String host = hostname != null ? hostname : getRemoteAddress().getHostAddress();
+            _socket_ = SharedSSLContext.getInstance().handshake(_socket_, host, getRemotePort(), stats);
+            _input_ = _socket_.getInputStream();
+            _output_ = _socket_.getOutputStream();
+        }
+        stats.greetingStarted();
+        super._connectAction_();
+        stats.greetingReceived();
+        installReader();
+        capabilities = null;
+        authenticated = false;
+        mailbox.clear();
+        learnCapabilities();
+    }
+
+    @Override
+    public boolean execTLS() throws IOException {
+        if(!super.execTLS()) return false;
+        installReader();
+        // RFC 3501: capabilities announced before STARTTLS must be discarded
+        capabilities = null;
+        SharedSSLContext.getInstance().handshaked((SSLSocket) _socket_, upgraded, stats);
+        return true;
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        try {
+            super.disconnect();
+        } finally {
+            endCompression();
+        }
+    }
+
+    /**
+     * COMPRESS DEFLATE (RFC 4978). After tagged OK both directions are raw DEFLATE streams,
+     * bytes server sent after OK are already compressed
+     * @param level deflate level of commands and APPENDed messages, 0-9
+     * @return false if server refused, e.g. NO [COMPRESSIONACTIVE]
+     */
+    public boolean execCompress(int level) throws IOException {
+        if(sendCommand("COMPRESS", "DEFLATE") != IMAPReply.OK) return false;
+        compression = new Compression(level, stats);
+        _input_ = compression.inflate(responses.detach());
+        _output_ = compression.deflate(_output_);
+        __writer = new BufferedWriter(new OutputStreamWriter(_output_, ENCODING));
+        // old reader has nothing to hand over, its stream is compressed
+        _reader = null;
+        installReader();
+        return true;
+    }
+
+    public boolean isCompressed() {
+        return compression != null;
+    }
+
+    /**
+     * @return deflate level of active compression, -1 if session is not compressed
+     */
+    public int getCompressionLevel() {
+        return compression != null ? compression.getLevel() : -1;
+    }
+
+    /**
+     * AUTHENTICATE by SASL mechanism (RFC 3501), initial response is sent on first continuation.
+     * Exchange is cancelled by "*" if mechanism fails on server challenge
+     */
+    public boolean authenticate(SaslMechanism mechanism) throws IOException {
+        String pending = mechanism.initialResponse();
+        int code = sendCommand(IMAPCommand.AUTHENTICATE, mechanism.getName());
+        for(int step = 0; code == IMAPReply.CONT; ++step) {
+            String response;
+            if(pending != null) {
+                response = pending;
+                pending = null;
+            } else {
+                response = step < MAX_AUTH_STEPS ? mechanism.respond(challenge(getReplyString())) : null;
+            }
+            code = sendData(response == null ? "*" : response);
+        }
+        if(code != IMAPReply.OK) return false;
+        setState(IMAPState.AUTH_STATE);
+        authenticated();
+        return true;
+    }
+
+    @Override
+    public int sendCommand(String command, String args) throws IOException {
+        String text = args == null ? command : command + " " + args;
+        mailbox.command(text);
+        int code = super.sendCommand(command, args);
+        observe(getReplyStrings());
+        mailbox.completed(text, code == IMAPReply.OK);
+        if(command.equalsIgnoreCase("STARTTLS")) upgraded = System.currentTimeMillis();
+        if(code == IMAPReply.OK) {
+            if(command.equalsIgnoreCase("LOGIN")) authenticated();
+            else if(command.equalsIgnoreCase("CAPABILITY")) learnCapabilities();
+        }
+        return code;
+    }
+
+    /**
+     * Sends command and parses its reply as it is received, literals of messages are copied from read buffer
+     * to sink (or discarded if sink is null), so heap use does not depend on message size
+     * @param command e.g. FETCH or UID FETCH
+     */
+    public StreamedReply stream(String command, String args, OutputStream sink) throws IOException {
+        String full = command + (args == null || args.isEmpty() ? "" : " " + args);
+        FetchCollector collector = new FetchCollector(mailbox, sink);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int code = execute(full, collector, data);
+        return new StreamedReply(code, data.toByteArray(), collector.firstByte, collector.literalBytes, collector.messages);
+    }
+
+    /**
+     * Sends command and parses responses to it by ResponseParser, without reply strings
+     * @param command with args, e.g. "UID STORE 42 +FLAGS (\Seen)"
+     * @param handler receives events, null - only mailbox state does. Handler should pass events to
+     * {@link #getMailboxState()} (see ResponseAdapter) to keep it
+     * @param transcript receives raw response lines without literals up to 64K, may be null
+     * @return IMAPReply.OK, IMAPReply.NO or IMAPReply.BAD
+     */
+    public int execute(String command, ResponseHandler handler, ByteArrayOutputStream transcript) throws IOException {
+        String tag = generateCommandID();
+        String line = tag + " " + command + "\r\n";
+        __writer.write(line);
+        __writer.flush();
+        fireCommandSent(verb(command), line);
+        mailbox.command(command);
+        parser.setTranscript(transcript, MAX_TEXT);
+        int code;
+        try {
+            code = parser.readCompletion(tag, handler == null ? mailbox : handler);
+        } finally {
+            parser.setTranscript(null, 0);
+        }
+        mailbox.completed(command, code == IMAPReply.OK);
+        if(getCommandSupport() != null && getCommandSupport().getListenerCount() > 0) {
+            fireReplyReceived(code, transcript == null ? tag + " completed\r\n" : transcript.toString(ENCODING));
+        }
+        return code;
+    }
+
+    /**
+     * Writes all commands with one flush and reads until every tag is completed (RFC 3501, 5.5).
+     * Commands must fit one line, literals of responses are skipped. Completions may come in any order,
+     * replies are in order of commands and are timed from the write
+     * @param commands e.g. "SELECT INBOX", "FETCH 1:10 FLAGS"
+     */
+    public Reply[] pipeline(String[] commands) throws IOException {
+        String[] tags = new String[commands.length];
+        StringBuilder batch = new StringBuilder();
+        for(int i = 0; i < commands.length; ++i) {
+            tags[i] = generateCommandID();
+            batch.append(tags[i]).append(' ').append(commands[i]).append("\r\n");
+        }
+        long start = System.currentTimeMillis();
+        __writer.write(batch.toString());
+        __writer.flush();
+        for(int i = 0; i < commands.length; ++i) {
+            fireCommandSent(verb(commands[i]), tags[i] + " " + commands[i] + "\r\n");
+            mailbox.command(commands[i]);
+        }
+
+        Reply[] replies = new Reply[commands.length];
+        StringBuilder text = new StringBuilder();
+        int completed = 0;
+        while(completed < commands.length) {
+            String line = readLine("pipeline");
+            append(text, line);
+            int index = IMAPReply.isUntagged(line) || IMAPReply.isContinuation(line) ? -1 : indexOf(tags, line);
+            if(index == -1 || replies[index] != null) {
+                mailbox.untagged(line);
+                for(int size = IMAPReply.literalCount(line); size >= 0; size = IMAPReply.literalCount(line)) {
+                    copy(size, null);
+                    line = readLine("pipeline");
+                    append(text, line);
+                    mailbox.literalTail(line);
+                }
+                continue;
+            }
+            int code = IMAPReply.getReplyCode(line);
+            fireReplyReceived(code, text.toString());
+            mailbox.completed(commands[index], code == IMAPReply.OK);
+            replies[index] = new Reply(commands[index], tags[index], code, text.toString(), start, System.currentTimeMillis());
+            text.setLength(0);
+            completed++;
+        }
+        return replies;
+    }
+
+    /**
+     * APPEND (RFC 3501, 6.3.11) with message streamed as literal. Literal is non-synchronizing if server announced
+     * LITERAL+, or LITERAL- and message is up to 4096 bytes (RFC 7888), otherwise it is sent after continuation
+     * @param args mailbox with optional flags and date, e.g. "Sent (\Seen)"
+     * @param nonSynchronizing use LITERAL+ or LITERAL- if announced
+     * @return continuation (synchronizing literal only) and tagged reply, timed one after another
+     */
+    public Reply[] append(String args, ByteBuffer[] message, boolean nonSynchronizing) throws IOException {
+        long size = 0;
+        for(ByteBuffer segment : message) size += segment.remaining();
+        boolean plus = nonSynchronizing
+                && (hasCapability("LITERAL+") || (hasCapability("LITERAL-") && size <= MAX_LITERAL_MINUS));
+        String tag = generateCommandID();
+        String command = "APPEND " + args + " {" + size + (plus ? "+" : "") + "}";
+        long start = System.currentTimeMillis();
+        __writer.write(tag + " " + command + "\r\n");
+        __writer.flush();
+        fireCommandSent("APPEND", tag + " " + command + "\r\n");
+
+        List<Reply> replies = new ArrayList<Reply>(2);
+        StringBuilder text = new StringBuilder();
+        if(!plus) {
+            String line = readReply(tag, text, true);
+            long now = System.currentTimeMillis();
+            if(!IMAPReply.isContinuation(line)) {
+                // rejected before literal, e.g. mailbox does not exist
+                int code = IMAPReply.getReplyCode(line);
+                fireReplyReceived(code, text.toString());
+                replies.add(new Reply(command, tag, code, text.toString(), start, now));
+                return replies.toArray(new Reply[replies.size()]);
+            }
+            fireReplyReceived(IMAPReply.CONT, text.toString());
+            replies.add(new Reply("<continuation>", tag, IMAPReply.CONT, text.toString(), start, now));
+            text.setLength(0);
+            start = now;
+        }
+        BufferedOutputStream out = new BufferedOutputStream(_output_, BUFFER_SIZE);
+        write(out, message);
+        out.write(CRLF);
+        out.flush();
+        String line = readReply(tag, text, false);
+        int code = IMAPReply.getReplyCode(line);
+        fireReplyReceived(code, text.toString());
+        replies.add(new Reply(command, tag, code, text.toString(), start, System.currentTimeMillis()));
+        return replies.toArray(new Reply[replies.size()]);
+    }
+
+    /**
+     * MULTIAPPEND (RFC 3502) of messages in one command with non-synchronizing literals,
+     * server must announce MULTIAPPEND and LITERAL+
+     * @param mailbox quoted if needed
+     * @param flags flag list of every message, e.g. "(\Seen)", empty - no flags
+     * @return tagged reply, timed from first byte of command
+     */
+    public Reply multiAppend(String mailbox, String flags, List<ByteBuffer[]> messages) throws IOException {
+        String tag = generateCommandID();
+        String command = "APPEND " + mailbox + " x" + messages.size();
+        long start = System.currentTimeMillis();
+        BufferedOutputStream out = new BufferedOutputStream(_output_, BUFFER_SIZE);
+        out.write((tag + " APPEND " + mailbox).getBytes(ENCODING));
+        for(ByteBuffer[] message : messages) {
+            long size = 0;
+            for(ByteBuffer segment : message) size += segment.remaining();
+            out.write(((flags.isEmpty() ? " " : " " + flags + " ") + "{" + size + "+}\r\n").getBytes(ENCODING));
+            write(out, message);
+        }
+        out.write(CRLF);
+        out.flush();
+        fireCommandSent("APPEND", tag + " " + command + "\r\n");
+
+        StringBuilder text = new StringBuilder();
+        String line = readReply(tag, text, false);
+        int code = IMAPReply.getReplyCode(line);
+        fireReplyReceived(code, text.toString());
+        return new Reply(command, tag, code, text.toString(), start, System.currentTimeMillis());
+    }
+
+    /**
+     * Sends IDLE (RFC 2177)
+     * @return true if server waits for DONE
+     */
+    public boolean idle() throws IOException {
+        return sendCommand("IDLE") == IMAPReply.CONT;
+    }
+
+    /**
+     * Ends IDLE, untagged responses received after last {@link #readPushes()} are in reply strings
+     */
+    public boolean done() throws IOException {
+        int code = sendData("DONE");
+        observe(getReplyStrings());
+        return code == IMAPReply.OK;
+    }
+
+    /**
+     * Reads untagged responses pushed during IDLE: one line, then lines already received.
+     * Each read waits at most PUSH_TIMEOUT, readable socket without complete line (e.g. TLS record without data)
+     * gives lines read so far, incomplete line stays in ResponseReader buffer for next call
+     */
+    public List<String> readPushes() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        int timeout = getSoTimeout();
+        setSoTimeout(timeout > 0 ? Math.min(timeout, PUSH_TIMEOUT) : PUSH_TIMEOUT);
+        try {
+            do {
+                String line = readLine("IDLE");
+                mailbox.untagged(line);
+                lines.add(line);
+            } while(responses.lineReady());
+        } catch (SocketTimeoutException e) {
+            // no complete line, e.g. TLS record without application data
+        } finally {
+            setSoTimeout(timeout);
+        }
+        return lines;
+    }
+
+    /**
+     * @return true if complete reply lines are already received, so socket may never become readable for them
+     */
+    public boolean hasPushes() throws IOException {
+        return responses.lineReady();
+    }
+
+    /**
+     * Leaves selected mailbox by UNSELECT (RFC 3691) or CLOSE, which also expunges \Deleted messages
+     */
+    @Override
+    public boolean recycle() throws IOException {
+        if(compression != null || (!implicit && isSecure())) return false;
+        if(mailbox.getMailbox() == null) return true;
+        return sendCommand(hasCapability("UNSELECT") ? "UNSELECT" : "CLOSE") == IMAPReply.OK;
+    }
+
+    /**
+     * @return state of selected mailbox learned from responses of this session
+     */
+    public MailboxState getMailboxState() {
+        return mailbox;
+    }
+
+    /**
+     * @return channel of plain socket, TLS records go through it too. Channel must be
+     * in blocking mode for any I/O of this client
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return capabilities announced by server in current state, null if they were not announced
+     */
+    public Capabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * @return capabilities last announced by this endpoint in current state to any session, null if unknown
+     */
+    public Capabilities getCachedCapabilities() {
+        return Capabilities.cached(getCapabilitiesKey());
+    }
+
+    /**
+     * Consults capabilities of session, then cached capabilities of endpoint, without round-trip
+     * @param capability e.g. IDLE or LITERAL+
+     */
+    public boolean hasCapability(String capability) {
+        Capabilities known = capabilities != null ? capabilities : getCachedCapabilities();
+        return known != null && known.has(capability);
+    }
+
+    // capabilities usually change after login, server may announce them in tagged OK
+    private void authenticated() {
+        authenticated = true;
+        capabilities = null;
+        learnCapabilities();
+    }
+
+    /**
+     * Looks for untagged CAPABILITY response or CAPABILITY response code in last reply
+     */
+    private void learnCapabilities() {
+        for(String line : getReplyStrings()) {
+            String atoms = null;
+            if(line.regionMatches(true, 0, "* CAPABILITY ", 0, 13)) {
+                atoms = line.substring(13);
+            } else {
+                int start = line.toUpperCase().indexOf("[CAPABILITY ");
+                int end = start == -1 ? -1 : line.indexOf(']', start);
+                if(end != -1) atoms = line.substring(start + 12, end);
+            }
+            if(atoms != null) {
+                capabilities = Capabilities.imap(getCapabilitiesKey(), atoms.trim());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Feeds reply lines read by IMAP.getReply to mailbox state. Literal data is in lines there,
+     * it is skipped the same way it was read: by line lengths with CRLF
+     */
+    private void observe(String[] lines) {
+        for(int i = 0; i < lines.length; ++i) {
+            mailbox.untagged(lines[i]);
+            int literal = IMAPReply.literalCount(lines[i]);
+            while(literal >= 0 && i + 1 < lines.length) {
+                literal -= lines[++i].length() + 2;
+                if(literal < 0) mailbox.literalTail(lines[i]);
+            }
+        }
+    }
+
+    private String readLine(String command) throws IOException {
+        String line = _reader.readLine();
+        if(line == null) throw new EOFException("connection closed while reading reply to " + command);
+        return line;
+    }
+
+    /**
+     * Reads untagged responses until tagged reply or continuation
+     * @return last line
+     */
+    private String readReply(String tag, StringBuilder text, boolean continuation) throws IOException {
+        while(true) {
+            String line = readLine(tag);
+            append(text, line);
+            if(line.startsWith(tag + " ") || (continuation && IMAPReply.isContinuation(line))) return line;
+            mailbox.untagged(line);
+            for(int size = IMAPReply.literalCount(line); size >= 0; size = IMAPReply.literalCount(line)) {
+                copy(size, null);
+                line = readLine(tag);
+                append(text, line);
+                mailbox.literalTail(line);
+            }
+        }
+    }
+
+    // literal data, copied through fixed buffer
+    private void write(OutputStream out, ByteBuffer[] message) throws IOException {
+        if(bytes == null) bytes = new byte[BUFFER_SIZE];
+        for(ByteBuffer segment : message) {
+            while(segment.hasRemaining()) {
+                int length = Math.min(bytes.length, segment.remaining());
+                segment.get(bytes, 0, length);
+                out.write(bytes, 0, length);
+            }
+        }
+    }
+
+    private static int indexOf(String[] tags, String line) {
+        for(int i = 0; i < tags.length; ++i) {
+            if(line.startsWith(tags[i]) && line.length() > tags[i].length() && line.charAt(tags[i].length()) == ' ') return i;
+        }
+        return -1;
+    }
+
+    private static String verb(String command) {
+        int space = command.indexOf(' ');
+        return space == -1 ? command : command.substring(0, space);
+    }
+
+    private void copy(int size, OutputStream sink) throws IOException {
+        responses.transfer(size, sink);
+    }
+
+    // replaces line reader of commons-net, so reply lines and ResponseParser share read buffer
+    private void installReader() throws IOException {
+        responses = new ResponseReader(_input_, _reader);
+        _reader = responses;
+        parser = new ResponseParser(responses);
+    }
+
+    private void endCompression() {
+        if(compression == null) return;
+        compression.end();
+        compression = null;
+    }
+
+    private static void append(StringBuilder text, String line) {
+        if(text.length() >= MAX_TEXT) return;
+        if(text.length() + line.length() + 2 > MAX_TEXT) {
+            text.append(line, 0, Math.min(line.length(), MAX_TEXT - text.length())).append("...\r\n");
+            return;
+        }
+        text.append(line).append("\r\n");
+    }
+
+    private String getCapabilitiesKey() {
+        String host = hostname != null ? hostname : getRemoteAddress().getHostAddress();
+        return Capabilities.key("IMAP", host, getRemotePort(), isSecure()) + (authenticated ? "/AUTH" : "");
+    }
+
+    private static String challenge(String reply) {
+        String line = reply.trim();
+        return line.startsWith("+") ? line.substring(1).trim() : line;
+    }
+
+    private InetAddress resolve(String hostname) throws IOException {
+        long start = System.currentTimeMillis();
+        InetAddress address = InetAddress.getByName(hostname);
+        stats.resolved(start, System.currentTimeMillis());
+        return address;
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return _socket_ instanceof SSLSocket;
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import me.schiz.jmeter.protocol.Session;
+import me.schiz.jmeter.protocol.SessionStorage;
+import me.schiz.jmeter.protocol.net.DeliveryClock;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Shared selector loop of IMAP sessions in IDLE (RFC 2177), so waiting sessions don't hold JMeter threads.
+ * Readable sessions are switched back to blocking mode and handed to few worker threads, which read
+ * pushed untagged responses and re-issue IDLE before server timeout. Events are kept per session
+ * until sampler drains them. Registered sessions are ordered by renewal time, so wakeup doesn't scan all sessions.
+ */
+public class IdleLoop {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final long MAX_SELECT = 1000;
+    // events kept per session between reports
+    private static final int MAX_EVENTS = 1024;
+    private static IdleLoop instance = null;
+
+    private final ConcurrentHashMap<String, Watch> watches = new ConcurrentHashMap<String, Watch>();
+    // sessions to register in selector, touched by workers and samplers
+    private final ConcurrentLinkedQueue<Watch> pending = new ConcurrentLinkedQueue<Watch>();
+    private final ConcurrentLinkedQueue<Watch> detaching = new ConcurrentLinkedQueue<Watch>();
+    // registered sessions by renewAt, loop thread only; entries of unregistered sessions are dropped when polled
+    private final PriorityQueue<Watch> renewQueue = new PriorityQueue<Watch>(64, new Comparator<Watch>() {
+        @Override
+        public int compare(Watch a, Watch b) {
+            return a.renewAt < b.renewAt ? -1 : (a.renewAt == b.renewAt ? 0 : 1);
+        }
+    });
+    private Selector selector = null;
+    private Thread loop = null;
+    private ExecutorService workers = null;
+    private volatile boolean running = false;
+
+    private final AtomicLong notifications = new AtomicLong(0);
+    private final AtomicLong renewals = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+    /**
+     * Untagged response pushed by server, IDLE renewal or end of session
+     */
+    public static class Event {
+        public static final String RENEW = "RENEW";
+        public static final String CLOSED = "CLOSED";
+
+        // EXISTS, EXPUNGE, FETCH, RENEW, CLOSED...
+        public final String type;
+        public final String text;
+        public final long time;
+        // since IDLE was issued, ms
+        public final long wait;
+        // since delivery of message to watched user, -1 if unknown
+        public final long latency;
+
+        Event(String type, String text, long time, long wait, long latency) {
+            this.type = type;
+            this.text = text;
+            this.time = time;
+            this.wait = wait;
+            this.latency = latency;
+        }
+    }
+
+    private class Watch {
+        final String name;
+        final Session session;
+        final IMAPSessionClient client;
+        final long renewInterval;
+        final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<Event>();
+        final AtomicInteger eventCount = new AtomicInteger(0);
+        final CountDownLatch detached = new CountDownLatch(1);
+        // loop thread only
+        SelectionKey key = null;
+        boolean queued = false;
+        volatile long idleStart;
+        volatile long renewAt;
+        volatile boolean detach = false;
+
+        Watch(String name, Session session, IMAPSessionClient client, long renewInterval) {
+            this.name = name;
+            this.session = session;
+            this.client = client;
+            this.renewInterval = renewInterval;
+            idled(System.currentTimeMillis());
+        }
+
+        void idled(long now) {
+            idleStart = now;
+            renewAt = now + renewInterval;
+        }
+
+        void event(String type, String text, long time, long latency) {
+            if(eventCount.incrementAndGet() > MAX_EVENTS) {
+                events.poll();
+                eventCount.decrementAndGet();
+            }
+            events.add(new Event(type, text, time, time - idleStart, latency));
+        }
+    }
+
+    public static IdleLoop getInstance() {
+        synchronized(IdleLoop.class) {
+            if(instance == null) instance = new IdleLoop();
+            return instance;
+        }
+    }
+
+    /**
+     * Takes session which has sent IDLE and got continuation. Session must not be used by anybody else until {@link #unwatch(String)}
+     * @param renewInterval DONE + IDLE after this time, ms
+     */
+    public void watch(String name, Session session, IMAPSessionClient client, long renewInterval) throws IOException {
+        start();
+        Watch watch = new Watch(name, session, client, renewInterval);
+        session.setIdling(true);
+        watches.put(name, watch);
+        DeliveryClock.setEnabled(true);
+        pending.add(watch);
+        selector.wakeup();
+    }
+
+    public boolean isWatched(String name) {
+        return watches.containsKey(name);
+    }
+
+    /**
+     * @return events of session since last call, null if session is not watched
+     */
+    public List<Event> drain(String name) {
+        Watch watch = watches.get(name);
+        if(watch == null) return null;
+        return drain(watch);
+    }
+
+    /**
+     * Stops watching session and gives its client back in blocking mode, still in IDLE
+     * @return events since last drain, null if session is not watched or wasn't given back in time
+     */
+    public List<Event> unwatch(String name, long timeout) {
+        Watch watch = watches.remove(name);
+        if(watch == null) return null;
+        watch.detach = true;
+        detaching.add(watch);
+        Selector current = selector;
+        if(current != null) current.wakeup();
+        try {
+            if(!watch.detached.await(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("session `" + name + "` was not detached from IDLE loop in " + timeout + "ms");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        watch.session.setIdling(false);
+        return drain(watch);
+    }
+
+    public int getWatched() {
+        return watches.size();
+    }
+
+    public synchronized void stop() {
+        if(!running) return;
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join(MAX_SELECT * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("can't close IDLE selector", e);
+        }
+        for(Watch watch : watches.values()) {
+            watch.session.setIdling(false);
+            blocking(watch);
+        }
+        log.info("IDLE loop stopped: " + watches.size() + " sessions, " + notifications.get() + " notifications, "
+                + renewals.get() + " renewals, " + failed.get() + " failed");
+        watches.clear();
+        pending.clear();
+        detaching.clear();
+        renewQueue.clear();
+        selector = null;
+    }
+
+    private synchronized void start() throws IOException {
+        if(running) return;
+        selector = Selector.open();
+        notifications.set(0);
+        renewals.set(0);
+        failed.set(0);
+        final AtomicInteger counter = new AtomicInteger(0);
+        workers = Executors.newFixedThreadPool(Math.max(Runtime.getRuntime().availableProcessors(), 2), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "imap-idle-worker-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        running = true;
+        loop = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(running) {
+                    try {
+                        select();
+                    } catch (IOException e) {
+                        log.error("IDLE loop select failed", e);
+                    } catch (RuntimeException e) {
+                        log.error("IDLE loop failed", e);
+                    }
+                }
+            }
+        }, "imap-idle-loop");
+        loop.setDaemon(true);
+        loop.start();
+        log.info("IDLE loop started");
+    }
+
+    private void select() throws IOException {
+        long now = System.currentTimeMillis();
+        long timeout = MAX_SELECT;
+        Watch next = nextRenewal();
+        if(next != null) timeout = Math.min(timeout, Math.max(next.renewAt - now, 1));
+        selector.select(timeout);
+        if(!running) return;
+
+        List<Watch> readable = new ArrayList<Watch>();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while(it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Watch watch = (Watch) key.attachment();
+            key.cancel();
+            watch.key = null;
+            readable.add(watch);
+        }
+        now = System.currentTimeMillis();
+        List<Watch> expired = new ArrayList<Watch>();
+        for(Watch watch = nextRenewal(); watch != null && now >= watch.renewAt; watch = nextRenewal()) {
+            renewQueue.poll();
+            watch.queued = false;
+            watch.key.cancel();
+            watch.key = null;
+            expired.add(watch);
+        }
+        List<Watch> detached = new ArrayList<Watch>();
+        for(Watch watch = detaching.poll(); watch != null; watch = detaching.poll()) {
+            // watch owned by worker or pending registration is detached later
+            if(watch.key == null) continue;
+            watch.key.cancel();
+            watch.key = null;
+            detached.add(watch);
+        }
+        // cancelled keys are deregistered by next selection, only then channel may block
+        if(!readable.isEmpty() || !expired.isEmpty() || !detached.isEmpty()) selector.selectNow();
+
+        for(Watch watch : readable) {
+            if(watch.detach) detached.add(watch);
+            else if(blocking(watch)) read(watch);
+        }
+        for(Watch watch : expired) {
+            if(watch.detach) detached.add(watch);
+            else if(blocking(watch)) renew(watch);
+        }
+        for(Watch watch : detached) {
+            blocking(watch);
+            watch.detached.countDown();
+        }
+        for(Watch watch = pending.poll(); watch != null; watch = pending.poll()) register(watch);
+    }
+
+    private void register(Watch watch) {
+        if(watch.detach) {
+            watch.detached.countDown();
+            return;
+        }
+        SocketChannel channel = watch.client.getChannel();
+        try {
+            // lines received with previous reply never make socket readable
+            if(watch.client.hasPushes()) {
+                read(watch);
+                return;
+            }
+            channel.configureBlocking(false);
+            watch.key = channel.register(selector, SelectionKey.OP_READ, watch);
+            // renewAt changes only after renewal, when watch is out of queue
+            if(!watch.queued) {
+                renewQueue.add(watch);
+                watch.queued = true;
+            }
+        } catch (IOException e) {
+            close(watch, e);
+        }
+    }
+
+    /**
+     * @return registered watch with earliest renewal, entries of watches read, renewed or closed meanwhile are dropped
+     */
+    private Watch nextRenewal() {
+        Watch watch = renewQueue.peek();
+        while(watch != null && watch.key == null) {
+            renewQueue.poll();
+            watch.queued = false;
+            watch = renewQueue.peek();
+        }
+        return watch;
+    }
+
+    private boolean blocking(Watch watch) {
+        try {
+            watch.client.getChannel().configureBlocking(true);
+            return true;
+        } catch (IOException e) {
+            close(watch, e);
+            return false;
+        }
+    }
+
+    private void read(final Watch watch) {
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                IMAPSessionClient client = watch.client;
+                synchronized(client) {
+                    try {
+                        List<String> lines = client.readPushes();
+                        long now = System.currentTimeMillis();
+                        for(String line : lines) pushed(watch, line, now);
+                    } catch (IOException e) {
+                        close(watch, e);
+                        return;
+                    }
+                }
+                requeue(watch);
+            }
+        });
+    }
+
+    private void renew(final Watch watch) {
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                IMAPSessionClient client = watch.client;
+                synchronized(client) {
+                    try {
+                        long start = System.currentTimeMillis();
+                        boolean done = client.done();
+                        long now = System.currentTimeMillis();
+                        // pushes which came with DONE reply
+                        String[] lines = client.getReplyStrings();
+                        for(int i = 0; i < lines.length - 1; ++i) pushed(watch, lines[i], now);
+                        if(!done || !client.idle()) throw new IOException("IDLE renewal failed: " + client.getReplyString().trim());
+                        now = System.currentTimeMillis();
+                        watch.event(Event.RENEW, "DONE + IDLE", now, now - start);
+                        watch.idled(now);
+                        renewals.incrementAndGet();
+                    } catch (IOException e) {
+                        close(watch, e);
+                        return;
+                    }
+                }
+                requeue(watch);
+            }
+        });
+    }
+
+    private void requeue(Watch watch) {
+        pending.add(watch);
+        Selector current = selector;
+        if(current != null) current.wakeup();
+    }
+
+    private void pushed(Watch watch, String line, long now) {
+        String type = type(line);
+        long latency = -1;
+        if(type.equals("EXISTS") && watch.session.getAuthenticated() != null) {
+            long delivered = DeliveryClock.take(watch.session.getAuthenticated());
+            if(delivered != -1) latency = now - delivered;
+        }
+        watch.event(type, line, now, latency);
+        notifications.incrementAndGet();
+    }
+
+    // session is lost: it is removed from storage and closed
+    private void close(Watch watch, Exception e) {
+        log.warn("IDLE session `" + watch.name + "` closed", e);
+        failed.incrementAndGet();
+        watch.event(Event.CLOSED, e.toString(), System.currentTimeMillis(), -1);
+        watch.session.setIdling(false);
+        if(watch.key != null) {
+            watch.key.cancel();
+            watch.key = null;
+        }
+        if(watches.remove(watch.name, watch)) SessionStorage.getInstance().removeClient(watch.name);
+        try {
+            watch.client.disconnect();
+        } catch (IOException ignored) {
+            // already broken
+        }
+        watch.detached.countDown();
+    }
+
+    private List<Event> drain(Watch watch) {
+        List<Event> events = new ArrayList<Event>();
+        for(Event event = watch.events.poll(); event != null; event = watch.events.poll()) {
+            watch.eventCount.decrementAndGet();
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * @return type of untagged response, e.g. EXISTS of "* 23 EXISTS"
+     */
+    private static String type(String line) {
+        String[] words = line.split(" ", 4);
+        if(words.length < 2) return line;
+        if(words.length > 2 && Character.isDigit(words[1].charAt(0))) return words[2].toUpperCase();
+        return words[1].toUpperCase();
+    }
+}
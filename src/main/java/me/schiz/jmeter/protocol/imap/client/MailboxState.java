@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import me.schiz.jmeter.protocol.net.Zipf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * State of selected mailbox learned from responses passing through session: name, UIDVALIDITY, UIDNEXT,
+ * EXISTS and known UIDs (from UID SEARCH, ESEARCH ALL and FETCH responses with UID item).
+ * It is fed by events of ResponseParser or by reply lines of commons-net IMAP, lines are parsed on characters,
+ * no regular expressions. UIDs are unsigned 32-bit values kept in ascending int array.
+ * Not thread-safe, owner of the client must hold its lock
+ */
+public class MailboxState extends ResponseAdapter {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long UNSIGNED = 0xFFFFFFFFL;
+    // longest UID range of ESEARCH taken, larger ranges are not a real mailbox
+    private static final long MAX_RANGE = 1 << 24;
+
+    private String mailbox = null;
+    // mailbox of SELECT or EXAMINE in progress
+    private String selecting = null;
+    private long uidValidity = 0;
+    private long uidNext = 0;
+    private int exists = 0;
+    private int[] uids = new int[INITIAL_CAPACITY];
+    private int count = 0;
+    // SEARCH responses carry UIDs for UID SEARCH, sequence numbers otherwise
+    private boolean uidSearch = false;
+    // sequence number of last untagged FETCH, its UID may follow literal
+    private long fetching = 0;
+    // SEARCH result of events is taken
+    private boolean searching = false;
+    private Zipf zipf = null;
+
+    /**
+     * Command sent to server, e.g. "SELECT INBOX" or "UID SEARCH ALL". SELECT, EXAMINE, CLOSE and UNSELECT
+     * leave selected state right away (RFC 3501, 6.3.1)
+     */
+    public void command(String command) {
+        String verb = word(command, 0);
+        if(verb.equalsIgnoreCase("SELECT") || verb.equalsIgnoreCase("EXAMINE")) {
+            clear();
+            selecting = mailboxName(command.substring(verb.length()).trim());
+        } else if(verb.equalsIgnoreCase("CLOSE") || verb.equalsIgnoreCase("UNSELECT")) {
+            clear();
+        } else if(verb.equalsIgnoreCase("SEARCH")) {
+            uidSearch = false;
+        } else if(verb.equalsIgnoreCase("UID")) {
+            String sub = word(command, verb.length() + 1);
+            if(sub.equalsIgnoreCase("SEARCH")) uidSearch = true;
+        }
+    }
+
+    /**
+     * Completion of command, selected mailbox is known after successful SELECT or EXAMINE
+     */
+    public void completed(String command, boolean ok) {
+        String verb = word(command, 0);
+        if(verb.equalsIgnoreCase("SELECT") || verb.equalsIgnoreCase("EXAMINE")) {
+            mailbox = ok ? selecting : null;
+            if(!ok) clear();
+            selecting = null;
+        }
+    }
+
+    /**
+     * Untagged response line without literal data, other lines are ignored
+     */
+    public void untagged(String line) {
+        if(line.length() < 3 || line.charAt(0) != '*' || line.charAt(1) != ' ') return;
+        char first = line.charAt(2);
+        if(first >= '0' && first <= '9') {
+            int end = digits(line, 2);
+            long number = parse(line, 2, end);
+            if(end >= line.length() || line.charAt(end) != ' ') return;
+            String kind = word(line, end + 1);
+            if(kind.equalsIgnoreCase("EXISTS")) exists(number);
+            else if(kind.equalsIgnoreCase("EXPUNGE")) expunge(number);
+            else if(kind.equalsIgnoreCase("FETCH")) {
+                fetching = number;
+                fetched(line, end + 1 + kind.length());
+            }
+            return;
+        }
+        fetching = 0;
+        String kind = word(line, 2);
+        if(kind.equalsIgnoreCase("OK")) {
+            int code = 2 + kind.length() + 1;
+            if(code < line.length() && line.charAt(code) == '[') responseCode(line, code + 1);
+        } else if(kind.equalsIgnoreCase("SEARCH")) {
+            if(uidSearch) searched(line, 2 + kind.length());
+        } else if(kind.equalsIgnoreCase("ESEARCH")) {
+            esearched(line, 2 + kind.length());
+        }
+    }
+
+    /**
+     * Rest of response line after literal, e.g. " UID 42)" of FETCH with BODY[] before UID
+     */
+    public void literalTail(String line) {
+        if(fetching > 0) fetched(line, 0);
+    }
+
+    @Override
+    public void exists(long number) {
+        exists = (int) number;
+        // messages were expunged without EXPUNGE responses seen, e.g. by other command of pipeline
+        if(count > exists) count = 0;
+    }
+
+    /**
+     * Known UIDs map to sequence numbers only if all of them are known, otherwise they are dropped
+     */
+    @Override
+    public void expunge(long sequence) {
+        if(count == exists && sequence >= 1 && sequence <= count) {
+            int index = (int) sequence;
+            System.arraycopy(uids, index, uids, index - 1, count - index);
+            count--;
+        } else {
+            count = 0;
+        }
+        if(exists > 0) exists--;
+    }
+
+    @Override
+    public void fetchStart(long sequence) {
+        fetching = sequence;
+    }
+
+    @Override
+    public void fetchNumber(ByteSlice item, long value) {
+        if(fetching > 0 && item.equalsIgnoreCase("UID")) add(value);
+    }
+
+    @Override
+    public void fetchEnd(long sequence) {
+        fetching = 0;
+    }
+
+    @Override
+    public void searchStart(boolean extended, boolean uid) {
+        searching = extended ? uid : uidSearch;
+        if(searching) count = 0;
+    }
+
+    @Override
+    public void search(long low, long high) {
+        if(!searching || high - low > MAX_RANGE) return;
+        for(long value = low; value <= high; ++value) add(value);
+    }
+
+    @Override
+    public void responseCode(ByteSlice code, ByteSlice value) {
+        if(code.equalsIgnoreCase("UIDVALIDITY")) validity(value.toNumber());
+        else if(code.equalsIgnoreCase("UIDNEXT")) uidNext = value.toNumber();
+    }
+
+    public void clear() {
+        mailbox = null;
+        selecting = null;
+        uidValidity = 0;
+        uidNext = 0;
+        exists = 0;
+        count = 0;
+        fetching = 0;
+    }
+
+    /**
+     * @param zipf false - uniform, true - Zipf by recency: newest (greatest) UID is rank 1
+     * @return known UID or -1 if none is known
+     */
+    public long pick(Random random, boolean zipf, double exponent) {
+        if(count == 0) return -1;
+        int index;
+        if(zipf) {
+            if(this.zipf == null || this.zipf.getN() != count || this.zipf.getExponent() != exponent) {
+                this.zipf = new Zipf(count, exponent);
+            }
+            index = count - this.zipf.sample(random);
+        } else {
+            index = random.nextInt(count);
+        }
+        return uids[index] & UNSIGNED;
+    }
+
+    public String getMailbox() {
+        return mailbox;
+    }
+    public long getUidValidity() {
+        return uidValidity;
+    }
+    public long getUidNext() {
+        return uidNext;
+    }
+    public int getExists() {
+        return exists;
+    }
+    /**
+     * @return number of known UIDs
+     */
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return (mailbox == null ? "<not selected>" : mailbox) + " UIDVALIDITY " + uidValidity + " UIDNEXT " + uidNext
+                + " EXISTS " + exists + " UIDs " + count;
+    }
+
+    private void responseCode(String line, int start) {
+        String name = word(line, start);
+        int value = start + name.length() + 1;
+        if(value >= line.length()) return;
+        if(name.equalsIgnoreCase("UIDVALIDITY")) {
+            validity(parse(line, value, digits(line, value)));
+        } else if(name.equalsIgnoreCase("UIDNEXT")) {
+            uidNext = parse(line, value, digits(line, value));
+        }
+    }
+
+    private void validity(long validity) {
+        if(validity != uidValidity) count = 0;
+        uidValidity = validity;
+    }
+
+    // UID item of FETCH response: "(FLAGS (\Seen) UID 42 ..."
+    private void fetched(String line, int from) {
+        int length = line.length();
+        for(int i = line.indexOf("UID", from); i != -1; i = line.indexOf("UID", i + 3)) {
+            char before = i == 0 ? ' ' : line.charAt(i - 1);
+            if((before != ' ' && before != '(') || i + 4 >= length || line.charAt(i + 3) != ' ') continue;
+            int end = digits(line, i + 4);
+            if(end == i + 4) continue;
+            add(parse(line, i + 4, end));
+            return;
+        }
+    }
+
+    // "* SEARCH 2 84 882", UIDs are usually ascending
+    private void searched(String line, int from) {
+        count = 0;
+        int length = line.length();
+        int i = from;
+        boolean sorted = true;
+        while(i < length) {
+            while(i < length && line.charAt(i) == ' ') i++;
+            int end = digits(line, i);
+            if(end == i) break;
+            int uid = (int) parse(line, i, end);
+            if(count > 0 && compare(uids[count - 1], uid) >= 0) sorted = false;
+            append(uid);
+            i = end;
+        }
+        if(!sorted) sort();
+    }
+
+    // "* ESEARCH (TAG "A1") UID ALL 2,10:11" (RFC 4731), only UID ALL is taken
+    private void esearched(String line, int from) {
+        int length = line.length();
+        boolean uid = false;
+        int i = from;
+        while(i < length) {
+            while(i < length && line.charAt(i) == ' ') i++;
+            if(i >= length) return;
+            if(line.charAt(i) == '(') {
+                int close = line.indexOf(')', i);
+                if(close == -1) return;
+                i = close + 1;
+                continue;
+            }
+            String item = word(line, i);
+            i += item.length();
+            if(item.equalsIgnoreCase("UID")) {
+                uid = true;
+            } else if(item.equalsIgnoreCase("ALL")) {
+                if(uid) sequenceSet(line, i + 1);
+                return;
+            } else {
+                // value of other return item, e.g. COUNT 5
+                while(i < length && line.charAt(i) == ' ') i++;
+                i += word(line, i).length();
+            }
+        }
+    }
+
+    private void sequenceSet(String line, int from) {
+        count = 0;
+        int length = line.length();
+        int i = from;
+        while(i < length) {
+            int end = digits(line, i);
+            if(end == i) break;
+            long low = parse(line, i, end);
+            long high = low;
+            i = end;
+            if(i < length && line.charAt(i) == ':') {
+                end = digits(line, i + 1);
+                if(end == i + 1) break;
+                high = parse(line, i + 1, end);
+                i = end;
+                if(high < low) {
+                    long swap = low;
+                    low = high;
+                    high = swap;
+                }
+                if(high - low > MAX_RANGE) break;
+            }
+            for(long value = low; value <= high; ++value) append((int) value);
+            if(i >= length || line.charAt(i) != ',') break;
+            i++;
+        }
+        sort();
+    }
+
+    private void add(long value) {
+        int uid = (int) value;
+        if(value >= uidNext) uidNext = value + 1;
+        int low = 0, high = count - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int compared = compare(uids[middle], uid);
+            if(compared == 0) return;
+            if(compared < 0) low = middle + 1;
+            else high = middle - 1;
+        }
+        ensureCapacity(count + 1);
+        System.arraycopy(uids, low, uids, low + 1, count - low);
+        uids[low] = uid;
+        count++;
+    }
+
+    private void append(int uid) {
+        ensureCapacity(count + 1);
+        uids[count++] = uid;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity > uids.length) uids = Arrays.copyOf(uids, Math.max(capacity, uids.length * 2));
+    }
+
+    // unsigned order, duplicates removed
+    private void sort() {
+        for(int i = 0; i < count; ++i) uids[i] ^= Integer.MIN_VALUE;
+        Arrays.sort(uids, 0, count);
+        int unique = 0;
+        for(int i = 0; i < count; ++i) {
+            if(unique == 0 || uids[i] != uids[unique - 1]) uids[unique++] = uids[i];
+        }
+        count = unique;
+        for(int i = 0; i < count; ++i) uids[i] ^= Integer.MIN_VALUE;
+    }
+
+    private static int compare(int a, int b) {
+        return Integer.compare(a ^ Integer.MIN_VALUE, b ^ Integer.MIN_VALUE);
+    }
+
+    private static int digits(String line, int from) {
+        int i = from;
+        while(i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') i++;
+        return i;
+    }
+
+    private static long parse(String line, int start, int end) {
+        long value = 0;
+        for(int i = start; i < end && i < start + 10; ++i) value = value * 10 + (line.charAt(i) - '0');
+        return value & UNSIGNED;
+    }
+
+    // atom up to space, bracket or parenthesis
+    private static String word(String line, int from) {
+        if(from >= line.length()) return "";
+        int i = from;
+        while(i < line.length()) {
+            char c = line.charAt(i);
+            if(c == ' ' || c == ']' || c == '(' || c == ')' || c == '[') break;
+            i++;
+        }
+        return line.substring(from, i);
+    }
+
+    // first argument, quoted or atom, e.g. of "INBOX (CONDSTORE)"
+    private static String mailboxName(String args) {
+        if(args.startsWith("\"")) {
+            StringBuilder name = new StringBuilder();
+            for(int i = 1; i < args.length(); ++i) {
+                char c = args.charAt(i);
+                if(c == '"') break;
+                if(c == '\\' && i + 1 < args.length()) c = args.charAt(++i);
+                name.append(c);
+            }
+            return name.toString();
+        }
+        int space = args.indexOf(' ');
+        return space == -1 ? args : args.substring(0, space);
+    }
+}
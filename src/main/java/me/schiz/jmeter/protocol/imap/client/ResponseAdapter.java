@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * ResponseHandler that passes events to next handler (if any) and discards FETCH data.
+ * Subclasses override events they need and call super to keep the chain
+ */
+public class ResponseAdapter implements ResponseHandler {
+    private final ResponseHandler next;
+
+    public ResponseAdapter() {
+        this(null);
+    }
+    public ResponseAdapter(ResponseHandler next) {
+        this.next = next;
+    }
+
+    @Override
+    public void exists(long count) {
+        if(next != null) next.exists(count);
+    }
+    @Override
+    public void expunge(long sequence) {
+        if(next != null) next.expunge(sequence);
+    }
+    @Override
+    public void fetchStart(long sequence) {
+        if(next != null) next.fetchStart(sequence);
+    }
+    @Override
+    public void fetchNumber(ByteSlice item, long value) {
+        if(next != null) next.fetchNumber(item, value);
+    }
+    @Override
+    public void fetchFlag(ByteSlice flag) {
+        if(next != null) next.fetchFlag(flag);
+    }
+    @Override
+    public OutputStream fetchData(ByteSlice item, long size) throws IOException {
+        return next != null ? next.fetchData(item, size) : null;
+    }
+    @Override
+    public void fetchEnd(long sequence) {
+        if(next != null) next.fetchEnd(sequence);
+    }
+    @Override
+    public void searchStart(boolean extended, boolean uid) {
+        if(next != null) next.searchStart(extended, uid);
+    }
+    @Override
+    public void search(long low, long high) {
+        if(next != null) next.search(low, high);
+    }
+    @Override
+    public void responseCode(ByteSlice code, ByteSlice value) {
+        if(next != null) next.responseCode(code, value);
+    }
+    @Override
+    public void status(ByteSlice tag, int code) {
+        if(next != null) next.status(tag, code);
+    }
+    @Override
+    public void continuation() {
+        if(next != null) next.continuation();
+    }
+    @Override
+    public void untagged(ByteSlice kind) {
+        if(next != null) next.untagged(kind);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Typed events of ResponseParser. Slices point into read buffer and are valid only during the call
+ */
+public interface ResponseHandler {
+    /**
+     * "* n EXISTS"
+     */
+    void exists(long count);
+
+    /**
+     * "* n EXPUNGE"
+     */
+    void expunge(long sequence);
+
+    /**
+     * Start of "* n FETCH (...)", items follow
+     */
+    void fetchStart(long sequence);
+
+    /**
+     * Numeric FETCH item, e.g. UID or RFC822.SIZE
+     */
+    void fetchNumber(ByteSlice item, long value);
+
+    /**
+     * Flag of FETCH item FLAGS, e.g. \Seen
+     */
+    void fetchFlag(ByteSlice flag);
+
+    /**
+     * String or literal FETCH item, e.g. BODY[] or INTERNALDATE
+     * @param size length of data
+     * @return sink of data or null to discard it
+     */
+    OutputStream fetchData(ByteSlice item, long size) throws IOException;
+
+    void fetchEnd(long sequence);
+
+    /**
+     * Start of SEARCH or ESEARCH (RFC 4731) result, numbers follow as {@link #search(long, long)}
+     * @param extended ESEARCH, its ALL set is reported
+     * @param uid numbers are UIDs, known for ESEARCH only: SEARCH returns UIDs for UID SEARCH command
+     */
+    void searchStart(boolean extended, boolean uid);
+
+    /**
+     * Number (low == high) or range of SEARCH result
+     */
+    void search(long low, long high);
+
+    /**
+     * Response code of status response, e.g. [UIDNEXT 4392] or [READ-WRITE]
+     * @param value text after code name, empty if none
+     */
+    void responseCode(ByteSlice code, ByteSlice value);
+
+    /**
+     * Status response OK, NO or BAD
+     * @param tag empty for untagged response
+     * @param code IMAPReply.OK, IMAPReply.NO or IMAPReply.BAD
+     */
+    void status(ByteSlice tag, int code);
+
+    /**
+     * Command continuation request "+ ..."
+     */
+    void continuation();
+
+    /**
+     * Other untagged responses, e.g. FLAGS, LIST, CAPABILITY, RECENT or BYE. Their data is skipped
+     */
+    void untagged(ByteSlice kind);
+}
@@ -0,0 +1,428 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import org.apache.commons.net.imap.IMAPReply;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Incremental parser of IMAP responses (RFC 3501, 9) working in buffer of ResponseReader: each line is tokenized
+ * in place (atoms, quoted strings, lists, response codes) as soon as it is received, literals go from buffer
+ * to sink of handler. Decoded data is reported as typed events of ResponseHandler, other data is skipped
+ * without Strings. Not thread-safe, owner of the client must hold its lock
+ */
+public class ResponseParser {
+    public static final int UNTAGGED = 0;
+    public static final int TAGGED = 1;
+    public static final int CONTINUATION = 2;
+
+    private final ResponseReader reader;
+    private final ByteSlice first = new ByteSlice();
+    private final ByteSlice second = new ByteSlice();
+    private final ByteSlice empty = new ByteSlice();
+
+    // current line is buffer[reader.position, end), CRLF follows
+    private byte[] buffer;
+    private int index;
+    private int end;
+
+    // raw response lines without literal data, up to limit
+    private ByteArrayOutputStream transcript = null;
+    private int transcriptLimit = 0;
+    private String expected = null;
+    private boolean matched = false;
+    private int code = -1;
+
+    public ResponseParser(ResponseReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param transcript receives response lines without literal data, null - no transcript
+     * @param limit max bytes of transcript
+     */
+    public void setTranscript(ByteArrayOutputStream transcript, int limit) {
+        this.transcript = transcript;
+        this.transcriptLimit = limit;
+    }
+
+    /**
+     * Reads responses until tagged response with tag
+     * @return IMAPReply.OK, IMAPReply.NO or IMAPReply.BAD
+     */
+    public int readCompletion(String tag, ResponseHandler handler) throws IOException {
+        expected = tag;
+        try {
+            while(next(handler) != TAGGED || !matched) {
+                // untagged data, continuation or completion of other command
+            }
+            return code;
+        } finally {
+            expected = null;
+        }
+    }
+
+    /**
+     * Reads one response, including its literals
+     * @return UNTAGGED, TAGGED or CONTINUATION
+     */
+    public int next(ResponseHandler handler) throws IOException {
+        line();
+        matched = false;
+        if(peek() == '+') {
+            index = end;
+            finishLine();
+            handler.continuation();
+            return CONTINUATION;
+        }
+        if(peek() == '*') {
+            index++;
+            untagged(handler);
+            skipRest();
+            finishLine();
+            return UNTAGGED;
+        }
+        int tagStart = index;
+        skipAtom();
+        first.set(buffer, tagStart, index - tagStart);
+        matched = expected != null && first.equalsIgnoreCase(expected);
+        int tagEnd = index;
+        spaces();
+        int status = statusCode();
+        if(status != -1) responseText(handler);
+        code = status == -1 ? IMAPReply.BAD : status;
+        handler.status(first.set(buffer, tagStart, tagEnd - tagStart), code);
+        index = end;
+        finishLine();
+        return TAGGED;
+    }
+
+    /**
+     * @return code of last tagged response
+     */
+    public int getCode() {
+        return code;
+    }
+
+    private void untagged(ResponseHandler handler) throws IOException {
+        spaces();
+        if(isDigit(peek())) {
+            long number = number();
+            spaces();
+            int start = index;
+            skipAtom();
+            first.set(buffer, start, index - start);
+            if(first.equalsIgnoreCase("EXISTS")) handler.exists(number);
+            else if(first.equalsIgnoreCase("EXPUNGE")) handler.expunge(number);
+            else if(first.equalsIgnoreCase("FETCH")) fetch(number, handler);
+            else handler.untagged(first);
+            return;
+        }
+        int status = statusCode();
+        if(status != -1) {
+            responseText(handler);
+            handler.status(empty, status);
+            index = end;
+            return;
+        }
+        int start = index;
+        skipAtom();
+        first.set(buffer, start, index - start);
+        if(first.equalsIgnoreCase("SEARCH")) {
+            search(handler);
+        } else if(first.equalsIgnoreCase("ESEARCH")) {
+            esearch(handler);
+        } else if(first.equalsIgnoreCase("BYE") || first.equalsIgnoreCase("PREAUTH")) {
+            handler.untagged(first);
+            // resp-text is not tokenized
+            responseText(handler);
+            index = end;
+        } else {
+            handler.untagged(first);
+        }
+    }
+
+    // msg-att: "(" item SP value *(SP item SP value) ")", values may be literals on next lines
+    private void fetch(long sequence, ResponseHandler handler) throws IOException {
+        handler.fetchStart(sequence);
+        spaces();
+        if(peek() != '(') return;
+        index++;
+        while(true) {
+            spaces();
+            int c = peek();
+            if(c == -1 || c == ')') {
+                if(c == ')') index++;
+                break;
+            }
+            int start = index;
+            skipAtom();
+            if(index == start) {
+                // unexpected token
+                skipValue();
+                continue;
+            }
+            first.set(buffer, start, index - start);
+            spaces();
+            c = peek();
+            if(c == '(' && first.equalsIgnoreCase("FLAGS")) {
+                flags(handler);
+            } else if(isDigit(c)) {
+                handler.fetchNumber(first, number());
+            } else if(c == '"') {
+                int quoted = index + 1;
+                skipQuoted();
+                OutputStream sink = handler.fetchData(first, index - 1 - quoted);
+                if(sink != null) sink.write(buffer, quoted, index - 1 - quoted);
+            } else if(c == '{' || c == '~') {
+                long size = literalSize();
+                literal(size, handler.fetchData(first, size));
+            } else {
+                skipValue();
+            }
+        }
+        handler.fetchEnd(sequence);
+    }
+
+    private void flags(ResponseHandler handler) {
+        index++;
+        while(true) {
+            spaces();
+            int c = peek();
+            if(c == -1 || c == ')') {
+                if(c == ')') index++;
+                return;
+            }
+            int start = index;
+            skipAtom();
+            if(index == start) {
+                index++;
+                continue;
+            }
+            handler.fetchFlag(second.set(buffer, start, index - start));
+        }
+    }
+
+    // "* SEARCH 2 84 882", optionally followed by "(MODSEQ 917162500)" (RFC 7162)
+    private void search(ResponseHandler handler) {
+        handler.searchStart(false, false);
+        while(true) {
+            spaces();
+            if(!isDigit(peek())) return;
+            long number = number();
+            handler.search(number, number);
+        }
+    }
+
+    // "* ESEARCH (TAG "A282") UID MIN 2 COUNT 3 ALL 2,10:11"
+    private void esearch(ResponseHandler handler) throws IOException {
+        boolean uid = false;
+        while(true) {
+            spaces();
+            int c = peek();
+            if(c == -1) return;
+            if(c == '(') {
+                skipValue();
+                continue;
+            }
+            int start = index;
+            skipAtom();
+            if(index == start) {
+                index++;
+                continue;
+            }
+            first.set(buffer, start, index - start);
+            if(first.equalsIgnoreCase("UID")) {
+                uid = true;
+            } else if(first.equalsIgnoreCase("ALL")) {
+                spaces();
+                handler.searchStart(true, uid);
+                sequenceSet(handler);
+            } else {
+                spaces();
+                skipValue();
+            }
+        }
+    }
+
+    private void sequenceSet(ResponseHandler handler) {
+        while(isDigit(peek())) {
+            long low = number();
+            long high = low;
+            if(peek() == ':') {
+                index++;
+                high = number();
+            }
+            handler.search(Math.min(low, high), Math.max(low, high));
+            if(peek() != ',') return;
+            index++;
+        }
+    }
+
+    // resp-text: ["[" resp-text-code "]" SP] text
+    private void responseText(ResponseHandler handler) {
+        spaces();
+        if(peek() != '[') return;
+        int start = ++index;
+        while(index < end && buffer[index] != ' ' && buffer[index] != ']') index++;
+        first.set(buffer, start, index - start);
+        int depth = 0;
+        if(peek() == ' ') index++;
+        int value = index;
+        while(index < end && (buffer[index] != ']' || depth > 0)) {
+            if(buffer[index] == '(') depth++;
+            else if(buffer[index] == ')') depth--;
+            index++;
+        }
+        handler.responseCode(first, second.set(buffer, value, index - value));
+        if(index < end) index++;
+    }
+
+    // OK, NO or BAD atom, -1 for other atoms (index stays)
+    private int statusCode() {
+        int start = index;
+        skipAtom();
+        first.set(buffer, start, index - start);
+        if(first.equalsIgnoreCase("OK")) return IMAPReply.OK;
+        if(first.equalsIgnoreCase("NO")) return IMAPReply.NO;
+        if(first.equalsIgnoreCase("BAD")) return IMAPReply.BAD;
+        index = start;
+        return -1;
+    }
+
+    // rest of response: unknown data, lists may span lines through literals
+    private void skipRest() throws IOException {
+        while(true) {
+            spaces();
+            if(index >= end) return;
+            skipValue();
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        if(c == '(') {
+            index++;
+            while(true) {
+                spaces();
+                c = peek();
+                if(c == -1) return;
+                if(c == ')') {
+                    index++;
+                    return;
+                }
+                skipValue();
+            }
+        }
+        if(c == '"') {
+            skipQuoted();
+        } else if(c == '{' || c == '~') {
+            literal(literalSize(), null);
+        } else if(c == ')' || c == ']') {
+            index++;
+        } else {
+            int start = index;
+            skipAtom();
+            if(index == start) index++;
+        }
+    }
+
+    /**
+     * Atom, number or NIL; section and partial of FETCH item are its part, e.g. BODY[HEADER.FIELDS (DATE)]<0>
+     */
+    private void skipAtom() {
+        int depth = 0;
+        while(index < end) {
+            byte c = buffer[index];
+            if(depth == 0 && (c == ' ' || c == '(' || c == ')' || c == '"' || c == '{' || c == ']')) return;
+            if(c == '[') depth++;
+            else if(c == ']') depth--;
+            index++;
+        }
+    }
+
+    private void skipQuoted() {
+        index++;
+        while(index < end) {
+            byte c = buffer[index++];
+            if(c == '\\') index++;
+            else if(c == '"') return;
+        }
+        index = end;
+    }
+
+    // "{123}", "{123+}" or "~{123}" at end of line
+    private long literalSize() {
+        if(peek() == '~') index++;
+        index++;
+        long size = number();
+        while(index < end && buffer[index] != '}') index++;
+        index = end;
+        return size;
+    }
+
+    /**
+     * Data of literal, then parsing goes on with next line of response
+     */
+    private void literal(long size, OutputStream sink) throws IOException {
+        if(size < 0) return;
+        finishLine();
+        reader.transfer(size, sink);
+        line();
+    }
+
+    private long number() {
+        long value = 0;
+        while(index < end && isDigit(buffer[index])) value = value * 10 + (buffer[index++] - '0');
+        return value;
+    }
+
+    private void spaces() {
+        while(index < end && buffer[index] == ' ') index++;
+    }
+
+    private int peek() {
+        return index < end ? buffer[index] & 0xff : -1;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void line() throws IOException {
+        int lf = reader.lineEnd();
+        if(lf == -1) throw new EOFException("connection closed while reading response");
+        buffer = reader.buffer;
+        index = reader.position;
+        end = lf - 1;
+    }
+
+    private void finishLine() {
+        if(transcript != null) {
+            int length = Math.min(end + 2 - reader.position, transcriptLimit - transcript.size());
+            if(length > 0) transcript.write(buffer, reader.position, length);
+        }
+        reader.position = end + 2;
+    }
+}
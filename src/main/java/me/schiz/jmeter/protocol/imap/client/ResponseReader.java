@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.imap.client;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Reader of server responses over own byte buffer. Replaces CRLFLineReader of commons-net IMAP, so
+ * reply lines of IMAP.getReply and tokens of ResponseParser come from the same buffer.
+ * Lines end with CRLF, bytes map to chars as ISO-8859-1. Buffer grows to longest line, literals
+ * are copied through it in chunks
+ */
+public class ResponseReader extends BufferedReader {
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+
+    private final InputStream in;
+    // unread bytes are buffer[position, limit)
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int position = 0;
+    int limit = 0;
+
+    public ResponseReader(InputStream in) {
+        super(new StringReader(""), 1);
+        this.in = in;
+    }
+
+    /**
+     * @param pending previous reader of stream, chars it has read ahead are taken over
+     */
+    public ResponseReader(InputStream in, Reader pending) throws IOException {
+        this(in);
+        if(pending == null) return;
+        while(pending.ready()) {
+            int c = pending.read();
+            if(c == -1) break;
+            if(limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[limit++] = (byte) c;
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        int end = lineEnd();
+        if(end == -1) {
+            if(position == limit) return null;
+            String rest = new String(buffer, position, limit - position, ENCODING);
+            position = limit;
+            return rest;
+        }
+        String line = new String(buffer, position, end - 1 - position, ENCODING);
+        position = end + 1;
+        return line;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(position == limit && fill() == -1) return -1;
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if(length == 0) return 0;
+        if(position == limit && fill() == -1) return -1;
+        int count = Math.min(length, limit - position);
+        for(int i = 0; i < count; ++i) chars[offset + i] = (char) (buffer[position + i] & 0xff);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while(skipped < n) {
+            if(position == limit && fill() == -1) break;
+            int count = (int) Math.min(n - skipped, limit - position);
+            position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return position < limit || in.available() > 0;
+    }
+
+    /**
+     * Unlike {@link #ready()}, buffered part of line doesn't count
+     * @return true if complete line is buffered or more bytes came from stream
+     */
+    public boolean lineReady() throws IOException {
+        for(int i = position + 1; i < limit; ++i) {
+            if(buffer[i] == '\n' && buffer[i - 1] == '\r') return true;
+        }
+        return in.available() > 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Copies literal to sink straight from buffer, without chars
+     * @param sink null to discard
+     */
+    public void transfer(long size, OutputStream sink) throws IOException {
+        long remaining = size;
+        while(remaining > 0) {
+            if(position == limit && fill() == -1) throw new EOFException("connection closed inside literal");
+            int count = (int) Math.min(remaining, limit - position);
+            if(sink != null) sink.write(buffer, position, count);
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Gives up bytes read ahead, e.g. start of compressed stream after tagged OK of COMPRESS.
+     * Reader is empty after it and must not be used
+     * @return bytes read ahead followed by rest of stream
+     */
+    public InputStream detach() {
+        byte[] ahead = Arrays.copyOfRange(buffer, position, limit);
+        position = limit;
+        return ahead.length == 0 ? in : new SequenceInputStream(new ByteArrayInputStream(ahead), in);
+    }
+
+    /**
+     * Reads until line at position is complete, line stays contiguous in buffer
+     * @return index of LF of CRLF ending the line, -1 if stream ended before it
+     */
+    int lineEnd() throws IOException {
+        int from = position + 1;
+        while(true) {
+            for(int i = from; i < limit; ++i) {
+                if(buffer[i] == '\n' && buffer[i - 1] == '\r') return i;
+            }
+            int scanned = limit - position;
+            if(fill() == -1) return -1;
+            from = position + Math.max(scanned, 1);
+        }
+    }
+
+    /**
+     * Reads more bytes after limit, consumed bytes are dropped and buffer grows if it is full of unread bytes.
+     * Indexes into buffer move by position change
+     * @return count of bytes read, -1 at end of stream
+     */
+    int fill() throws IOException {
+        if(position == limit) {
+            position = 0;
+            limit = 0;
+        } else if(limit == buffer.length) {
+            if(position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            } else {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        int count = in.read(buffer, limit, buffer.length - limit);
+        if(count > 0) limit += count;
+        return count;
+    }
+}
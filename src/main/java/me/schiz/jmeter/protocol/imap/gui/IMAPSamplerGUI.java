@@ -32,6 +32,7 @@ import javax.swing.JTextField;
 
 
 import me.schiz.jmeter.protocol.imap.sampler.IMAPSampler;
+import me.schiz.jmeter.protocol.net.Sasl;
 
 import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
 import org.apache.jmeter.testelement.TestElement;
@@ -70,11 +71,22 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
     private JTextField      tfConnectionTimeout;
     private JCheckBox       cbUseSSL;
     private JCheckBox       cbTcpNoDelay;
+    private JCheckBox       cbUsePool;
 
     //Client settings
     private JPanel          jpClientPanel;
     private JTextField      tfClientName;
     private JTextField      tfClientPassword;
+    private JComboBox       cbAuthMechanism;
+    private JCheckBox       cbUseKnownCapability;
+    private JTextField      tfFetchFile;
+    private JTextField      tfMessageFile;
+    private JTextField      tfGenerator;
+    private JCheckBox       cbUseLiteralPlus;
+    private JComboBox       cbSelection;
+    private JTextField      tfZipfExponent;
+    private JTextField      tfIdleRenew;
+    private JTextField      tfCompressionLevel;
 
 
     public IMAPSamplerGUI() {
@@ -128,10 +140,21 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
             this.tfConnectionTimeout.setText("" + cs.getPropertyAsInt(IMAPSampler.CONNECTION_TIMEOUT));
             this.cbUseSSL.setSelected(cs.getPropertyAsBoolean(IMAPSampler.USE_SSL));
             this.cbTcpNoDelay.setSelected(cs.getPropertyAsBoolean(IMAPSampler.TCP_NODELAY));
+            this.cbUsePool.setSelected(cs.getUsePool());
 
             //Client settings
             this.tfClientName.setText(cs.getPropertyAsString(IMAPSampler.CLIENT_NAME));
             this.tfClientPassword.setText(cs.getPropertyAsString(IMAPSampler.CLIENT_PASSWORD));
+            this.cbAuthMechanism.setSelectedItem(cs.getAuthMechanism());
+            this.cbUseKnownCapability.setSelected(cs.getUseKnownCapability());
+            this.tfFetchFile.setText(cs.getFetchFile());
+            this.tfMessageFile.setText(cs.getMessageFile());
+            this.tfGenerator.setText(cs.getGenerator());
+            this.cbUseLiteralPlus.setSelected(cs.getUseLiteralPlus());
+            this.cbSelection.setSelectedItem(cs.getSelection());
+            this.tfZipfExponent.setText(cs.getZipfExponent());
+            this.tfIdleRenew.setText("" + cs.getIdleRenew());
+            this.tfCompressionLevel.setText("" + cs.getCompressionLevel());
         }
     }
 
@@ -159,21 +182,33 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
             imapSampler.setConnectionTimeout(Integer.parseInt(tfConnectionTimeout.getText()));
             imapSampler.setUseSSL(cbUseSSL.isSelected());
             imapSampler.setTcpNoDelay(cbTcpNoDelay.isSelected());
+            imapSampler.setUsePool(cbUsePool.isSelected());
 
             //Client settings
             imapSampler.setClientName(tfClientName.getText());
             imapSampler.setClientPassword(tfClientPassword.getText());
+            imapSampler.setAuthMechanism((String) cbAuthMechanism.getSelectedItem());
+            imapSampler.setUseKnownCapability(cbUseKnownCapability.isSelected());
+            imapSampler.setFetchFile(tfFetchFile.getText());
+            imapSampler.setMessageFile(tfMessageFile.getText());
+            imapSampler.setGenerator(tfGenerator.getText());
+            imapSampler.setUseLiteralPlus(cbUseLiteralPlus.isSelected());
+            imapSampler.setSelection((String) cbSelection.getSelectedItem());
+            imapSampler.setZipfExponent(tfZipfExponent.getText());
+            imapSampler.setIdleRenew(Integer.parseInt(tfIdleRenew.getText()));
+            imapSampler.setCompressionLevel(Integer.parseInt(tfCompressionLevel.getText()));
 
             String curOp = cbOperation.getSelectedItem().toString();
             if(curOp.equals("CONNECT")) {
                 setEnabledServerPanel(true);
                 setEnabledCommandPanel(false);
                 setEnabledClientPanel(false);
-            } else if (curOp.equals("LOGIN")) {
+            } else if (curOp.equals("LOGIN") || curOp.equals("AUTHENTICATE")) {
                 setEnabledServerPanel(false);
                 setEnabledCommandPanel(false);
                 setEnabledClientPanel(true);
-            } else if (curOp.equals("COMMAND")) {
+            } else if (curOp.equals("COMMAND") || curOp.equals("FETCH") || curOp.equals("PIPELINE") || curOp.equals("APPEND")
+                    || curOp.startsWith("UID ")) {
                 setEnabledServerPanel(false);
                 setEnabledCommandPanel(true);
                 setEnabledClientPanel(false);
@@ -206,10 +241,21 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
         this.tfSoTimeout.setText("2000");
         this.cbUseSSL.setSelected(false);
         this.cbTcpNoDelay.setSelected(true);
+        this.cbUsePool.setSelected(false);
 
         //Client settings
         this.tfClientName.setText("user@example.com");
         this.tfClientPassword.setText("SexyPassord");
+        this.cbAuthMechanism.setSelectedItem("PLAIN");
+        this.cbUseKnownCapability.setSelected(false);
+        this.tfFetchFile.setText("");
+        this.tfMessageFile.setText("");
+        this.tfGenerator.setText("");
+        this.cbUseLiteralPlus.setSelected(true);
+        this.cbSelection.setSelectedItem("uniform");
+        this.tfZipfExponent.setText("1.0");
+        this.tfIdleRenew.setText("1740");
+        this.tfCompressionLevel.setText("6");
     }
     private void init() {
         setLayout(new BorderLayout(0, 5));
@@ -246,6 +292,11 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
         addToPanel(jpGeneralPanel, editConstraints, 1, 0, tfClient = new JTextField(32));
         addToPanel(jpGeneralPanel, labelConstraints, 0, 1, new JLabel("Operation: ", JLabel.RIGHT));
         addToPanel(jpGeneralPanel, editConstraints, 1, 1, cbOperation = new JComboBox(IMAPSampler.operations.toArray(new String[]{})));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 2, cbUseKnownCapability = new JCheckBox("CAPABILITY from greeting or cache"));
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 3, new JLabel("IDLE renew, s: ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 3, tfIdleRenew = new JTextField(5));
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 4, new JLabel("COMPRESS level (0-9): ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 4, tfCompressionLevel = new JTextField(5));
 
         jpCommandPanel = new JPanel(new GridBagLayout());
         jpCommandPanel.setBorder(BorderFactory.createTitledBorder(
@@ -258,6 +309,17 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
         taCommandArgs.setRows(4);
         taCommandArgs.setLineWrap(true);
         taCommandArgs.setWrapStyleWord(true);
+        addToPanel(jpCommandPanel, labelConstraints, 0, 1, new JLabel("FETCH literals to file: ", JLabel.LEFT));
+        addToPanel(jpCommandPanel, editConstraints, 1, 1, tfFetchFile = new JTextField(32));
+        addToPanel(jpCommandPanel, labelConstraints, 0, 2, new JLabel("APPEND Message File or Directory: ", JLabel.LEFT));
+        addToPanel(jpCommandPanel, editConstraints, 1, 2, tfMessageFile = new JTextField(32));
+        addToPanel(jpCommandPanel, labelConstraints, 0, 3, new JLabel("APPEND Generated Sizes (size:weight, ...): ", JLabel.LEFT));
+        addToPanel(jpCommandPanel, editConstraints, 1, 3, tfGenerator = new JTextField(32));
+        addToPanel(jpCommandPanel, editConstraints, 1, 4, cbUseLiteralPlus = new JCheckBox("Non-synchronizing literal (LITERAL+, LITERAL-)"));
+        addToPanel(jpCommandPanel, labelConstraints, 0, 5, new JLabel("UID Selection: ", JLabel.LEFT));
+        addToPanel(jpCommandPanel, editConstraints, 1, 5, cbSelection = new JComboBox(IMAPSampler.SELECTIONS));
+        addToPanel(jpCommandPanel, labelConstraints, 0, 6, new JLabel("Zipf Exponent: ", JLabel.LEFT));
+        addToPanel(jpCommandPanel, editConstraints, 1, 6, tfZipfExponent = new JTextField(5));
 
         jpServerPanel = new JPanel(new GridBagLayout());
         jpServerPanel.setBorder(BorderFactory.createTitledBorder(
@@ -272,6 +334,7 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
 		addToPanel(jpServerPanel, editConstraints, 3, 1, tfLocalAddress = new JTextField(5));
         addToPanel(jpServerPanel, editConstraints, 3, 2, cbUseSSL = new JCheckBox("SSL"));
         addToPanel(jpServerPanel, editConstraints, 3, 3, cbTcpNoDelay = new JCheckBox("TCP_NODELAY"));
+        addToPanel(jpServerPanel, editConstraints, 3, 4, cbUsePool = new JCheckBox("Pooled"));
         addToPanel(jpServerPanel, labelConstraints, 0, 1, new JLabel("Default Timeout: ", JLabel.LEFT));
         addToPanel(jpServerPanel, editConstraints, 1, 1, tfDefaultTimeout = new JTextField(5));
         addToPanel(jpServerPanel, labelConstraints, 0, 2, new JLabel("Socket Timeout: ", JLabel.LEFT));
@@ -288,6 +351,8 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
         addToPanel(jpClientPanel, editConstraints, 1, 0, tfClientName = new JTextField(16));
         addToPanel(jpClientPanel, labelConstraints, 2, 0, new JLabel("Password: ", JLabel.LEFT));
         addToPanel(jpClientPanel, editConstraints, 3, 0, tfClientPassword = new JTextField(16));
+        addToPanel(jpClientPanel, labelConstraints, 0, 1, new JLabel("SASL: ", JLabel.LEFT));
+        addToPanel(jpClientPanel, editConstraints, 1, 1, cbAuthMechanism = new JComboBox(Sasl.MECHANISMS));
 
         // Compilation panels
         addToPanel(mainPanel, editConstraints, 0, 0, jpHeaderPanel);
@@ -311,6 +376,12 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
         jpCommandPanel.setEnabled(enabled);
         cbCommand.setEnabled(enabled);
         taCommandArgs.setEnabled(enabled);
+        tfFetchFile.setEnabled(enabled);
+        tfMessageFile.setEnabled(enabled);
+        tfGenerator.setEnabled(enabled);
+        cbUseLiteralPlus.setEnabled(enabled);
+        cbSelection.setEnabled(enabled);
+        tfZipfExponent.setEnabled(enabled);
     }
 
     private void setEnabledServerPanel(boolean enabled) {
@@ -323,10 +394,12 @@ public class IMAPSamplerGUI extends AbstractSamplerGui {
         tfConnectionTimeout.setEnabled(enabled);
         cbUseSSL.setEnabled(enabled);
         cbTcpNoDelay.setEnabled(enabled);
+        cbUsePool.setEnabled(enabled);
     }
     private void setEnabledClientPanel(boolean enabled) {
         jpClientPanel.setEnabled(enabled);
         tfClientName.setEnabled(enabled);
         tfClientPassword.setEnabled(enabled);
+        cbAuthMechanism.setEnabled(enabled);
     }
 }
\ No newline at end of file
@@ -17,21 +17,44 @@
  */
 package me.schiz.jmeter.protocol.imap.sampler;
 
+import me.schiz.jmeter.protocol.Session;
+import me.schiz.jmeter.protocol.SessionPool;
 import me.schiz.jmeter.protocol.SessionStorage;
+import me.schiz.jmeter.protocol.imap.client.IMAPSessionClient;
+import me.schiz.jmeter.protocol.imap.client.IdleLoop;
+import me.schiz.jmeter.protocol.imap.client.MailboxState;
+import me.schiz.jmeter.protocol.net.Capabilities;
+import me.schiz.jmeter.protocol.net.MessageCorpus;
+import me.schiz.jmeter.protocol.net.MessageGenerator;
+import me.schiz.jmeter.protocol.net.Sasl;
+import me.schiz.jmeter.protocol.net.SaslMechanism;
+import me.schiz.jmeter.protocol.net.SessionClient;
+import me.schiz.jmeter.protocol.net.WireTrace;
 import org.apache.commons.net.SocketClient;
 import org.apache.commons.net.imap.IMAPClient;
 import org.apache.commons.net.imap.IMAPCommand;
-import org.apache.commons.net.imap.IMAPSClient;
+import org.apache.commons.net.imap.IMAPReply;
 import org.apache.jmeter.samplers.AbstractSampler;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author Epikhin Mikhail (epihin-m@yandex.ru)
@@ -42,11 +65,18 @@ public class IMAPSampler extends AbstractSampler{
     // TODO add request information
     // TODO add logging
     // TODO buy milk
-    // TODO UID support
     private static final Logger log = LoggingManager.getLoggerForClass();
     private static final long serialVersionUID = 2105827624749965416L;
 
     private static final String RC_ERROR = "500";
+    // sub-results of streamed FETCH
+    private static final int MAX_MESSAGE_RESULTS = 100;
+    // RFC 2177: server may log out client after 30 minutes of IDLE
+    private static final int DEFAULT_IDLE_RENEW = 29 * 60;
+    // max wait for IdleLoop to give session back, ms
+    private static final long UNWATCH_TIMEOUT = 30000;
+    // zlib default
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
 
     public static final String CLIENT = "IMAPSampler.client";
     public static final String OPERATION = "IMAPSampler.operation";
@@ -63,6 +93,19 @@ public class IMAPSampler extends AbstractSampler{
     public static final String CLIENT_NAME = "IMAPSampler.client_name";
     public static final String CLIENT_PASSWORD = "IMAPSampler.client_password";
     public static final String CHECK_SUCCESSFUL = "IMAPSampler.check_successful";
+    public static final String USE_POOL = "IMAPSampler.use_pool";
+    public static final String AUTH_MECHANISM = "IMAPSampler.auth_mechanism";
+    public static final String USE_KNOWN_CAPABILITY = "IMAPSampler.use_known_capability";
+    public static final String FETCH_FILE = "IMAPSampler.fetch_file";
+    public static final String IDLE_RENEW = "IMAPSampler.idle_renew";
+    public static final String MESSAGE_FILE = "IMAPSampler.message_file";
+    public static final String GENERATOR = "IMAPSampler.generator";
+    public static final String USE_LITERAL_PLUS = "IMAPSampler.use_literal_plus";
+    public static final String SELECTION = "IMAPSampler.selection";
+    public static final String ZIPF_EXPONENT = "IMAPSampler.zipf_exponent";
+    public static final String COMPRESSION_LEVEL = "IMAPSampler.compression_level";
+
+    public static final String[] SELECTIONS = {"uniform", "zipf"};
 
     public static final LinkedList<String> operations = new LinkedList<String>();
     public static final LinkedList<String> commands = new LinkedList<String>();
@@ -70,9 +113,20 @@ public class IMAPSampler extends AbstractSampler{
     //Operations
     static {
         operations.push("DISCONNECT");
+        operations.push("DONE");
+        operations.push("IDLE");
         operations.push("NOOP");
         operations.push("COMMAND");
+        operations.push("PIPELINE");
+        operations.push("UID COPY");
+        operations.push("UID STORE");
+        operations.push("UID FETCH");
+        operations.push("FETCH");
+        operations.push("APPEND");
         operations.push("LOGOUT");
+        operations.push("COMPRESS");
+        operations.push("AUTHENTICATE");
+        operations.push("STARTTLS");
         operations.push("LOGIN");
         operations.push("CAPABILITY");
         operations.push("CONNECT");
@@ -177,29 +231,193 @@ public class IMAPSampler extends AbstractSampler{
     public void setCheckSuccessful(boolean check) {
         setProperty(CHECK_SUCCESSFUL, check);
     }
+    public boolean getUsePool() {
+        return getPropertyAsBoolean(USE_POOL);
+    }
+    public void setUsePool(boolean use) {
+        setProperty(USE_POOL, use);
+    }
+    /**
+     * @return SASL mechanism of AUTHENTICATE, one of {@link Sasl#MECHANISMS}
+     */
+    public String getAuthMechanism() {
+        return getPropertyAsString(AUTH_MECHANISM, Sasl.PLAIN);
+    }
+    public void setAuthMechanism(String mechanism) {
+        setProperty(AUTH_MECHANISM, mechanism);
+    }
+    /**
+     * @return true if CAPABILITY is answered by capabilities already announced by server or cached for endpoint
+     */
+    public boolean getUseKnownCapability() {
+        return getPropertyAsBoolean(USE_KNOWN_CAPABILITY);
+    }
+    public void setUseKnownCapability(boolean use) {
+        setProperty(USE_KNOWN_CAPABILITY, use);
+    }
+    /**
+     * @return file for literals of streamed FETCH, empty - literals are only counted.
+     * Each client appends to own file, see {@link #getFetchPath()}
+     */
+    public String getFetchFile() {
+        return getPropertyAsString(FETCH_FILE);
+    }
+    public void setFetchFile(String file) {
+        setProperty(FETCH_FILE, file);
+    }
+    /**
+     * @return interval of DONE + IDLE in IdleLoop, seconds
+     */
+    public int getIdleRenew() {
+        return getPropertyAsInt(IDLE_RENEW, DEFAULT_IDLE_RENEW);
+    }
+    public void setIdleRenew(int seconds) {
+        setProperty(IDLE_RENEW, seconds);
+    }
+    /**
+     * @return .eml file or directory of messages to APPEND
+     */
+    public String getMessageFile() {
+        return getPropertyAsString(MESSAGE_FILE);
+    }
+    public void setMessageFile(String file) {
+        setProperty(MESSAGE_FILE, file);
+    }
+    /**
+     * @return size distribution of generated messages to APPEND, e.g. "4k:50, 64k:30, 1m:15, 10m:5", used if there is no message file
+     */
+    public String getGenerator() {
+        return getPropertyAsString(GENERATOR);
+    }
+    public void setGenerator(String spec) {
+        setProperty(GENERATOR, spec);
+    }
+    public boolean getUseLiteralPlus() {
+        return getPropertyAsBoolean(USE_LITERAL_PLUS, true);
+    }
+    public void setUseLiteralPlus(boolean use) {
+        setProperty(USE_LITERAL_PLUS, use);
+    }
+    /**
+     * @return how UID operations pick message of selected mailbox: uniform or zipf (newest is most frequent)
+     */
+    public String getSelection() {
+        return getPropertyAsString(SELECTION, "uniform");
+    }
+    public void setSelection(String selection) {
+        setProperty(SELECTION, selection);
+    }
+    public String getZipfExponent() {
+        return getPropertyAsString(ZIPF_EXPONENT, "1.0");
+    }
+    public void setZipfExponent(String exponent) {
+        setProperty(ZIPF_EXPONENT, exponent);
+    }
+    /**
+     * @return deflate level of COMPRESS, 0 (stored) - 9 (best)
+     */
+    public int getCompressionLevel() {
+        return getPropertyAsInt(COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+    }
+    public void setCompressionLevel(int level) {
+        setProperty(COMPRESSION_LEVEL, level);
+    }
+    public SessionStorage.proto_type getProtoType() {
+        return getUseSSL() ? SessionStorage.proto_type.SSL : SessionStorage.proto_type.PLAIN;
+    }
     @Override
     public SampleResult sample(Entry e) {
         SampleResult sr = new SampleResult();
 
         sr.setSampleLabel(getName());
 
+        SessionClient before = getSessionClient();
+        if(before != null) before.getStats().mark();
+        if(IdleLoop.getInstance().isWatched(getSOClient()) && !isIdleOperation()) {
+            // client belongs to IdleLoop until DONE
+            sr.sampleStart();
+            sr.setSuccessful(false);
+            sr.setResponseCode(RC_ERROR);
+            sr.setResponseData(("client `" + getClient() + "` is in IDLE").getBytes());
+            sr.sampleEnd();
+            return sr;
+        }
+        // SessionKeeper doesn't reap session in the middle of sample
+        Session session = SessionStorage.getInstance().getSession(getSOClient());
+        boolean acquired = session != null && session.acquire();
+        try {
+            sampleOperation(sr);
+        } finally {
+            if(acquired) session.release();
+        }
+        // CONNECT attaches new client, DISCONNECT removes it
+        SessionClient after = getSessionClient();
+        if(after != null) after.getStats().reportBytes(sr);
+        else if(before != null) before.getStats().reportBytes(sr);
+        return sr;
+    }
+
+    private SampleResult sampleOperation(SampleResult sr) {
         if(getOperation().equals("CONNECT"))    return sampleConnect(sr);
         if(getOperation().equals("DISCONNECT"))    return sampleDisconnect(sr);
         if(getOperation().equals("NOOP"))   return sampleNoop(sr);
         if(getOperation().equals("LOGIN"))   return sampleLogin(sr);
+        if(getOperation().equals("AUTHENTICATE"))   return sampleAuthenticate(sr);
         if(getOperation().equals("LOGOUT"))   return sampleLogout(sr);
         if(getOperation().equals("COMMAND"))    return sampleCommand(sr);
+        if(getOperation().equals("FETCH"))    return sampleFetch(sr);
+        if(getOperation().equals("UID FETCH"))    return sampleFetch(sr);
+        if(getOperation().equals("UID STORE"))    return sampleUid(sr);
+        if(getOperation().equals("UID COPY"))    return sampleUid(sr);
+        if(getOperation().equals("PIPELINE"))    return samplePipeline(sr);
+        if(getOperation().equals("APPEND"))    return sampleAppend(sr);
         if(getOperation().equals("CAPABILITY"))    return sampleCapability(sr);
+        if(getOperation().equals("STARTTLS"))    return sampleStartTls(sr);
+        if(getOperation().equals("COMPRESS"))    return sampleCompress(sr);
+        if(getOperation().equals("IDLE"))    return sampleIdle(sr);
+        if(getOperation().equals("DONE"))    return sampleDone(sr);
         return sr;
     }
 
+    private boolean isIdleOperation() {
+        return getOperation().equals("IDLE") || getOperation().equals("DONE") || getOperation().equals("DISCONNECT");
+    }
+
+    private SessionClient getSessionClient() {
+        SocketClient client = SessionStorage.getInstance().getClient(getSOClient());
+        if(client instanceof SessionClient) return (SessionClient) client;
+        return null;
+    }
+
+    /**
+     * Connector with snapshot of server settings, pool may call it from own thread
+     */
+    private SessionPool.Connector getConnector() {
+        final boolean useSSL = getUseSSL();
+        final String hostname = getHostname();
+        final int port = getPort();
+        final String localAddr = getLocalAddr();
+        final int defaultTimeout = getDefaultTimeout();
+        final int connectionTimeout = getConnectionTimeout();
+        final int soTimeout = getSoTimeout();
+        return new SessionPool.Connector() {
+            @Override
+            public IMAPClient connect() throws IOException {
+                IMAPClient client = new IMAPSessionClient(useSSL);
+                WireTrace.getInstance().attach(client, "imap://" + hostname + ":" + port);
+                client.setDefaultTimeout(defaultTimeout);
+                client.setConnectTimeout(connectionTimeout);
+                if(localAddr.isEmpty()) client.connect(hostname, port);
+                else client.connect(hostname, port, InetAddress.getByName(localAddr), 0);
+                if(client.isConnected()) client.setSoTimeout(soTimeout);
+                return client;
+            }
+        };
+    }
+
     private SampleResult sampleConnect(SampleResult sr) {
-        IMAPClient client;
-        if(getUseSSL()) {
-            client = new IMAPSClient(true);
-        } else {
-            client = new IMAPClient();
-        }
+        if(getUsePool()) return samplePooledConnect(sr);
+        SessionClient connected = null;
         try {
             String request = "CONNECT \n";
             request += "Host : " + getHostname() + ":" + getPort() + "\n";
@@ -210,19 +428,14 @@ public class IMAPSampler extends AbstractSampler{
 
             sr.setRequestHeaders(request);
             sr.sampleStart();
-            client.setDefaultTimeout(getDefaultTimeout());
-            client.setConnectTimeout(getConnectionTimeout());
-            if(getLocalAddr().isEmpty()) client.connect(getHostname(), getPort());
-			else client.connect(getHostname(), getPort(), InetAddress.getByName(getLocalAddr()), 0);
+            IMAPClient client = (IMAPClient) getConnector().connect();
             if(client.isConnected()) {
 				log.info("imap client " + getClient() + " connected from " + client.getLocalAddress() + ":" + client.getLocalPort());
-                SessionStorage.proto_type protoType = SessionStorage.proto_type.PLAIN;
-                if(getUseSSL()) protoType = SessionStorage.proto_type.SSL;
-                SessionStorage.getInstance().putClient(getSOClient(), client, protoType);
-                client.setSoTimeout(getSoTimeout());
+                SessionStorage.getInstance().putClient(getSOClient(), client, getProtoType());
                 sr.setSuccessful(true);
                 sr.setResponseCodeOK();
                 sr.setResponseData(client.getReplyString().getBytes());
+                connected = (SessionClient) client;
             } else {
                 client.close();
                 sr.setSuccessful(false);
@@ -244,12 +457,39 @@ public class IMAPSampler extends AbstractSampler{
         } finally {
             sr.sampleEnd();
         }
+        if(connected != null) connected.getStats().reportConnect(sr);
+        return sr;
+    }
+    private SampleResult samplePooledConnect(SampleResult sr) {
+        SessionPool.Key key = new SessionPool.Key(SessionStorage.PROTOCOL.IMAP, getHostname(), getPort(), getProtoType());
+        String request = "CONNECT (pooled)\n";
+        request += "Pool : " + key + "\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        sr.setRequestHeaders(request);
+        sr.sampleStart();
+        try {
+            Session session = SessionStorage.getInstance().getPool().borrow(key, getClientName(), getConnector());
+            SessionStorage.getInstance().putSession(getSOClient(), session);
+            sr.setSuccessful(true);
+            sr.setResponseCodeOK();
+            if(session.getAuthenticated() != null) sr.setResponseMessage("authenticated as " + session.getAuthenticated());
+            sr.setResponseData(((IMAPClient) session.getClient()).getReplyString().getBytes());
+        } catch (IOException ioe) {
+            sr.setResponseMessage(ioe.toString());
+            sr.setSuccessful(false);
+            sr.setResponseCode(ioe.getClass().getName());
+            log.error("client `" + getClient() + "` ", ioe);
+        } finally {
+            sr.sampleEnd();
+        }
         return sr;
     }
     private SampleResult sampleDisconnect(SampleResult sr) {
-        SocketClient soclient = SessionStorage.getInstance().getClient( getSOClient());
+        // keeper, reaper and IdleLoop may remove session meanwhile, so it is looked up once
+        Session session = SessionStorage.getInstance().getSession(getSOClient());
         IMAPClient client = null;
-        if(soclient instanceof IMAPClient) client = (IMAPClient) soclient;
+        if(session != null && session.getClient() instanceof IMAPClient) client = (IMAPClient) session.getClient();
 
         String request = "DISCONNECT \n";
         request += "Client : " + getClient() + "\n";
@@ -257,7 +497,29 @@ public class IMAPSampler extends AbstractSampler{
         if(client == null) {
             clientNotFound(sr);
             return sr;
+        }
+        IdleLoop loop = IdleLoop.getInstance();
+        boolean idling = loop.isWatched(getSOClient());
+        if(session.isPooled()) {
+            sr.sampleStart();
+            // pooled connection stays open, so IDLE is ended before next borrower gets it
+            sr.setSuccessful(true);
+            sr.setResponseCodeOK();
+            if(idling && !endIdle(client, loop.unwatch(getSOClient(), UNWATCH_TIMEOUT))) {
+                SessionStorage.getInstance().removeClient(getSOClient());
+                sr.setResponseMessage("IDLE not ended, invalidated");
+            } else if(SessionStorage.getInstance().releaseClient(getSOClient())) {
+                sr.setResponseMessage("returned to pool");
+            } else {
+                // closed by SessionKeeper or IdleLoop meanwhile
+                sr.setSuccessful(false);
+                sr.setResponseCode("404");
+                sr.setResponseMessage("already closed");
+            }
+            sr.sampleEnd();
         } else {
+            // connection is closed in IDLE, DONE is not needed
+            if(idling) loop.unwatch(getSOClient(), UNWATCH_TIMEOUT);
             synchronized(client) {
                 sr.sampleStart();
                 try {
@@ -334,7 +596,16 @@ public class IMAPSampler extends AbstractSampler{
             synchronized(client) {
                 sr.sampleStart();
                 try {
+                    Session session = SessionStorage.getInstance().getSession(getSOClient());
+                    if(session != null && session.isAuthenticated(getClientName())) {
+                        sr.setSuccessful(true);
+                        sr.setResponseCodeOK();
+                        sr.setResponseMessage("already authenticated (pooled session)");
+                        sr.sampleEnd();
+                        return sr;
+                    }
                     success = client.login(getClientName(), getClientPassword());
+                    if(success && session != null) session.setAuthenticated(getClientName());
                     sr.setSuccessful(success);
                     if(getCheckSuccessful()) {
                         sr.setSuccessful(success);
@@ -354,6 +625,167 @@ public class IMAPSampler extends AbstractSampler{
         }
         return sr;
     }
+    /**
+     * SASL authentication, SCRAM salted passwords are cached per account
+     */
+    private SampleResult sampleAuthenticate(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        String request = "AUTHENTICATE\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Mechanism : " + getAuthMechanism() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        SaslMechanism mechanism;
+        try {
+            mechanism = Sasl.mechanism(getAuthMechanism(), getClientName(), getClientPassword());
+        } catch (IllegalArgumentException e) {
+            sr.sampleStart();
+            sr.setSuccessful(false);
+            sr.setResponseCode(e.getClass().getName());
+            sr.setResponseMessage(e.getMessage());
+            sr.sampleEnd();
+            return sr;
+        }
+        synchronized(client) {
+            sr.sampleStart();
+            try {
+                Session session = SessionStorage.getInstance().getSession(getSOClient());
+                if(session != null && session.isAuthenticated(getClientName())) {
+                    sr.setSuccessful(true);
+                    sr.setResponseCodeOK();
+                    sr.setResponseMessage("already authenticated (pooled session)");
+                    sr.sampleEnd();
+                    return sr;
+                }
+                boolean accepted = client.authenticate(mechanism);
+                String error = mechanism.getError(accepted);
+                boolean success = accepted && error == null;
+                if(success && session != null) session.setAuthenticated(getClientName());
+                sr.setSuccessful(success);
+                if(getCheckSuccessful()) {
+                    if(success) sr.setResponseCodeOK();
+                    else    sr.setResponseCode(RC_ERROR);
+                } else sr.setResponseCodeOK();
+                if(error != null) sr.setResponseMessage(error);
+                sr.setResponseData(client.getReplyString().getBytes());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        mechanism.report(sr);
+        return sr;
+    }
+    /**
+     * Upgrades stored session to TLS (RFC 3501), sub-results split STARTTLS round-trip and TLS handshake
+     */
+    private SampleResult sampleStartTls(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        String request = "STARTTLS\n";
+        request += "Client : " + getClient() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        int handshakes;
+        synchronized(client) {
+            handshakes = client.getStats().getHandshakes();
+            sr.sampleStart();
+            if(client.isSecure()) {
+                sr.setSuccessful(false);
+                sr.setResponseCode(RC_ERROR);
+                sr.setResponseMessage("connection is already secure");
+                sr.sampleEnd();
+                return sr;
+            }
+            try {
+                boolean upgraded = client.execTLS();
+                Session session = SessionStorage.getInstance().getSession(getSOClient());
+                if(upgraded && session != null) session.setType(SessionStorage.proto_type.STARTTLS);
+                sr.setSuccessful(upgraded);
+                if(upgraded) sr.setResponseCodeOK();
+                else    sr.setResponseCode(RC_ERROR);
+                sr.setResponseData(client.getReplyString().getBytes());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        client.getStats().reportUpgrade(sr, "STARTTLS", handshakes);
+        return sr;
+    }
+    /**
+     * Negotiates COMPRESS=DEFLATE (RFC 4978) on stored session. Later samples of session report
+     * uncompressed bytes next to wire bytes, see ConnectionStats
+     */
+    private SampleResult sampleCompress(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        int level = getCompressionLevel();
+        String request = "COMPRESS DEFLATE\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Compression Level : " + level + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        if(level < 0 || level > 9) {
+            sr.sampleStart();
+            sr.setSuccessful(false);
+            sr.setResponseCode(RC_ERROR);
+            sr.setResponseData(("client `" + getClient() + "`: compression level must be 0-9: " + level).getBytes());
+            sr.sampleEnd();
+            return sr;
+        }
+        synchronized(client) {
+            sr.sampleStart();
+            if(client.isCompressed()) {
+                sr.setSuccessful(false);
+                sr.setResponseCode(RC_ERROR);
+                sr.setResponseMessage("compression is already active");
+                sr.setResponseHeaders("Compression Level : " + client.getCompressionLevel() + "\n");
+                sr.sampleEnd();
+                return sr;
+            }
+            try {
+                boolean compressed = client.execCompress(level);
+                sr.setSuccessful(compressed);
+                if(compressed) sr.setResponseCodeOK();
+                else    sr.setResponseCode(RC_ERROR);
+                sr.setResponseData(client.getReplyString().getBytes());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        return sr;
+    }
     private SampleResult sampleLogout(SampleResult sr) {
         SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
         IMAPClient client = null;
@@ -372,6 +804,8 @@ public class IMAPSampler extends AbstractSampler{
                 sr.sampleStart();
                 try {
                     success = client.logout();
+                    Session session = SessionStorage.getInstance().getSession(getSOClient());
+                    if(session != null) session.setAuthenticated(null);
                     sr.setSuccessful(success);
                     if(getCheckSuccessful()) {
                         sr.setSuccessful(success);
@@ -433,6 +867,404 @@ public class IMAPSampler extends AbstractSampler{
         }
         return sr;
     }
+    /**
+     * Sends command args, one command per line (e.g. "SELECT INBOX", "FETCH 1:5 FLAGS"), in one batch.
+     * Latency is time to first completion, one sub-result per command timed from the batch write
+     */
+    private SampleResult samplePipeline(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        List<String> lines = new ArrayList<String>();
+        for(String line : getCommandArgs().split("\r?\n")) {
+            if(!line.trim().isEmpty()) lines.add(line.trim());
+        }
+        String[] commands = lines.toArray(new String[lines.size()]);
+        String request = "PIPELINE\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        request += "Commands : " + commands.length + "\n";
+        sr.setRequestHeaders(request);
+        sr.setSamplerData(getCommandArgs());
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        IMAPSessionClient.Reply[] replies = null;
+        synchronized(client) {
+            sr.sampleStart();
+            try {
+                replies = client.pipeline(commands);
+                boolean success = true;
+                StringBuilder response = new StringBuilder();
+                for(IMAPSessionClient.Reply reply : replies) {
+                    success &= reply.code == IMAPReply.OK;
+                    response.append(reply.text);
+                }
+                if(getCheckSuccessful()) {
+                    sr.setSuccessful(success);
+                    if(success) sr.setResponseCodeOK();
+                    else    sr.setResponseCode(RC_ERROR);
+                } else {
+                    sr.setSuccessful(true);
+                    sr.setResponseCodeOK();
+                }
+                sr.setResponseData(response.toString().getBytes());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        if(replies != null) reportPipeline(sr, replies);
+        return sr;
+    }
+    private void reportPipeline(SampleResult sr, IMAPSessionClient.Reply[] replies) {
+        long min = Long.MAX_VALUE, max = 0, sum = 0, first = Long.MAX_VALUE;
+        TreeMap<String, Integer> codes = new TreeMap<String, Integer>();
+        for(IMAPSessionClient.Reply reply : replies) {
+            long time = reply.end - reply.start;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            sum += time;
+            first = Math.min(first, reply.end);
+            String code = completion(reply);
+            Integer count = codes.get(code);
+            codes.put(code, count == null ? 1 : count + 1);
+        }
+        StringBuilder summary = new StringBuilder();
+        for(Map.Entry<String, Integer> entry : codes.entrySet()) {
+            if(summary.length() > 0) summary.append(' ');
+            summary.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        String headers = "Commands : " + replies.length + "\n";
+        if(replies.length > 0) {
+            sr.setLatency(first - sr.getStartTime());
+            headers += "Completion Codes : " + summary + "\n";
+            headers += "Command Time : " + min + "/" + (sum / replies.length) + "/" + max + "\n";
+        }
+        sr.setResponseHeaders(headers);
+        for(int i = 0; i < replies.length && i < MAX_MESSAGE_RESULTS; ++i) {
+            IMAPSessionClient.Reply reply = replies[i];
+            SampleResult sub = new SampleResult();
+            sub.setSampleLabel(sr.getSampleLabel() + " " + reply.tag + " " + reply.command.split(" ", 2)[0]);
+            sub.setStampAndTime(reply.start, reply.end - reply.start);
+            sub.setSamplerData(reply.tag + " " + reply.command);
+            sub.setResponseData(reply.text.getBytes());
+            sub.setSuccessful(reply.code == IMAPReply.OK || !getCheckSuccessful());
+            if(sub.isSuccessful()) sub.setResponseCodeOK();
+            else    sub.setResponseCode(RC_ERROR);
+            sr.addRawSubResult(sub);
+        }
+    }
+    /**
+     * @return OK, NO or BAD
+     */
+    private static String completion(IMAPSessionClient.Reply reply) {
+        if(reply.code == IMAPReply.OK) return "OK";
+        if(reply.code == IMAPReply.NO) return "NO";
+        return "BAD";
+    }
+    /**
+     * APPEND of message from file or generator to mailbox of command args (e.g. "Sent (\Seen)").
+     * Continuation of synchronizing literal is a sub-result, APPENDUID (RFC 4315) is reported in headers
+     */
+    private SampleResult sampleAppend(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        String request = "APPEND\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        request += "Args : " + getCommandArgs() + "\n";
+        if(getMessageFile().isEmpty() && getGenerator().isEmpty()) {
+            sr.setRequestHeaders(request);
+            return setupFailed(sr, "no message to APPEND", new IllegalArgumentException("neither message file nor generator is set"));
+        }
+        ByteBuffer[] message;
+        try {
+            if(!getMessageFile().isEmpty()) {
+                MessageCorpus corpus = MessageCorpus.get(getMessageFile());
+                int index = corpus.nextIndex();
+                request += "Message : " + corpus.getName(index) + "\n";
+                message = new ByteBuffer[] {corpus.getMessage(index)};
+            } else {
+                request += "Generator : " + getGenerator() + "\n";
+                message = MessageGenerator.get(getGenerator()).next(getClientName(), new String[] {getClientName()});
+            }
+        } catch (IOException e) {
+            sr.setRequestHeaders(request);
+            return setupFailed(sr, "can't load messages " + getMessageFile(), e);
+        } catch (IllegalArgumentException e) {
+            sr.setRequestHeaders(request);
+            return setupFailed(sr, "wrong message sizes `" + getGenerator() + "`", e);
+        }
+        long size = 0;
+        for(ByteBuffer segment : message) size += segment.remaining();
+        request += "Message Bytes : " + size + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        IMAPSessionClient.Reply[] replies = null;
+        synchronized(client) {
+            sr.sampleStart();
+            try {
+                replies = client.append(getCommandArgs(), message, getUseLiteralPlus());
+                IMAPSessionClient.Reply last = replies[replies.length - 1];
+                boolean success = last.code == IMAPReply.OK;
+                if(getCheckSuccessful()) {
+                    sr.setSuccessful(success);
+                    if(success) sr.setResponseCodeOK();
+                    else    sr.setResponseCode(RC_ERROR);
+                } else {
+                    sr.setSuccessful(true);
+                    sr.setResponseCodeOK();
+                }
+                StringBuilder response = new StringBuilder();
+                for(IMAPSessionClient.Reply reply : replies) response.append(reply.text);
+                sr.setResponseData(response.toString().getBytes());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        if(replies != null) reportAppend(sr, replies);
+        return sr;
+    }
+    private void reportAppend(SampleResult sr, IMAPSessionClient.Reply[] replies) {
+        IMAPSessionClient.Reply last = replies[replies.length - 1];
+        String headers = "Literal : " + literal(last.command) + "\n";
+        if(replies.length > 1) headers += "Continuation Time : " + (replies[0].end - replies[0].start) + "\n";
+        String uid = appendUid(last.text);
+        if(uid != null) headers += "APPENDUID : " + uid + "\n";
+        sr.setResponseHeaders(headers);
+        if(replies.length < 2) return;
+        for(IMAPSessionClient.Reply reply : replies) {
+            SampleResult sub = new SampleResult();
+            sub.setSampleLabel(sr.getSampleLabel() + " " + reply.tag + " " + (reply.code == IMAPReply.CONT ? "continuation" : "literal"));
+            sub.setStampAndTime(reply.start, reply.end - reply.start);
+            sub.setResponseData(reply.text.getBytes());
+            sub.setSuccessful(reply.code == IMAPReply.OK || reply.code == IMAPReply.CONT || !getCheckSuccessful());
+            if(sub.isSuccessful()) sub.setResponseCodeOK();
+            else    sub.setResponseCode(RC_ERROR);
+            sr.addRawSubResult(sub);
+        }
+    }
+    /**
+     * @return kind of literal of APPEND command, e.g. "non-synchronizing" of "APPEND Sent {1024+}"
+     */
+    private static String literal(String command) {
+        return command.endsWith("+}") ? "non-synchronizing" : "synchronizing";
+    }
+    /**
+     * @return UIDVALIDITY and UID of APPENDUID response code (RFC 4315), e.g. "38505 3955", null if there is none
+     */
+    private static String appendUid(String text) {
+        int start = text.toUpperCase().indexOf("[APPENDUID ");
+        int end = start == -1 ? -1 : text.indexOf(']', start);
+        return end == -1 ? null : text.substring(start + 11, end);
+    }
+    private SampleResult setupFailed(SampleResult sr, String message, Exception e) {
+        sr.sampleStart();
+        sr.setSuccessful(false);
+        sr.setResponseCode(e.getClass().getName());
+        sr.setResponseMessage(e.toString());
+        sr.sampleEnd();
+        log.error(message, e);
+        return sr;
+    }
+    /**
+     * FETCH with command args (e.g. "1:10 BODY[]"), literals are appended to FETCH_FILE of client
+     * (FETCH_FILE.client, so threads never share file) or discarded.
+     * UID FETCH takes fetch items as args (e.g. "(FLAGS BODY.PEEK[])") and UID picked from mailbox state.
+     * Latency is time to first reply line, one sub-result per fetched message
+     */
+    private SampleResult sampleFetch(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+        boolean uid = getOperation().equals("UID FETCH");
+
+        String request = getOperation() + "\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        request += "Args : " + getCommandArgs() + "\n";
+        request += "File : " + getFetchPath() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        IMAPSessionClient.StreamedReply reply = null;
+        synchronized(client) {
+            String args = getCommandArgs();
+            if(uid) {
+                long picked = pickUid(sr, client);
+                if(picked == -1) return sr;
+                args = picked + " " + args;
+                sr.setRequestHeaders(request + "UID : " + picked + "\n");
+            }
+            OutputStream sink = null;
+            sr.sampleStart();
+            try {
+                if(!getFetchFile().isEmpty()) sink = new BufferedOutputStream(new FileOutputStream(getFetchPath(), true));
+                reply = client.stream(uid ? "UID FETCH" : "FETCH", args, sink);
+                boolean success = reply.code == IMAPReply.OK;
+                sr.setSuccessful(success);
+                if(getCheckSuccessful()) {
+                    if(success) sr.setResponseCodeOK();
+                    else    sr.setResponseCode(RC_ERROR);
+                } else sr.setResponseCodeOK();
+                sr.setResponseData(reply.data);
+            } catch (FileNotFoundException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` can't open " + getFetchPath(), e);
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            } finally {
+                sr.sampleEnd();
+                close(sink);
+            }
+        }
+        if(reply != null) reportFetch(sr, reply);
+        if(uid) reportMailbox(sr, client);
+        return sr;
+    }
+    /**
+     * UID STORE (args e.g. "+FLAGS (\Seen)") or UID COPY (args - destination mailbox)
+     * of message picked from mailbox state
+     */
+    private SampleResult sampleUid(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        String command = getOperation().substring(4);
+        String request = getOperation() + "\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        request += "Args : " + getCommandArgs() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        synchronized(client) {
+            long picked = pickUid(sr, client);
+            if(picked == -1) return sr;
+            sr.setRequestHeaders(request + "UID : " + picked + "\n");
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            sr.sampleStart();
+            try {
+                String args = command + " " + picked + " " + getCommandArgs();
+                boolean success = client.execute("UID " + args, null, response) == IMAPReply.OK;
+                sr.setSuccessful(success);
+                if(getCheckSuccessful()) {
+                    if(success) sr.setResponseCodeOK();
+                    else    sr.setResponseCode(RC_ERROR);
+                } else sr.setResponseCodeOK();
+                sr.setResponseData(response.toByteArray());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        reportMailbox(sr, client);
+        return sr;
+    }
+    /**
+     * @return UID of selected mailbox by selection of sampler, -1 (sample is failed) if no UID is known
+     */
+    private long pickUid(SampleResult sr, IMAPSessionClient client) {
+        MailboxState state = client.getMailboxState();
+        boolean zipf = getSelection().equals("zipf");
+        double exponent = 0;
+        if(zipf) {
+            try {
+                exponent = Double.parseDouble(getZipfExponent());
+            } catch (NumberFormatException e) {
+                exponent = 0;
+            }
+        }
+        String error = null;
+        if(zipf && !(exponent > 0)) error = "Zipf exponent must be positive: " + getZipfExponent();
+        else if(state.size() == 0) error = "no known UIDs in " + state + ", use UID SEARCH or FETCH with UID first";
+        if(error == null) return state.pick(ThreadLocalRandom.current(), zipf, exponent);
+        sr.sampleStart();
+        sr.setSuccessful(false);
+        sr.setResponseCode(RC_ERROR);
+        sr.setResponseData(("client `" + getClient() + "`: " + error).getBytes());
+        sr.sampleEnd();
+        return -1;
+    }
+    private void reportMailbox(SampleResult sr, IMAPSessionClient client) {
+        MailboxState state = client.getMailboxState();
+        String headers = sr.getResponseHeaders();
+        headers += "Mailbox : " + state.getMailbox() + "\n";
+        headers += "Known UIDs : " + state.size() + "/" + state.getExists() + "\n";
+        sr.setResponseHeaders(headers);
+    }
+    private void reportFetch(SampleResult sr, IMAPSessionClient.StreamedReply reply) {
+        sr.setLatency(reply.firstByte - sr.getStartTime());
+        long min = Long.MAX_VALUE, max = 0, sum = 0;
+        for(IMAPSessionClient.Message message : reply.messages) {
+            long time = message.end - message.start;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            sum += time;
+        }
+        String headers = "Messages : " + reply.messages.size() + "\n";
+        headers += "Literal Bytes : " + reply.literalBytes + "\n";
+        headers += "First Byte Time : " + sr.getLatency() + "\n";
+        if(!reply.messages.isEmpty()) headers += "Message Time : " + min + "/" + (sum / reply.messages.size()) + "/" + max + "\n";
+        sr.setResponseHeaders(headers);
+        for(int i = 0; i < reply.messages.size() && i < MAX_MESSAGE_RESULTS; ++i) {
+            IMAPSessionClient.Message message = reply.messages.get(i);
+            SampleResult sub = new SampleResult();
+            sub.setSampleLabel(sr.getSampleLabel() + " FETCH " + message.id);
+            sub.setStampAndTime(message.start, message.end - message.start);
+            sub.setBytes((int) Math.min(message.bytes, Integer.MAX_VALUE));
+            sub.setSuccessful(true);
+            sub.setResponseCodeOK();
+            sr.addRawSubResult(sub);
+        }
+    }
+    private void close(OutputStream sink) {
+        if(sink == null) return;
+        try {
+            sink.close();
+        } catch (IOException e) {
+            log.warn("can't close " + getFetchPath(), e);
+        }
+    }
+    /**
+     * @return FETCH_FILE suffixed by client name, empty if there is no FETCH_FILE
+     */
+    private String getFetchPath() {
+        if(getFetchFile().isEmpty()) return "";
+        return getFetchFile() + "." + getClient().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
     private SampleResult sampleCapability(SampleResult sr) {
         SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
         IMAPClient client = null;
@@ -442,6 +1274,7 @@ public class IMAPSampler extends AbstractSampler{
         String request = "CAPABILITY \n";
         request += "Client : " + getClient() + "\n";
         request += "Client Name : " + getClientName() + "\n";
+        request += "Use Known : " + getUseKnownCapability() + "\n";
         sr.setRequestHeaders(request);
         if(client == null) {
             clientNotFound(sr);
@@ -449,8 +1282,27 @@ public class IMAPSampler extends AbstractSampler{
         } else {
             synchronized(client) {
                 sr.sampleStart();
+                if(getUseKnownCapability() && client instanceof IMAPSessionClient) {
+                    IMAPSessionClient session = (IMAPSessionClient) client;
+                    String source = "session";
+                    Capabilities known = session.getCapabilities();
+                    if(known == null) {
+                        source = "cache";
+                        known = session.getCachedCapabilities();
+                    }
+                    if(known != null) {
+                        sr.setSuccessful(true);
+                        sr.setResponseCodeOK();
+                        sr.setResponseMessage("capabilities from " + source);
+                        sr.setResponseData(("* CAPABILITY " + known + "\r\n").getBytes());
+                        sr.sampleEnd();
+                        sr.setResponseHeaders("Capability Source : " + source + "\n");
+                        return sr;
+                    }
+                }
                 try {
                     success = client.capability();
+                    sr.setResponseHeaders("Capability Source : server\n");
                     sr.setSuccessful(success);
                     if(getCheckSuccessful()) {
                         sr.setSuccessful(success);
@@ -470,6 +1322,163 @@ public class IMAPSampler extends AbstractSampler{
         }
         return sr;
     }
+    /**
+     * First IDLE hands session to IdleLoop and frees the thread, next ones report notifications pushed since previous sample
+     */
+    private SampleResult sampleIdle(SampleResult sr) {
+        Session session = SessionStorage.getInstance().getSession(getSOClient());
+        IMAPSessionClient client = null;
+        if(session != null && session.getClient() instanceof IMAPSessionClient) client = (IMAPSessionClient) session.getClient();
+
+        String request = "IDLE\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        request += "Renew : " + getIdleRenew() + "s\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        IdleLoop loop = IdleLoop.getInstance();
+        if(loop.isWatched(getSOClient())) {
+            List<IdleLoop.Event> events = loop.drain(getSOClient());
+            if(events == null) {
+                // closed by IdleLoop meanwhile
+                clientNotFound(sr);
+                return sr;
+            }
+            sr.sampleStart();
+            sr.setSuccessful(true);
+            sr.setResponseCodeOK();
+            sr.sampleEnd();
+            reportEvents(sr, events, null);
+            return sr;
+        }
+        synchronized(client) {
+            sr.sampleStart();
+            try {
+                boolean success = client.idle();
+                sr.setResponseData(client.getReplyString().getBytes());
+                if(success) {
+                    loop.watch(getSOClient(), session, client, getIdleRenew() * 1000L);
+                    sr.setSuccessful(true);
+                    sr.setResponseCodeOK();
+                } else {
+                    sr.setSuccessful(!getCheckSuccessful());
+                    if(getCheckSuccessful()) sr.setResponseCode(RC_ERROR);
+                    else    sr.setResponseCodeOK();
+                }
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        sr.setResponseHeaders("Idle Sessions : " + loop.getWatched() + "\n");
+        return sr;
+    }
+    /**
+     * Takes session back from IdleLoop and ends IDLE
+     */
+    private SampleResult sampleDone(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        IMAPSessionClient client = null;
+        if(soclient instanceof IMAPSessionClient) client = (IMAPSessionClient) soclient;
+
+        String request = "DONE\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Client Name : " + getClientName() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        sr.sampleStart();
+        List<IdleLoop.Event> events = IdleLoop.getInstance().unwatch(getSOClient(), UNWATCH_TIMEOUT);
+        if(events == null) {
+            sr.setSuccessful(false);
+            sr.setResponseCode(RC_ERROR);
+            sr.setResponseData(("client `" + getClient() + "` is not in IDLE").getBytes());
+            sr.sampleEnd();
+            return sr;
+        }
+        String reply = null;
+        synchronized(client) {
+            try {
+                boolean success = client.done();
+                reply = client.getReplyString();
+                sr.setSuccessful(success || !getCheckSuccessful());
+                if(success || !getCheckSuccessful()) sr.setResponseCodeOK();
+                else    sr.setResponseCode(RC_ERROR);
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                reply = e.toString();
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + getClient() + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        reportEvents(sr, events, reply);
+        return sr;
+    }
+    /**
+     * Notifications as response data, headers and sub-results. DONE reply is appended to response data
+     */
+    private void reportEvents(SampleResult sr, List<IdleLoop.Event> events, String reply) {
+        StringBuilder data = new StringBuilder();
+        int notifications = 0;
+        long min = Long.MAX_VALUE, max = 0, sum = 0;
+        int measured = 0;
+        for(IdleLoop.Event event : events) {
+            data.append(event.text).append("\r\n");
+            if(event.type.equals(IdleLoop.Event.RENEW) || event.type.equals(IdleLoop.Event.CLOSED)) continue;
+            notifications++;
+            if(event.latency < 0) continue;
+            measured++;
+            min = Math.min(min, event.latency);
+            max = Math.max(max, event.latency);
+            sum += event.latency;
+        }
+        if(reply != null) data.append(reply);
+        sr.setResponseData(data.toString().getBytes());
+        String headers = "Notifications : " + notifications + "\n";
+        if(measured > 0) headers += "Notification Latency : " + min + "/" + (sum / measured) + "/" + max + "\n";
+        headers += "Idle Sessions : " + IdleLoop.getInstance().getWatched() + "\n";
+        sr.setResponseHeaders(headers);
+        for(int i = 0; i < events.size() && i < MAX_MESSAGE_RESULTS; ++i) {
+            IdleLoop.Event event = events.get(i);
+            SampleResult sub = new SampleResult();
+            sub.setSampleLabel(sr.getSampleLabel() + " " + event.type);
+            // RENEW is measured by its round-trips, notifications by time since IDLE or since delivery
+            long time = event.type.equals(IdleLoop.Event.RENEW) || event.latency >= 0 ? event.latency : event.wait;
+            sub.setStampAndTime(event.time - Math.max(time, 0), Math.max(time, 0));
+            sub.setResponseData(event.text.getBytes());
+            sub.setSuccessful(!event.type.equals(IdleLoop.Event.CLOSED));
+            if(sub.isSuccessful()) sub.setResponseCodeOK();
+            else    sub.setResponseCode(RC_ERROR);
+            sr.addRawSubResult(sub);
+        }
+    }
+    /**
+     * Sends DONE to session taken back from IdleLoop
+     * @param events result of {@link IdleLoop#unwatch(String, long)}, null if session wasn't given back
+     * @return false if session is still in IDLE or broken
+     */
+    private boolean endIdle(IMAPClient client, List<IdleLoop.Event> events) {
+        if(events == null || !(client instanceof IMAPSessionClient)) return false;
+        synchronized(client) {
+            try {
+                return ((IMAPSessionClient) client).done();
+            } catch (IOException e) {
+                log.warn("client `" + getClient() + "` ", e);
+                return false;
+            }
+        }
+    }
     private void clientNotFound(SampleResult sr) {
         sr.sampleStart();
         sr.setResponseCode("404");
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.2
+ * Thread-safe cache with max size, cleared when it is full. Lookups take no lock,
+ * so hot keys don't serialize threads as access-ordered LRU did
+ */
+public class BoundedCache<K, V> {
+    private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<K, V>();
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public BoundedCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public V get(K key) {
+        V value = map.get(key);
+        if(value == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return value;
+    }
+
+    public void put(K key, V value) {
+        // entries are cheap to recompute, working set is loaded again after overflow
+        if(map.size() >= maxSize && !map.containsKey(key)) map.clear();
+        map.put(key, value);
+    }
+
+    public void clear() {
+        map.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+    public long getMisses() {
+        return misses.get();
+    }
+}
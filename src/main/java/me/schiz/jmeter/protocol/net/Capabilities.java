@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Server capabilities (SMTP EHLO keywords, IMAP CAPABILITY atoms) as bitset over keywords seen by all sessions.
+ * Parsed capabilities are cached per endpoint, e.g. "SMTP://host:25/PLAIN", and reused while server announces the same lines
+ */
+public class Capabilities {
+    private static final int CACHE_SIZE = 4096;
+    private static final BoundedCache<String, Capabilities> cache = new BoundedCache<String, Capabilities>(CACHE_SIZE);
+    // upper case keyword -> bit
+    private static final ConcurrentHashMap<String, Integer> keywords = new ConcurrentHashMap<String, Integer>();
+
+    private final BitSet bits = new BitSet();
+    // keyword -> parameters, only keywords announced with parameters
+    private final Map<String, String> parameters = new HashMap<String, String>();
+    // announced lines, to check whether cached capabilities are still actual
+    private final String[] source;
+    // source is EHLO reply
+    private final boolean ehlo;
+
+    private Capabilities(String[] source, boolean ehlo) {
+        this.source = source;
+        this.ehlo = ehlo;
+    }
+
+    /**
+     * @param key endpoint, see {@link #key(String, String, int, boolean)}
+     * @param lines EHLO reply lines, first line is greeting
+     */
+    public static Capabilities smtp(String key, String[] lines) {
+        Capabilities cached = cache.get(key);
+        if(cached != null && Arrays.equals(cached.source, lines)) return cached;
+        Capabilities capabilities = new Capabilities(lines, true);
+        for(int i = 1; i < lines.length; ++i) {
+            if(lines[i].length() <= 4) continue;
+            String line = lines[i].substring(4).trim();
+            int space = line.indexOf(' ');
+            if(space == -1) capabilities.add(line, null);
+            else capabilities.add(line.substring(0, space), line.substring(space + 1).trim());
+        }
+        cache.put(key, capabilities);
+        return capabilities;
+    }
+
+    /**
+     * @param key endpoint, see {@link #key(String, String, int, boolean)}
+     * @param atoms space separated atoms of CAPABILITY response, e.g. "IMAP4rev1 LITERAL+ IDLE"
+     */
+    public static Capabilities imap(String key, String atoms) {
+        Capabilities cached = cache.get(key);
+        if(cached != null && cached.source[0].equals(atoms)) return cached;
+        Capabilities capabilities = new Capabilities(new String[]{atoms}, false);
+        for(String atom : atoms.split(" ")) {
+            if(!atom.isEmpty()) capabilities.add(atom, null);
+        }
+        cache.put(key, capabilities);
+        return capabilities;
+    }
+
+    /**
+     * @return capabilities last announced by endpoint or null
+     */
+    public static Capabilities cached(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * @param secure TLS state of connection, capabilities are different before and after STARTTLS
+     */
+    public static String key(String protocol, String host, int port, boolean secure) {
+        return protocol + "://" + host + ":" + port + (secure ? "/TLS" : "/PLAIN");
+    }
+
+    public static BoundedCache<String, Capabilities> getCache() {
+        return cache;
+    }
+
+    public boolean has(String keyword) {
+        Integer bit = keywords.get(keyword.toUpperCase());
+        return bit != null && bits.get(bit);
+    }
+
+    /**
+     * @return parameters of keyword, empty if it is announced without parameters, null if not announced
+     */
+    public String get(String keyword) {
+        if(!has(keyword)) return null;
+        String value = parameters.get(keyword.toUpperCase());
+        return value == null ? "" : value;
+    }
+
+    /**
+     * @return announced keywords in order of server
+     */
+    @Override
+    public String toString() {
+        if(!ehlo) return source[0];
+        StringBuilder sb = new StringBuilder();
+        for(int i = 1; i < source.length; ++i) {
+            if(source[i].length() <= 4) continue;
+            if(sb.length() > 0) sb.append(' ');
+            sb.append(source[i].substring(4).trim());
+        }
+        return sb.toString();
+    }
+
+    private void add(String keyword, String value) {
+        keyword = keyword.toUpperCase();
+        bits.set(bit(keyword));
+        if(value != null && !value.isEmpty()) parameters.put(keyword, value);
+    }
+
+    private static int bit(String keyword) {
+        Integer bit = keywords.get(keyword);
+        if(bit != null) return bit;
+        synchronized(keywords) {
+            bit = keywords.get(keyword);
+            if(bit == null) {
+                bit = keywords.size();
+                keywords.put(keyword, bit);
+            }
+            return bit;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Raw DEFLATE (RFC 1951) of both directions of a session, as negotiated by IMAP COMPRESS=DEFLATE (RFC 4978).
+ * Streams go above TLS and below line readers, so MeteredSocket keeps counting compressed wire bytes
+ * and ConnectionStats gets uncompressed bytes from here. Every flush is a sync flush, so each command
+ * reaches server whole. Inflater and deflater hold native memory until {@link #end()}
+ */
+public class Compression {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ConnectionStats stats;
+    private final int level;
+    private final Inflater inflater = new Inflater(true);
+    private final Deflater deflater;
+
+    /**
+     * @param level 0-9, see {@link Deflater#setLevel(int)}
+     */
+    public Compression(int level, ConnectionStats stats) {
+        this.level = level;
+        this.stats = stats;
+        this.deflater = new Deflater(level, true);
+        stats.compressed(true);
+    }
+
+    /**
+     * @param compressed stream positioned at first compressed byte
+     */
+    public InputStream inflate(InputStream compressed) {
+        return new InflatingInputStream(compressed);
+    }
+
+    public OutputStream deflate(OutputStream compressed) {
+        return new DeflatingOutputStream(compressed);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Releases inflater and deflater, streams are unusable after it
+     */
+    public void end() {
+        stats.compressed(false);
+        inflater.end();
+        deflater.end();
+    }
+
+    /**
+     * Unlike InflaterInputStream, available() tells bytes which can be read without blocking,
+     * so ResponseReader.ready() and IDLE pushes work as over plain stream
+     */
+    private class InflatingInputStream extends FilterInputStream {
+        private final byte[] input = new byte[BUFFER_SIZE];
+        // inflated by available(), returned before inflating more
+        private final byte[] ahead = new byte[BUFFER_SIZE];
+        private int aheadPosition = 0;
+        private int aheadLimit = 0;
+
+        InflatingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int count;
+            do {
+                count = read(one, 0, 1);
+            } while(count == 0);
+            return count == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            if(aheadPosition < aheadLimit) {
+                int count = Math.min(len, aheadLimit - aheadPosition);
+                System.arraycopy(ahead, aheadPosition, b, off, count);
+                aheadPosition += count;
+                return count;
+            }
+            while(true) {
+                int count = inflate(b, off, len);
+                if(count > 0) return count;
+                if(inflater.finished()) return -1;
+                int read = in.read(input, 0, input.length);
+                if(read == -1) return -1;
+                inflater.setInput(input, 0, read);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            if(aheadPosition < aheadLimit) return aheadLimit - aheadPosition;
+            aheadPosition = 0;
+            aheadLimit = 0;
+            while(true) {
+                int count = inflate(ahead, 0, ahead.length);
+                if(count > 0) {
+                    aheadLimit = count;
+                    return count;
+                }
+                if(inflater.finished()) return 0;
+                int pending = in.available();
+                if(pending <= 0) return 0;
+                int read = in.read(input, 0, Math.min(pending, input.length));
+                if(read <= 0) return 0;
+                inflater.setInput(input, 0, read);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            long total = 0;
+            while(total < n) {
+                int count = read(skipped, 0, (int) Math.min(n - total, skipped.length));
+                if(count == -1) break;
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        // inflates input already given to inflater, 0 if it needs more
+        private int inflate(byte[] b, int off, int len) throws IOException {
+            int count;
+            try {
+                count = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("corrupt DEFLATE stream: " + e.getMessage());
+            }
+            if(count == 0 && inflater.needsDictionary()) throw new ZipException("DEFLATE stream needs dictionary");
+            if(count > 0) stats.inflated(count);
+            return count;
+        }
+    }
+
+    private class DeflatingOutputStream extends DeflaterOutputStream {
+        DeflatingOutputStream(OutputStream out) {
+            super(out, deflater, BUFFER_SIZE, true);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            stats.deflated(len);
+        }
+    }
+}
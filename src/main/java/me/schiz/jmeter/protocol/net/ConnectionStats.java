@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.4
+ * Per-connection statistics of SessionClient: connect phases, TLS handshakes, wire bytes
+ * and uncompressed bytes of compressed sessions (see Compression)
+ */
+public class ConnectionStats {
+    private volatile int handshakes = 0;
+    private volatile int resumed = 0;
+    private volatile boolean lastResumed = false;
+
+    // connect phases: start timestamp and duration, ms
+    private volatile long dnsStart = 0;
+    private volatile long dnsTime = 0;
+    private volatile long tcpStart = 0;
+    private volatile long tcpTime = 0;
+    private volatile long handshakeStart = 0;
+    private volatile long handshakeTime = 0;
+    private volatile long greetingStart = 0;
+    private volatile long greetingTime = 0;
+
+    // timestamp of first byte received after greeting started, 0 - not received yet
+    private volatile long firstByte = 0;
+    private volatile boolean firstByteArmed = false;
+
+    // wire bytes of the whole session and their values at start of current sample
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong sent = new AtomicLong(0);
+    private volatile long receivedMark = 0;
+    private volatile long sentMark = 0;
+
+    // bytes above Compression, wire bytes of compressed session are deflated ones
+    private final AtomicLong inflated = new AtomicLong(0);
+    private final AtomicLong deflated = new AtomicLong(0);
+    private volatile long inflatedMark = 0;
+    private volatile long deflatedMark = 0;
+    private volatile boolean compressed = false;
+    // compression was active at start of current sample
+    private volatile boolean compressedMark = false;
+
+    public int getHandshakes() {
+        return handshakes;
+    }
+    public int getResumed() {
+        return resumed;
+    }
+    /**
+     * @return duration of last TLS handshake, ms
+     */
+    public long getHandshakeTime() {
+        return handshakeTime;
+    }
+    public long getDnsTime() {
+        return dnsTime;
+    }
+    public long getTcpTime() {
+        return tcpTime;
+    }
+    public long getGreetingTime() {
+        return greetingTime;
+    }
+    /**
+     * @return DNS + TCP + implicit TLS, ms
+     */
+    public long getConnectTime() {
+        return dnsTime + tcpTime + (handshakeStart < greetingStart ? handshakeTime : 0);
+    }
+
+    public void resolved(long start, long end) {
+        dnsStart = start;
+        dnsTime = end - start;
+    }
+
+    void connected(long start, long end) {
+        tcpStart = start;
+        tcpTime = end - start;
+    }
+
+    void handshake(long start, long end, boolean isResumed) {
+        handshakes++;
+        if(isResumed) resumed++;
+        handshakeStart = start;
+        handshakeTime = end - start;
+        lastResumed = isResumed;
+    }
+
+    /**
+     * Server greeting is expected from now
+     */
+    public void greetingStarted() {
+        greetingStart = System.currentTimeMillis();
+        firstByte = 0;
+        firstByteArmed = true;
+    }
+
+    public void greetingReceived() {
+        greetingTime = System.currentTimeMillis() - greetingStart;
+        firstByteArmed = false;
+    }
+
+    public long getBytesReceived() {
+        return received.get();
+    }
+    public long getBytesSent() {
+        return sent.get();
+    }
+
+    public long getUncompressedBytesReceived() {
+        return inflated.get();
+    }
+    public long getUncompressedBytesSent() {
+        return deflated.get();
+    }
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    void sent(int count) {
+        sent.addAndGet(count);
+    }
+
+    void received(int count) {
+        received.addAndGet(count);
+        if(firstByteArmed) {
+            firstByte = System.currentTimeMillis();
+            firstByteArmed = false;
+        }
+    }
+
+    void compressed(boolean active) {
+        compressed = active;
+    }
+
+    void inflated(int count) {
+        inflated.addAndGet(count);
+    }
+
+    void deflated(int count) {
+        deflated.addAndGet(count);
+    }
+
+    /**
+     * Starts byte accounting of new sample
+     */
+    public void mark() {
+        receivedMark = received.get();
+        sentMark = sent.get();
+        inflatedMark = inflated.get();
+        deflatedMark = deflated.get();
+        compressedMark = compressed;
+    }
+
+    /**
+     * Sets bytes received since {@link #mark()} as sample size, sent and session totals go to response headers.
+     * Samples of compressed session also report bytes before deflate and after inflate
+     */
+    public void reportBytes(SampleResult sr) {
+        long in = received.get();
+        long out = sent.get();
+        long plainIn = inflated.get();
+        long plainOut = deflated.get();
+        sr.setBytes((int) (in - receivedMark));
+        StringBuilder headers = new StringBuilder(sr.getResponseHeaders());
+        headers.append("Bytes Sent : ").append(out - sentMark).append("\n");
+        headers.append("Bytes Received : ").append(in - receivedMark).append("\n");
+        if(compressedMark) {
+            headers.append("Uncompressed Bytes Sent : ").append(plainOut - deflatedMark).append("\n");
+            headers.append("Uncompressed Bytes Received : ").append(plainIn - inflatedMark).append("\n");
+        }
+        headers.append("Session Bytes Sent : ").append(out).append("\n");
+        headers.append("Session Bytes Received : ").append(in).append("\n");
+        if(compressedMark) {
+            headers.append("Session Uncompressed Bytes Sent : ").append(plainOut).append("\n");
+            headers.append("Session Uncompressed Bytes Received : ").append(plainIn).append("\n");
+        }
+        sr.setResponseHeaders(headers.toString());
+        receivedMark = in;
+        sentMark = out;
+        inflatedMark = plainIn;
+        deflatedMark = plainOut;
+        compressedMark = compressed;
+    }
+
+    /**
+     * Appends TLS handshake of this sample to response headers
+     * @param handshakesBefore handshake count before sample
+     */
+    public void report(SampleResult sr, int handshakesBefore) {
+        int count = handshakes - handshakesBefore;
+        if(count <= 0) return;
+        StringBuilder headers = new StringBuilder(sr.getResponseHeaders());
+        headers.append("TLS Handshakes : ").append(count).append("\n");
+        headers.append("TLS Resumed : ").append(lastResumed ? count : 0).append("\n");
+        headers.append("TLS Handshake Time : ").append(handshakeTime).append("\n");
+        sr.setResponseHeaders(headers.toString());
+    }
+
+    /**
+     * Appends TLS handshake of STARTTLS upgrade to response headers and splits sample into
+     * command round-trip and handshake sub-results. Call after sampleEnd.
+     * @param command STARTTLS or STLS
+     */
+    public void reportUpgrade(SampleResult sr, String command, int handshakesBefore) {
+        if(handshakes - handshakesBefore <= 0) return;
+        long commandTime = handshakeStart - sr.getStartTime();
+        sr.setResponseHeaders(sr.getResponseHeaders() + command + " Time : " + commandTime + "\n");
+        report(sr, handshakesBefore);
+        addPhase(sr, command, sr.getStartTime(), commandTime);
+        addPhase(sr, lastResumed ? "TLS Handshake (resumed)" : "TLS Handshake", handshakeStart, handshakeTime);
+    }
+
+    /**
+     * Fills latency (time to first greeting byte), connect phase headers and sub-results of CONNECT.
+     * Call after sampleEnd.
+     */
+    public void reportConnect(SampleResult sr) {
+        if(firstByte != 0) sr.setLatency(Math.max(firstByte - sr.getStartTime(), 0));
+        boolean implicitTLS = handshakes > 0 && handshakeStart < greetingStart;
+        StringBuilder headers = new StringBuilder(sr.getResponseHeaders());
+        headers.append("DNS Time : ").append(dnsTime).append("\n");
+        headers.append("TCP Connect Time : ").append(tcpTime).append("\n");
+        if(implicitTLS) headers.append("TLS Handshake Time : ").append(handshakeTime).append("\n");
+        headers.append("Greeting Time : ").append(greetingTime).append("\n");
+        headers.append("Connect Time : ").append(getConnectTime()).append("\n");
+        headers.append("Latency : ").append(sr.getLatency()).append("\n");
+        if(implicitTLS) {
+            headers.append("TLS Handshakes : ").append(handshakes).append("\n");
+            headers.append("TLS Resumed : ").append(lastResumed ? handshakes : 0).append("\n");
+        }
+        sr.setResponseHeaders(headers.toString());
+
+        addPhase(sr, "DNS", dnsStart, dnsTime);
+        addPhase(sr, "TCP Connect", tcpStart, tcpTime);
+        if(implicitTLS) addPhase(sr, lastResumed ? "TLS Handshake (resumed)" : "TLS Handshake", handshakeStart, handshakeTime);
+        addPhase(sr, "Greeting", greetingStart, greetingTime);
+    }
+
+    private static void addPhase(SampleResult sr, String phase, long start, long time) {
+        if(start == 0) return;
+        SampleResult sub = new SampleResult();
+        sub.setSampleLabel(sr.getSampleLabel() + " " + phase);
+        sub.setStampAndTime(start, time);
+        sub.setSuccessful(true);
+        sub.setResponseCodeOK();
+        sr.addRawSubResult(sub);
+    }
+}
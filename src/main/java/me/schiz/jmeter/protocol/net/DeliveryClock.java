@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Delivery times of messages sent to recipients, so push notification of recipient mailbox
+ * (IMAP IDLE) can be measured end to end. Recipient must be the login name of watching session
+ */
+public class DeliveryClock {
+    // undelivered notifications kept per recipient
+    private static final int MAX_PENDING = 64;
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<Long>> deliveries =
+            new ConcurrentHashMap<String, ConcurrentLinkedQueue<Long>>();
+    // deliveries are recorded only while somebody waits for notifications
+    private static volatile boolean enabled = false;
+
+    private DeliveryClock() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    public static void setEnabled(boolean enabled) {
+        DeliveryClock.enabled = enabled;
+    }
+
+    /**
+     * @param time when message was accepted for recipient, ms
+     */
+    public static void delivered(String recipient, long time) {
+        if(!enabled) return;
+        String key = recipient.toLowerCase();
+        ConcurrentLinkedQueue<Long> queue = deliveries.get(key);
+        if(queue == null) {
+            ConcurrentLinkedQueue<Long> created = new ConcurrentLinkedQueue<Long>();
+            queue = deliveries.putIfAbsent(key, created);
+            if(queue == null) queue = created;
+        }
+        queue.add(time);
+        while(queue.size() > MAX_PENDING) queue.poll();
+    }
+
+    /**
+     * @return time of oldest delivery to recipient not taken yet, -1 if there is none
+     */
+    public static long take(String recipient) {
+        ConcurrentLinkedQueue<Long> queue = deliveries.get(recipient.toLowerCase());
+        Long time = queue == null ? null : queue.poll();
+        return time == null ? -1 : time;
+    }
+
+    public static void clear() {
+        deliveries.clear();
+        enabled = false;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Messages (.eml file or directory of them) memory-mapped once and shared by all threads.
+ * Samplers read messages through independent views, heap copies are never made.
+ */
+public class MessageCorpus {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final ConcurrentHashMap<String, MessageCorpus> corpora = new ConcurrentHashMap<String, MessageCorpus>();
+
+    private final String path;
+    private final File[] files;
+    private final MappedByteBuffer[] messages;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    private MessageCorpus(String path) throws IOException {
+        this.path = path;
+        File file = new File(path);
+        if(file.isDirectory()) {
+            files = file.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    return f.isFile() && !f.isHidden();
+                }
+            });
+            if(files == null || files.length == 0) throw new IOException("no messages in " + path);
+            Arrays.sort(files);
+        } else {
+            files = new File[] {file};
+        }
+        messages = new MappedByteBuffer[files.length];
+        long size = 0;
+        for(int i = 0; i < files.length; ++i) {
+            messages[i] = map(files[i]);
+            size += messages[i].capacity();
+        }
+        log.info("message corpus " + path + ": " + files.length + " messages, " + size + " bytes mapped");
+    }
+
+    /**
+     * @return corpus of file or directory, mapped on first use
+     */
+    public static MessageCorpus get(String path) throws IOException {
+        MessageCorpus corpus = corpora.get(path);
+        if(corpus != null) return corpus;
+        synchronized(corpora) {
+            corpus = corpora.get(path);
+            if(corpus == null) {
+                corpus = new MessageCorpus(path);
+                corpora.put(path, corpus);
+            }
+            return corpus;
+        }
+    }
+
+    /**
+     * Forgets all corpora, mappings are released by GC
+     */
+    public static void clear() {
+        corpora.clear();
+    }
+
+    public int size() {
+        return messages.length;
+    }
+
+    public String getName(int index) {
+        return files[index].getName();
+    }
+
+    /**
+     * @return index of next message, round-robin across threads
+     */
+    public int nextIndex() {
+        return (next.getAndIncrement() & Integer.MAX_VALUE) % messages.length;
+    }
+
+    /**
+     * @return read-only view of message with own position
+     */
+    public ByteBuffer getMessage(int index) {
+        return messages[index].asReadOnlyBuffer();
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large to map");
+            // mapping stays valid after channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.commons.net.util.Base64;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Synthetic MIME messages: multipart/mixed with multipart/alternative body and base64 attachment.
+ * Bodies and base64 attachment data are encoded once, each message is stitched from shared
+ * read-only segments and a few own headers. Sizes follow spec like "4k:50, 64k:30, 1m:15, 10m:5"
+ * (size:weight, suffixes k and m).
+ */
+public class MessageGenerator {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final ConcurrentHashMap<String, MessageGenerator> generators = new ConcurrentHashMap<String, MessageGenerator>();
+
+    private static final String CHARSET = "US-ASCII";
+    private static final String MIXED = "=_mixed_0c6f1a2b";
+    private static final String ALTERNATIVE = "=_alternative_0c6f1a2b";
+    // chunked base64 line: 76 chars + CRLF
+    private static final int LINE = 78;
+    // extra lines of attachment data, messages start at random line to differ from each other
+    private static final int SLACK_LINES = 1024;
+    private static final int BODIES = 16;
+    private static final String[] WORDS = {"load", "test", "mail", "server", "message", "quota", "folder",
+            "report", "meeting", "weekly", "status", "draft", "invoice", "update", "review", "project"};
+    private static final String[][] ATTACHMENTS = {
+            {"application/pdf", "report-%d.pdf"},
+            {"image/png", "image-%d.png"},
+            {"application/zip", "archive-%d.zip"},
+            {"application/octet-stream", "data-%d.bin"}};
+
+    private final String spec;
+    private final int[] sizes;
+    private final int[] cumulativeWeights;
+    private final byte[][] bodies;
+    private final byte[] mimeHeaders;
+    private final byte[] closing;
+    private final byte[] attachmentData;
+    private final int attachmentLines;
+    private final AtomicLong counter = new AtomicLong(0);
+
+    private MessageGenerator(String spec) {
+        this.spec = spec;
+        String[] items = spec.trim().split("\\s*,\\s*");
+        sizes = new int[items.length];
+        cumulativeWeights = new int[items.length];
+        int total = 0;
+        int maxSize = 0;
+        for(int i = 0; i < items.length; ++i) {
+            String[] pair = items[i].split(":");
+            sizes[i] = parseSize(pair[0]);
+            total += pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            cumulativeWeights[i] = total;
+            maxSize = Math.max(maxSize, sizes[i]);
+        }
+        if(total <= 0) throw new IllegalArgumentException("weights of `" + spec + "` are zero");
+
+        Random random = new Random(spec.hashCode());
+        bodies = new byte[BODIES][];
+        for(int i = 0; i < BODIES; ++i) bodies[i] = ascii(alternative(random));
+        mimeHeaders = ascii("MIME-Version: 1.0\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"" + MIXED + "\"\r\n\r\n"
+                + "--" + MIXED + "\r\n");
+        closing = ascii("\r\n--" + MIXED + "--\r\n");
+
+        // 57 raw bytes per line
+        attachmentLines = maxSize / LINE + SLACK_LINES;
+        byte[] raw = new byte[attachmentLines * 57];
+        random.nextBytes(raw);
+        attachmentData = Base64.encodeBase64(raw, true);
+        log.info("message generator `" + spec + "`: " + attachmentData.length + " bytes of attachment data encoded");
+    }
+
+    /**
+     * @return generator of spec, built on first use
+     */
+    public static MessageGenerator get(String spec) {
+        MessageGenerator generator = generators.get(spec);
+        if(generator != null) return generator;
+        synchronized(generators) {
+            generator = generators.get(spec);
+            if(generator == null) {
+                generator = new MessageGenerator(spec);
+                generators.put(spec, generator);
+            }
+            return generator;
+        }
+    }
+
+    public static void clear() {
+        generators.clear();
+    }
+
+    /**
+     * @return segments of new message, size is close to one of spec sizes
+     */
+    public ByteBuffer[] next(String from, String[] to) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long n = counter.incrementAndGet();
+        int size = nextSize(random);
+
+        StringBuilder headers = new StringBuilder(256);
+        headers.append("Message-ID: <").append(n).append('.').append(System.currentTimeMillis()).append('.')
+                .append(Long.toHexString(random.nextLong())).append("@jmeter-mail>\r\n");
+        headers.append("Date: ").append(new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US).format(new Date())).append("\r\n");
+        headers.append("From: <").append(from).append(">\r\n");
+        headers.append("To: ");
+        for(int i = 0; i < to.length; ++i) headers.append(i == 0 ? "<" : ",\r\n <").append(to[i]).append('>');
+        headers.append("\r\nSubject: ").append(WORDS[random.nextInt(WORDS.length)]).append(" #").append(n).append("\r\n");
+
+        byte[] body = bodies[random.nextInt(bodies.length)];
+        int fixed = headers.length() + mimeHeaders.length + body.length + closing.length;
+        int lines = (size - fixed) / LINE;
+        if(lines <= 0) {
+            return new ByteBuffer[] {
+                    ByteBuffer.wrap(ascii(headers.toString())),
+                    ByteBuffer.wrap(mimeHeaders).asReadOnlyBuffer(),
+                    ByteBuffer.wrap(body).asReadOnlyBuffer(),
+                    ByteBuffer.wrap(closing).asReadOnlyBuffer()};
+        }
+        String[] type = ATTACHMENTS[random.nextInt(ATTACHMENTS.length)];
+        String name = String.format(type[1], n);
+        String part = "\r\n--" + MIXED + "\r\n"
+                + "Content-Type: " + type[0] + "; name=\"" + name + "\"\r\n"
+                + "Content-Transfer-Encoding: base64\r\n"
+                + "Content-Disposition: attachment; filename=\"" + name + "\"\r\n\r\n";
+        lines = Math.max(lines - part.length() / LINE, 1);
+        int offset = random.nextInt(attachmentLines - lines + 1) * LINE;
+        ByteBuffer data = ByteBuffer.wrap(attachmentData, offset, lines * LINE - 2).slice().asReadOnlyBuffer();
+        return new ByteBuffer[] {
+                ByteBuffer.wrap(ascii(headers.toString())),
+                ByteBuffer.wrap(mimeHeaders).asReadOnlyBuffer(),
+                ByteBuffer.wrap(body).asReadOnlyBuffer(),
+                ByteBuffer.wrap(ascii(part)),
+                data,
+                ByteBuffer.wrap(closing).asReadOnlyBuffer()};
+    }
+
+    private int nextSize(ThreadLocalRandom random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for(int i = 0; i < cumulativeWeights.length; ++i) {
+            if(value < cumulativeWeights[i]) return sizes[i];
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private static String alternative(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = 20 + random.nextInt(200);
+        for(int i = 0; i < words; ++i) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(i % 12 == 11 ? "\r\n" : " ");
+        }
+        return "Content-Type: multipart/alternative; boundary=\"" + ALTERNATIVE + "\"\r\n\r\n"
+                + "--" + ALTERNATIVE + "\r\n"
+                + "Content-Type: text/plain; charset=us-ascii\r\n\r\n"
+                + text + "\r\n"
+                + "--" + ALTERNATIVE + "\r\n"
+                + "Content-Type: text/html; charset=us-ascii\r\n\r\n"
+                + "<html><body><p>" + text.toString().replace("\r\n", "</p>\r\n<p>") + "</p></body></html>\r\n"
+                + "--" + ALTERNATIVE + "--\r\n";
+    }
+
+    private static int parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        int multiplier = 1;
+        if(value.endsWith("k")) multiplier = 1024;
+        else if(value.endsWith("m")) multiplier = 1024 * 1024;
+        if(multiplier != 1) value = value.substring(0, value.length() - 1);
+        return Integer.parseInt(value.trim()) * multiplier;
+    }
+
+    private static byte[] ascii(String value) {
+        try {
+            return value.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
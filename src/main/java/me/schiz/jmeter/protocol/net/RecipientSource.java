@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Recipients for fan-out mailing, shared by all threads: addresses of file (one per line)
+ * or generated by pattern with number range, e.g. "user{1-100000}@example.org".
+ * Recipients of one message are distinct.
+ */
+public class RecipientSource {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final Pattern RANGE = Pattern.compile("\\{(\\d+)-(\\d+)\\}");
+    private static final ConcurrentHashMap<String, RecipientSource> sources = new ConcurrentHashMap<String, RecipientSource>();
+
+    private final String spec;
+    // file addresses, null for pattern
+    private final String[] addresses;
+    private final String prefix;
+    private final String suffix;
+    private final int first;
+    private final int size;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    private RecipientSource(String spec) throws IOException {
+        this.spec = spec;
+        Matcher matcher = RANGE.matcher(spec);
+        if(matcher.find()) {
+            addresses = null;
+            prefix = spec.substring(0, matcher.start());
+            suffix = spec.substring(matcher.end());
+            first = Integer.parseInt(matcher.group(1));
+            int last = Integer.parseInt(matcher.group(2));
+            if(last < first) throw new IllegalArgumentException("bad recipient range " + matcher.group());
+            size = last - first + 1;
+        } else {
+            addresses = load(spec);
+            prefix = null;
+            suffix = null;
+            first = 0;
+            size = addresses.length;
+            if(size == 0) throw new IOException("no recipients in " + spec);
+            log.info("recipients " + spec + ": " + size + " addresses");
+        }
+    }
+
+    /**
+     * @param spec file of addresses or pattern with {first-last} range
+     * @return source of spec, file is read on first use
+     */
+    public static RecipientSource get(String spec) throws IOException {
+        RecipientSource source = sources.get(spec);
+        if(source != null) return source;
+        synchronized(sources) {
+            source = sources.get(spec);
+            if(source == null) {
+                source = new RecipientSource(spec);
+                sources.put(spec, source);
+            }
+            return source;
+        }
+    }
+
+    public static void clear() {
+        sources.clear();
+    }
+
+    /**
+     * @return up to count distinct recipients: next addresses of file round-robin,
+     * or consecutive numbers of pattern from random start
+     */
+    public String[] next(int count) {
+        count = Math.min(Math.max(count, 0), size);
+        String[] recipients = new String[count];
+        if(addresses != null) {
+            int start = (next.getAndAdd(count) & Integer.MAX_VALUE) % size;
+            for(int i = 0; i < count; ++i) recipients[i] = addresses[(start + i) % size];
+        } else {
+            int start = ThreadLocalRandom.current().nextInt(size);
+            StringBuilder address = new StringBuilder(prefix.length() + suffix.length() + 10);
+            for(int i = 0; i < count; ++i) {
+                address.setLength(0);
+                recipients[i] = address.append(prefix).append(first + (start + i) % size).append(suffix).toString();
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * @param range count or range of counts, e.g. "1-500"
+     * @return uniformly random count of range
+     */
+    public static int count(String range) {
+        range = range.trim();
+        int dash = range.indexOf('-');
+        if(dash == -1) return Integer.parseInt(range);
+        int min = Integer.parseInt(range.substring(0, dash).trim());
+        int max = Integer.parseInt(range.substring(dash + 1).trim());
+        if(max < min) throw new IllegalArgumentException("bad recipient count " + range);
+        return min + ThreadLocalRandom.current().nextInt(max - min + 1);
+    }
+
+    private static String[] load(String path) throws IOException {
+        List<String> list = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(!line.isEmpty() && !line.startsWith("#")) list.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.commons.net.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.sasl.SaslException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Client responses of SASL mechanisms, base64 encoded. Responses of PLAIN, LOGIN and XOAUTH2 are
+ * encoded per login, that is cheaper than cache lookup by credentials; SCRAM caches salted passwords.
+ * Creates mechanisms for protocol clients, see {@link SaslMechanism}
+ */
+public class Sasl {
+    public static final String PLAIN = "PLAIN";
+    public static final String LOGIN = "LOGIN";
+    public static final String CRAM_MD5 = "CRAM-MD5";
+    public static final String XOAUTH2 = "XOAUTH2";
+    public static final String[] MECHANISMS = {PLAIN, LOGIN, CRAM_MD5, XOAUTH2, Scram.SHA_1, Scram.SHA_256};
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Sasl() {
+    }
+
+    /**
+     * @param secret password or OAuth 2.0 token for XOAUTH2
+     * @throws IllegalArgumentException if mechanism is not supported
+     */
+    public static SaslMechanism mechanism(String name, final String user, final String secret) {
+        name = name.toUpperCase();
+        if(PLAIN.equals(name)) {
+            return new SaslMechanism(PLAIN) {
+                @Override
+                protected String initial() {
+                    return plain(user, secret);
+                }
+                @Override
+                protected String evaluate(String challenge) {
+                    return "";
+                }
+            };
+        }
+        if(LOGIN.equals(name)) {
+            return new SaslMechanism(LOGIN) {
+                private int step = 0;
+                @Override
+                protected String initial() {
+                    return null;
+                }
+                @Override
+                protected String evaluate(String challenge) {
+                    // "Username:" and "Password:" challenges
+                    return step < 2 ? login(user, secret)[step++] : "";
+                }
+            };
+        }
+        if(CRAM_MD5.equals(name)) {
+            return new SaslMechanism(CRAM_MD5) {
+                @Override
+                protected String initial() {
+                    return null;
+                }
+                @Override
+                protected String evaluate(String challenge) throws SaslException {
+                    try {
+                        return cramMd5(user, secret, challenge);
+                    } catch (GeneralSecurityException e) {
+                        throw new SaslException("can't compute CRAM-MD5 response", e);
+                    }
+                }
+            };
+        }
+        if(XOAUTH2.equals(name)) {
+            return new SaslMechanism(XOAUTH2) {
+                @Override
+                protected String initial() {
+                    return xoauth2(user, secret);
+                }
+                @Override
+                protected String evaluate(String challenge) {
+                    // challenge is JSON error, empty response finishes exchange
+                    return "";
+                }
+            };
+        }
+        if(Scram.SHA_1.equals(name) || Scram.SHA_256.equals(name)) return new Scram(name, user, secret);
+        throw new IllegalArgumentException("unsupported SASL mechanism " + name);
+    }
+
+    /**
+     * @return initial response of PLAIN (RFC 4616)
+     */
+    public static String plain(String user, String password) {
+        return encode("\0" + user + "\0" + password);
+    }
+
+    /**
+     * @return responses of LOGIN to "Username:" and "Password:" challenges
+     */
+    public static String[] login(String user, String password) {
+        return new String[] {encode(user), encode(password)};
+    }
+
+    /**
+     * @return initial response of XOAUTH2 with OAuth 2.0 bearer token
+     */
+    public static String xoauth2(String user, String token) {
+        return encode("user=" + user + "\u0001auth=Bearer " + token + "\u0001\u0001");
+    }
+
+    /**
+     * @param challenge base64 challenge of server
+     * @return response of CRAM-MD5 (RFC 2195), depends on challenge and is not cached
+     */
+    public static String cramMd5(String user, String password, String challenge) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacMD5");
+        mac.init(new SecretKeySpec(utf8(password), "HmacMD5"));
+        byte[] digest = mac.doFinal(Base64.decodeBase64(challenge.trim()));
+        StringBuilder response = new StringBuilder(user.length() + 33);
+        response.append(user).append(' ');
+        for(byte b : digest) {
+            response.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return encode(response.toString());
+    }
+
+    static String encode(String value) {
+        return Base64.encodeBase64StringUnChunked(utf8(value));
+    }
+
+    static byte[] utf8(String value) {
+        return value.getBytes(UTF_8);
+    }
+}
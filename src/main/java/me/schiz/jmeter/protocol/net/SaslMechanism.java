@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+import javax.security.sasl.SaslException;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Client side of one SASL exchange. Protocol clients send responses and pass challenges,
+ * mechanism accounts time spent on computing responses apart from server round trips.
+ */
+public abstract class SaslMechanism {
+    private final String name;
+    // client compute time, ns
+    private long computeTime = 0;
+    private String error = null;
+
+    protected SaslMechanism(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return base64 initial response or null if mechanism starts with server challenge
+     */
+    public final String initialResponse() {
+        long start = System.nanoTime();
+        try {
+            return initial();
+        } catch (SaslException e) {
+            error = e.getMessage();
+            return null;
+        } finally {
+            computeTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @param challenge base64 server challenge
+     * @return base64 response or null if exchange must be cancelled, see {@link #getError(boolean)}
+     */
+    public final String respond(String challenge) {
+        long start = System.nanoTime();
+        try {
+            return evaluate(challenge);
+        } catch (SaslException e) {
+            error = e.getMessage();
+            return null;
+        } finally {
+            computeTime += System.nanoTime() - start;
+        }
+    }
+
+    protected abstract String initial() throws SaslException;
+
+    protected abstract String evaluate(String challenge) throws SaslException;
+
+    /**
+     * @param accepted server accepted authentication
+     * @return client side failure of exchange, e.g. bad server signature, or null
+     */
+    public String getError(boolean accepted) {
+        if(error != null) return error;
+        if(accepted && !isComplete()) return name + " exchange is not complete";
+        return null;
+    }
+
+    /**
+     * @return false if mechanism expects more data from server, e.g. server signature
+     */
+    protected boolean isComplete() {
+        return true;
+    }
+
+    /**
+     * @return client compute time, us
+     */
+    public long getComputeTime() {
+        return computeTime / 1000;
+    }
+
+    /**
+     * Appends mechanism, client compute time and the rest of sample time to response headers.
+     * Call after sampleEnd.
+     */
+    public void report(SampleResult sr) {
+        StringBuilder headers = new StringBuilder(sr.getResponseHeaders());
+        headers.append("SASL Mechanism : ").append(name).append("\n");
+        headers.append("SASL Compute Time (us) : ").append(getComputeTime()).append("\n");
+        headers.append("SASL Server Time : ").append(Math.max(sr.getTime() - computeTime / 1000000, 0)).append("\n");
+        if(error != null) headers.append("SASL Error : ").append(error).append("\n");
+        sr.setResponseHeaders(headers.toString());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.commons.net.util.Base64;
+import org.apache.jmeter.samplers.SampleResult;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.sasl.SaslException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * SCRAM-SHA-1 and SCRAM-SHA-256 client (RFC 5802, RFC 7677), without channel binding.
+ * PBKDF2 salted passwords are cached by account, salt and iteration count,
+ * so only the first login of account pays for thousands of iterations.
+ */
+public class Scram extends SaslMechanism {
+    public static final String SHA_1 = "SCRAM-SHA-1";
+    public static final String SHA_256 = "SCRAM-SHA-256";
+
+    private static final int CACHE_SIZE = 65536;
+    private static final int NONCE_SIZE = 24;
+    // base64 of gs2 header "n,,"
+    private static final String GS2_HEADER = "biws";
+    private static final BoundedCache<String, byte[]> saltedPasswords = new BoundedCache<String, byte[]>(CACHE_SIZE);
+    private static final SecureRandom random = new SecureRandom();
+
+    private final String user;
+    private final String password;
+    private final String digest;
+    private final String hmac;
+    private final String pbkdf2;
+
+    private String clientFirstBare = null;
+    private byte[] serverSignature = null;
+    private boolean verified = false;
+    private boolean cached = false;
+
+    public Scram(String mechanism, String user, String password) {
+        super(mechanism);
+        this.user = user;
+        this.password = password;
+        if(SHA_1.equals(mechanism)) {
+            digest = "SHA-1";
+            hmac = "HmacSHA1";
+            pbkdf2 = "PBKDF2WithHmacSHA1";
+        } else if(SHA_256.equals(mechanism)) {
+            digest = "SHA-256";
+            hmac = "HmacSHA256";
+            pbkdf2 = "PBKDF2WithHmacSHA256";
+        } else {
+            throw new IllegalArgumentException("unsupported SCRAM mechanism " + mechanism);
+        }
+    }
+
+    @Override
+    protected String initial() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        clientFirstBare = "n=" + saslName(user) + ",r=" + Base64.encodeBase64StringUnChunked(nonce);
+        return Sasl.encode("n,," + clientFirstBare);
+    }
+
+    @Override
+    protected String evaluate(String challenge) throws SaslException {
+        String message = new String(Base64.decodeBase64(challenge), Sasl.UTF_8);
+        if(serverSignature == null) return clientFinal(message);
+        verify(message);
+        return "";
+    }
+
+    @Override
+    protected boolean isComplete() {
+        return verified;
+    }
+
+    @Override
+    public void report(SampleResult sr) {
+        super.report(sr);
+        sr.setResponseHeaders(sr.getResponseHeaders() + "SCRAM Salted Password Cached : " + cached + "\n");
+    }
+
+    /**
+     * @return true if salted password was taken from cache
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    public static BoundedCache<String, byte[]> getCache() {
+        return saltedPasswords;
+    }
+
+    private String clientFinal(String serverFirst) throws SaslException {
+        if(clientFirstBare == null) throw new SaslException("server challenge before client-first-message");
+        String nonce = attribute(serverFirst, 'r');
+        String salt = attribute(serverFirst, 's');
+        String iterations = attribute(serverFirst, 'i');
+        if(nonce == null || salt == null || iterations == null) throw new SaslException("bad server-first-message: " + serverFirst);
+        if(!nonce.startsWith(attribute(clientFirstBare, 'r'))) throw new SaslException("server nonce does not extend client nonce");
+        try {
+            byte[] saltedPassword = saltedPassword(salt, Integer.parseInt(iterations));
+            String clientFinalBare = "c=" + GS2_HEADER + ",r=" + nonce;
+            byte[] authMessage = Sasl.utf8(clientFirstBare + "," + serverFirst + "," + clientFinalBare);
+
+            byte[] clientKey = hmac(saltedPassword, Sasl.utf8("Client Key"));
+            byte[] storedKey = MessageDigest.getInstance(digest).digest(clientKey);
+            byte[] proof = hmac(storedKey, authMessage);
+            for(int i = 0; i < proof.length; ++i) proof[i] ^= clientKey[i];
+            serverSignature = hmac(hmac(saltedPassword, Sasl.utf8("Server Key")), authMessage);
+            return Sasl.encode(clientFinalBare + ",p=" + Base64.encodeBase64StringUnChunked(proof));
+        } catch (NumberFormatException e) {
+            throw new SaslException("bad iteration count " + iterations);
+        } catch (GeneralSecurityException e) {
+            throw new SaslException("can't compute SCRAM proof", e);
+        }
+    }
+
+    private void verify(String serverFinal) throws SaslException {
+        String error = attribute(serverFinal, 'e');
+        if(error != null) throw new SaslException("server error: " + error);
+        String signature = attribute(serverFinal, 'v');
+        if(signature == null || !MessageDigest.isEqual(serverSignature, Base64.decodeBase64(signature))) {
+            throw new SaslException("bad server signature");
+        }
+        verified = true;
+    }
+
+    private byte[] saltedPassword(String salt, int iterations) throws GeneralSecurityException {
+        String key = getName() + '\0' + user + '\0' + password + '\0' + salt + '\0' + iterations;
+        byte[] saltedPassword = saltedPasswords.get(key);
+        if(saltedPassword != null) {
+            cached = true;
+            return saltedPassword;
+        }
+        int length = MessageDigest.getInstance(digest).getDigestLength();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), Base64.decodeBase64(salt), iterations, length * 8);
+        saltedPassword = SecretKeyFactory.getInstance(pbkdf2).generateSecret(spec).getEncoded();
+        spec.clearPassword();
+        saltedPasswords.put(key, saltedPassword);
+        return saltedPassword;
+    }
+
+    private byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(hmac);
+        mac.init(new SecretKeySpec(key, hmac));
+        return mac.doFinal(data);
+    }
+
+    private static String attribute(String message, char name) {
+        for(String attribute : message.split(",")) {
+            if(attribute.length() >= 2 && attribute.charAt(0) == name && attribute.charAt(1) == '=') return attribute.substring(2);
+        }
+        return null;
+    }
+
+    private static String saslName(String user) {
+        return user.replace("=", "=3D").replace(",", "=2C");
+    }
+}
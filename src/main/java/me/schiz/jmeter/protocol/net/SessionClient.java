@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import java.io.IOException;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.2
+ * Common part of IMAP/POP3/SMTP clients created by samplers
+ */
+public interface SessionClient {
+    /**
+     * @return statistics of this connection
+     */
+    ConnectionStats getStats();
+
+    /**
+     * @return true if connection is encrypted (implicit TLS or after STARTTLS)
+     */
+    boolean isSecure();
+
+    /**
+     * Brings session back to state of fresh connection (and login) before SessionPool lends it again:
+     * no selected mailbox, mail transaction or pending deletions.
+     * Upgrades of connection (STARTTLS, COMPRESS) can't be undone, such sessions are not reused
+     * @return false if session must be closed instead of reused
+     */
+    boolean recycle() throws IOException;
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.commons.net.util.KeyManagerUtils;
+import org.apache.commons.net.util.SSLContextUtils;
+import org.apache.commons.net.util.TrustManagerUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Singleton SSLContext shared by IMAPS/SMTPS/POP3S clients, so JVM initializes it once
+ * and TLS sessions of all connections are cached (and resumed) in one place
+ */
+public class SharedSSLContext {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final String PROTOCOL = "TLS";
+    private static SharedSSLContext instance = null;
+
+    private volatile SSLContext context = null;
+    private volatile String[] protocols = null;
+    private volatile String[] cipherSuites = null;
+    private volatile boolean resumption = true;
+
+    private final AtomicLong handshakes = new AtomicLong(0);
+    private final AtomicLong resumed = new AtomicLong(0);
+
+    public static SharedSSLContext getInstance() {
+        synchronized(SharedSSLContext.class) {
+            if(instance == null) instance = new SharedSSLContext();
+            return instance;
+        }
+    }
+
+    /**
+     * Builds new context. Empty keystore means no client certificate,
+     * empty truststore means JVM default trust (unless trustAll).
+     * @param protocols comma separated, empty - JVM default
+     * @param cipherSuites comma separated, empty - JVM default
+     */
+    public synchronized void configure(String keyStore, String keyStorePassword,
+                                       String trustStore, String trustStorePassword, boolean trustAll,
+                                       String protocols, String cipherSuites, boolean resumption) throws IOException {
+        KeyManager keyManager = null;
+        TrustManager trustManager = null;
+        try {
+            if(!keyStore.isEmpty()) {
+                keyManager = KeyManagerUtils.createClientKeyManager(storeType(keyStore), new File(keyStore),
+                        keyStorePassword, null, keyStorePassword);
+            }
+            if(trustAll) {
+                trustManager = TrustManagerUtils.getAcceptAllTrustManager();
+            } else if(!trustStore.isEmpty()) {
+                trustManager = TrustManagerUtils.getDefaultTrustManager(loadKeyStore(trustStore, trustStorePassword));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("can't load key material", e);
+        }
+        this.context = SSLContextUtils.createSSLContext(PROTOCOL, keyManager, trustManager);
+        this.protocols = split(protocols);
+        this.cipherSuites = split(cipherSuites);
+        this.resumption = resumption;
+        handshakes.set(0);
+        resumed.set(0);
+        log.info("shared SSLContext configured: protocols " + protocols + ", resumption " + resumption);
+    }
+
+    public SSLContext getContext() {
+        SSLContext ctx = context;
+        if(ctx == null) {
+            synchronized(this) {
+                if(context == null) {
+                    try {
+                        context = SSLContextUtils.createSSLContext(PROTOCOL, (KeyManager) null, (TrustManager) null);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("can't create default SSLContext", e);
+                    }
+                }
+                ctx = context;
+            }
+        }
+        return ctx;
+    }
+
+    /**
+     * @return enabled protocols or null for JVM default
+     */
+    public String[] getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * @return enabled cipher suites or null for JVM default
+     */
+    public String[] getCipherSuites() {
+        return cipherSuites;
+    }
+
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+    public long getResumed() {
+        return resumed.get();
+    }
+
+    /**
+     * Layers TLS over connected socket and performs handshake (implicit TLS)
+     */
+    public SSLSocket handshake(Socket socket, String host, int port, ConnectionStats stats) throws IOException {
+        SSLSocket ssl = (SSLSocket) getContext().getSocketFactory().createSocket(socket, host, port, true);
+        ssl.setEnableSessionCreation(true);
+        ssl.setUseClientMode(true);
+        if(protocols != null) ssl.setEnabledProtocols(protocols);
+        if(cipherSuites != null) ssl.setEnabledCipherSuites(cipherSuites);
+        long start = System.currentTimeMillis();
+        ssl.startHandshake();
+        handshaked(ssl, start, stats);
+        return ssl;
+    }
+
+    /**
+     * Accounts finished handshake, started at <code>start</code>
+     */
+    public void handshaked(SSLSocket ssl, long start, ConnectionStats stats) {
+        long end = System.currentTimeMillis();
+        SSLSession session = ssl.getSession();
+        // resumed session was created by one of previous handshakes
+        boolean isResumed = session.getCreationTime() < start;
+        if(!resumption) session.invalidate();
+        handshakes.incrementAndGet();
+        if(isResumed) resumed.incrementAndGet();
+        stats.handshake(start, end, isResumed);
+    }
+
+    private static String[] split(String list) {
+        if(list == null || list.trim().isEmpty()) return null;
+        String[] items = list.split("[,\\s]+");
+        return items.length == 0 ? null : items;
+    }
+
+    private static String storeType(String path) {
+        String lower = path.toLowerCase();
+        if(lower.endsWith(".p12") || lower.endsWith(".pfx")) return "PKCS12";
+        return KeyStore.getDefaultType();
+    }
+
+    private static KeyStore loadKeyStore(String path, String password) throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance(storeType(path));
+        InputStream in = new FileInputStream(path);
+        try {
+            ks.load(in, password.isEmpty() ? null : password.toCharArray());
+        } finally {
+            in.close();
+        }
+        return ks;
+    }
+}
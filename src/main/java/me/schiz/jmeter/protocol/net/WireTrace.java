@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.net;
+
+import org.apache.commons.net.ProtocolCommandEvent;
+import org.apache.commons.net.ProtocolCommandListener;
+import org.apache.commons.net.SocketClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Protocol trace of sampled sessions. Listeners put commands and replies into lock-free ring buffer,
+ * one background thread writes it to rotating file, so samplers never wait for disk.
+ * Records are dropped when buffer is full.
+ */
+public class WireTrace {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final long IDLE_PARK = 5000000L;
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+    private static WireTrace instance = null;
+
+    private volatile boolean enabled = false;
+    private volatile int sampleRate = 1;
+    private volatile boolean mask = true;
+    private String path;
+    private long maxFileSize;
+    private int maxFiles;
+
+    // ring buffer: producers claim head by CAS, writer frees slots and moves tail
+    private AtomicReferenceArray<Record> ring = null;
+    private int ringMask;
+    private final AtomicLong head = new AtomicLong(0);
+    private volatile long tail = 0;
+
+    private final AtomicLong sessions = new AtomicLong(0);
+    private final AtomicLong traced = new AtomicLong(0);
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    private Thread writer = null;
+    private volatile boolean running = false;
+
+    private static class Record {
+        final long time;
+        final String session;
+        final boolean sent;
+        final String message;
+
+        Record(String session, boolean sent, String message) {
+            this.time = System.currentTimeMillis();
+            this.session = session;
+            this.sent = sent;
+            this.message = message;
+        }
+    }
+
+    public static WireTrace getInstance() {
+        synchronized(WireTrace.class) {
+            if(instance == null) instance = new WireTrace();
+            return instance;
+        }
+    }
+
+    /**
+     * Starts background writer
+     * @param sampleRate trace 1 of sampleRate sessions
+     * @param bufferSize records in ring buffer, rounded up to power of two
+     * @param maxFileSize rotate file after this size, bytes. 0 - never
+     * @param maxFiles rotated files to keep
+     */
+    public synchronized void start(String path, int sampleRate, int bufferSize, long maxFileSize, int maxFiles, boolean mask) {
+        stop();
+        if(bufferSize <= 0) bufferSize = DEFAULT_BUFFER_SIZE;
+        int capacity = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+        this.ring = new AtomicReferenceArray<Record>(capacity);
+        this.ringMask = capacity - 1;
+        this.path = path;
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.maxFileSize = maxFileSize > 0 ? maxFileSize : Long.MAX_VALUE;
+        this.maxFiles = Math.max(maxFiles, 1);
+        this.mask = mask;
+        head.set(0);
+        tail = 0;
+        sessions.set(0);
+        traced.set(0);
+        written.set(0);
+        dropped.set(0);
+
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "wire-trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+        enabled = true;
+        log.info("wire trace to " + path + ": 1 of " + this.sampleRate + " sessions, buffer " + capacity + " records");
+    }
+
+    /**
+     * Stops writer after buffer is drained
+     */
+    public synchronized void stop() {
+        if(writer == null) return;
+        enabled = false;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        log.info("wire trace stopped: " + traced.get() + " sessions traced, " + written.get() + " records written, " + dropped.get() + " dropped");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Attaches trace listener to new client if it falls into sample
+     * @param name session name in trace
+     */
+    public void attach(SocketClient client, String name) {
+        if(!enabled) return;
+        long n = sessions.getAndIncrement();
+        if(n % sampleRate != 0) return;
+        trace(client, name + "#" + n);
+    }
+
+    /**
+     * Attaches trace listener to client regardless of sample rate
+     */
+    public void trace(SocketClient client, String name) {
+        if(!enabled) return;
+        traced.incrementAndGet();
+        client.addProtocolCommandListener(new Listener(name));
+    }
+
+    private void offer(Record record) {
+        if(!enabled) return;
+        AtomicReferenceArray<Record> buffer = ring;
+        long h;
+        do {
+            h = head.get();
+            if(h - tail > ringMask) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while(!head.compareAndSet(h, h + 1));
+        buffer.lazySet((int) (h & ringMask), record);
+    }
+
+    private void write() {
+        AtomicReferenceArray<Record> buffer = ring;
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder line = new StringBuilder();
+        Writer out = null;
+        long size = 0;
+        try {
+            out = open();
+            while(true) {
+                int index = (int) (tail & ringMask);
+                Record record = buffer.get(index);
+                if(record == null) {
+                    // claimed slots are not published yet or buffer is empty
+                    if(!running && tail == head.get()) break;
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK);
+                    continue;
+                }
+                buffer.set(index, null);
+                tail++;
+
+                line.setLength(0);
+                format(line, format, record);
+                out.write(line.toString());
+                written.incrementAndGet();
+                size += line.length();
+                if(size >= maxFileSize) {
+                    out.close();
+                    rotate();
+                    out = open();
+                    size = 0;
+                }
+            }
+        } catch (IOException e) {
+            log.error("wire trace writer failed, tracing disabled", e);
+            enabled = false;
+        } finally {
+            if(out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn("can't close wire trace " + path, e);
+                }
+            }
+        }
+    }
+
+    private void format(StringBuilder line, SimpleDateFormat format, Record record) {
+        String prefix = format.format(new Date(record.time)) + " " + record.session + (record.sent ? " > " : " < ");
+        String message = record.message;
+        int start = 0;
+        while(start < message.length()) {
+            int end = message.indexOf('\n', start);
+            if(end == -1) end = message.length();
+            int lineEnd = end;
+            if(lineEnd > start && message.charAt(lineEnd - 1) == '\r') lineEnd--;
+            line.append(prefix).append(message, start, lineEnd).append('\n');
+            start = end + 1;
+        }
+    }
+
+    private Writer open() throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), "UTF-8"), 65536);
+    }
+
+    private void rotate() {
+        for(int i = maxFiles - 1; i >= 1; --i) {
+            File from = new File(path + "." + i);
+            if(from.exists()) {
+                File to = new File(path + "." + (i + 1));
+                if(to.exists() && !to.delete()) log.warn("can't delete " + to);
+                if(!from.renameTo(to)) log.warn("can't rotate " + from);
+            }
+        }
+        File last = new File(path + "." + maxFiles);
+        if(last.exists() && !last.delete()) log.warn("can't delete " + last);
+        if(!new File(path).renameTo(new File(path + ".1"))) log.warn("can't rotate " + path);
+    }
+
+    /**
+     * Masks passwords of LOGIN/PASS/APOP and whole SASL exchange after AUTH/AUTHENTICATE
+     */
+    private class Listener implements ProtocolCommandListener {
+        private final String session;
+        private volatile boolean authInProgress = false;
+
+        Listener(String session) {
+            this.session = session;
+        }
+
+        @Override
+        public void protocolCommandSent(ProtocolCommandEvent event) {
+            String message = event.getMessage();
+            if(mask) message = mask(event.getCommand(), message);
+            offer(new Record(session, true, message));
+        }
+
+        @Override
+        public void protocolReplyReceived(ProtocolCommandEvent event) {
+            String message = event.getMessage();
+            // continuation of SASL exchange: "+" for IMAP/POP3, 334 for SMTP
+            if(authInProgress && !message.startsWith("+") && !message.startsWith("334")) authInProgress = false;
+            offer(new Record(session, false, message));
+        }
+
+        private String mask(String command, String message) {
+            if(authInProgress) return "***\r\n";
+            String verb = command == null ? "" : command.trim().toUpperCase();
+            int args;
+            if(verb.equals("LOGIN") || verb.equals("APOP")) {
+                args = 1;
+            } else if(verb.equals("PASS")) {
+                args = 0;
+            } else if(verb.equals("AUTH") || verb.equals("AUTHENTICATE")) {
+                authInProgress = true;
+                args = 1;
+            } else {
+                return message;
+            }
+            String[] words = message.trim().split(" ");
+            // IMAP commands are prefixed by tag
+            int keep = 0;
+            while(keep < words.length && !words[keep].equalsIgnoreCase(verb)) keep++;
+            if(keep == words.length) return "***\r\n";
+            keep += 1 + args;
+            if(keep >= words.length) return message;
+            StringBuilder masked = new StringBuilder();
+            for(int i = 0; i < keep; ++i) masked.append(words[i]).append(' ');
+            return masked.append("***\r\n").toString();
+        }
+    }
+}
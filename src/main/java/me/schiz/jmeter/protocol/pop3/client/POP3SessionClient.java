@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.pop3.client;
+
+import me.schiz.jmeter.protocol.net.ConnectionStats;
+import me.schiz.jmeter.protocol.net.MeteredSocketFactory;
+import me.schiz.jmeter.protocol.net.SaslMechanism;
+import me.schiz.jmeter.protocol.net.SessionClient;
+import me.schiz.jmeter.protocol.net.SharedSSLContext;
+import org.apache.commons.net.pop3.POP3Reply;
+import org.apache.commons.net.pop3.POP3SClient;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.2
+ * POP3 client over SharedSSLContext: implicit TLS, STARTTLS and plain connections with connect phase and TLS handshake statistics.
+ * Authenticates by SASL mechanisms
+ */
+public class POP3SessionClient extends POP3SClient implements SessionClient {
+    private static final int MAX_AUTH_STEPS = 8;
+    private final boolean implicit;
+    private final ConnectionStats stats = new ConnectionStats();
+    private String hostname = null;
+    // end of STLS command, start of TLS handshake
+    private long upgraded = 0;
+    // USER waiting for PASS and user logged in, also by USER/PASS or APOP sent as plain commands
+    private String user = null;
+    private String login = null;
+
+    /**
+     * @param implicit TLS handshake right after TCP connect, otherwise plain connection (STARTTLS is possible)
+     */
+    public POP3SessionClient(boolean implicit) {
+        super(false, SharedSSLContext.getInstance().getContext());
+        this.implicit = implicit;
+        setSocketFactory(new MeteredSocketFactory(stats));
+        SharedSSLContext shared = SharedSSLContext.getInstance();
+        if(shared.getProtocols() != null) setEnabledProtocols(shared.getProtocols());
+        if(shared.getCipherSuites() != null) setEnabledCipherSuites(shared.getCipherSuites());
+    }
+
+    @Override
+    public void connect(String hostname, int port) throws SocketException, IOException {
+        this.hostname = hostname;
+        super.connect(resolve(hostname), port);
+    }
+
+    @Override
+    public void connect(String hostname, int port, InetAddress localAddr, int localPort) throws SocketException, IOException {
+        this.hostname = hostname;
+        super.connect(resolve(hostname), port, localAddr, localPort);
+    }
+
+    @Override
+    protected void _connectAction_() throws IOException {
+        if(implicit) {
+            String host = hostname != null ? hostname : getRemoteAddress().getHostAddress();
+            _socket_ = SharedSSLContext.getInstance().handshake(_socket_, host, getRemotePort(), stats);
+            _input_ = _socket_.getInputStream();
+            _output_ = _socket_.getOutputStream();
+        }
+        user = null;
+        login = null;
+        stats.greetingStarted();
+        super._connectAction_();
+        stats.greetingReceived();
+    }
+
+    @Override
+    public boolean execTLS() throws IOException {
+        if(!super.execTLS()) return false;
+        SharedSSLContext.getInstance().handshaked((SSLSocket) _socket_, upgraded, stats);
+        return true;
+    }
+
+    @Override
+    public int sendCommand(String command, String args) throws IOException {
+        int code = super.sendCommand(command, args);
+        if(command.equalsIgnoreCase("STLS")) upgraded = System.currentTimeMillis();
+        if(code == POP3Reply.OK && args != null && getState() == AUTHORIZATION_STATE) {
+            if(command.equalsIgnoreCase("USER")) {
+                user = args.trim();
+            } else if(command.equalsIgnoreCase("PASS")) {
+                login = user;
+                setState(TRANSACTION_STATE);
+            } else if(command.equalsIgnoreCase("APOP")) {
+                String[] parts = args.trim().split(" ");
+                login = parts[0];
+                setState(TRANSACTION_STATE);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * @return user of USER/PASS or APOP login, null if not logged in or logged in by AUTH
+     */
+    public String getLogin() {
+        return login;
+    }
+
+    /**
+     * Undoes DELE of logged in session by RSET
+     */
+    @Override
+    public boolean recycle() throws IOException {
+        if(!implicit && isSecure()) return false;
+        if(getState() != TRANSACTION_STATE) return true;
+        return reset();
+    }
+
+    /**
+     * AUTH by SASL mechanism (RFC 5034), initial response is sent with AUTH command.
+     * Exchange is cancelled by "*" if mechanism fails on server challenge
+     */
+    public boolean auth(SaslMechanism mechanism) throws IOException {
+        String initial = mechanism.initialResponse();
+        String command = "AUTH " + mechanism.getName();
+        // empty initial response is sent as "="
+        if(initial != null) command += " " + (initial.isEmpty() ? "=" : initial);
+        int code = sendCommand(command);
+        for(int step = 0; code == POP3Reply.OK_INT; ++step) {
+            String response = step < MAX_AUTH_STEPS ? mechanism.respond(challenge(getReplyString())) : null;
+            code = sendCommand(response == null ? "*" : response);
+        }
+        if(code != POP3Reply.OK) return false;
+        setState(TRANSACTION_STATE);
+        return true;
+    }
+
+    private static String challenge(String reply) {
+        String line = reply.trim();
+        return line.startsWith("+") ? line.substring(1).trim() : line;
+    }
+
+    private InetAddress resolve(String hostname) throws IOException {
+        long start = System.currentTimeMillis();
+        InetAddress address = InetAddress.getByName(hostname);
+        stats.resolved(start, System.currentTimeMillis());
+        return address;
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return _socket_ instanceof SSLSocket;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package me.schiz.jmeter.protocol.pop3.gui;
 
+import me.schiz.jmeter.protocol.net.Sasl;
 import me.schiz.jmeter.protocol.pop3.sampler.POP3Sampler;
 import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
 import org.apache.jmeter.testelement.TestElement;
@@ -44,6 +45,12 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 	private JTextArea       taCommand;
 	private JCheckBox		cbAdditionalReply;
 
+	//Authentication panel
+	private JPanel          jpAuthPanel;
+	private JComboBox		cbAuthMechanism;
+	private JTextField      tfUsername;
+	private JPasswordField  tfPassword;
+
 	//Server settings
 	private JPanel          jpServerPanel;
 	private JTextField      tfHostname;
@@ -53,6 +60,7 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 	private JCheckBox       cbUseSSL;
 	//private JCheckBox       cbUseSTARTTLS;
 	private JCheckBox       cbTcpNoDelay;
+	private JCheckBox       cbUsePool;
 
 	public POP3SamplerGUI() {
 		super();
@@ -95,6 +103,11 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 			this.taCommand.setText(cs.getCommand());
 			this.cbAdditionalReply.setSelected(cs.getAdditionalReply());
 
+			//Authentication panel
+			this.cbAuthMechanism.setSelectedItem(cs.getAuthMechanism());
+			this.tfUsername.setText(cs.getUsername());
+			this.tfPassword.setText(cs.getPassword());
+
 			//Server settings
 			this.tfHostname.setText(cs.getHostname());
 			this.tfPort.setText(String.valueOf(cs.getPort()));
@@ -103,6 +116,7 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 			this.cbUseSSL.setSelected(cs.getUseSSL());
 			//this.cbUseSTARTTLS.setSelected(cs.getUseSTARTTLS());
 			this.cbTcpNoDelay.setSelected(cs.getTcpNoDelay());
+			this.cbUsePool.setSelected(cs.getUsePool());
 		}
 	}
 
@@ -120,6 +134,11 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 			s.setCommand(taCommand.getText());
 			s.setAdditionalReply(cbAdditionalReply.isSelected());
 
+			//Authentication panel
+			s.setAuthMechanism((String) cbAuthMechanism.getSelectedItem());
+			s.setUsername(tfUsername.getText());
+			s.setPassword(new String(tfPassword.getPassword()));
+
 			//Server settings
 			s.setHostname(tfHostname.getText());
 			s.setPort(Integer.parseInt(tfPort.getText()));
@@ -128,17 +147,25 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 			s.setUseSSL(cbUseSSL.isSelected());
 //			s.setUseSTARTTLS(cbUseSTARTTLS.isSelected());
 			s.setTcpNoDelay(cbTcpNoDelay.isSelected());
+			s.setUsePool(cbUsePool.isSelected());
 
 			String curOp = cbOperation.getSelectedItem().toString();
 			if(curOp.equals("CONNECT")) {
 				setEnabledServerPanel(true);
 				setEnabledCommandPanel(false);
+				setEnabledAuthPanel(false);
 			} else if (curOp.equals("COMMAND")) {
 				setEnabledServerPanel(false);
 				setEnabledCommandPanel(true);
+				setEnabledAuthPanel(false);
+			} else if (curOp.equals("AUTH")) {
+				setEnabledServerPanel(false);
+				setEnabledCommandPanel(false);
+				setEnabledAuthPanel(true);
 			} else {
 				setEnabledServerPanel(false);
 				setEnabledCommandPanel(false);
+				setEnabledAuthPanel(false);
 			}
 		}
 	}
@@ -154,6 +181,11 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		this.taCommand.setText("NOOP");
 		this.cbAdditionalReply.setSelected(false);
 
+		//Authentication panel
+		this.cbAuthMechanism.setSelectedItem("PLAIN");
+		this.tfUsername.setText("");
+		this.tfPassword.setText("");
+
 		//Server settings
 		this.tfHostname.setText("127.0.0.1");
 		this.tfPort.setText("110");
@@ -162,6 +194,7 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		this.cbUseSSL.setSelected(false);
 //		this.cbUseSTARTTLS.setSelected(false);
 		this.cbTcpNoDelay.setSelected(true);
+		this.cbUsePool.setSelected(false);
 	}
 	private void init() {
 		setLayout(new BorderLayout(0, 5));
@@ -209,6 +242,17 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		taCommand.setLineWrap(true);
 		taCommand.setWrapStyleWord(true);
 
+		jpAuthPanel = new JPanel(new GridBagLayout());
+		jpAuthPanel.setBorder(BorderFactory.createTitledBorder(
+				BorderFactory.createEtchedBorder(),
+				"Authentication")); // $NON-NLS-1$
+		addToPanel(jpAuthPanel, labelConstraints, 0, 0, new JLabel("Mechanism: ", JLabel.LEFT));
+		addToPanel(jpAuthPanel, editConstraints, 1, 0, cbAuthMechanism = new JComboBox(Sasl.MECHANISMS));
+		addToPanel(jpAuthPanel, labelConstraints, 0, 1, new JLabel("Username: ", JLabel.LEFT));
+		addToPanel(jpAuthPanel, editConstraints, 1, 1, tfUsername = new JTextField(20));
+		addToPanel(jpAuthPanel, labelConstraints, 0, 2, new JLabel("Password or Token: ", JLabel.LEFT));
+		addToPanel(jpAuthPanel, editConstraints, 1, 2, tfPassword = new JPasswordField(20));
+
 		jpServerPanel = new JPanel(new GridBagLayout());
 		jpServerPanel.setBorder(BorderFactory.createTitledBorder(
 				BorderFactory.createEtchedBorder(),
@@ -220,6 +264,7 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		addToPanel(jpServerPanel, editConstraints, 3, 0, tfPort = new JTextField(5));
 		addToPanel(jpServerPanel, editConstraints, 3, 1, cbUseSSL = new JCheckBox("SSL"));
 		addToPanel(jpServerPanel, editConstraints, 3, 2, cbTcpNoDelay = new JCheckBox("TCP_NODELAY"));
+		addToPanel(jpServerPanel, editConstraints, 3, 3, cbUsePool = new JCheckBox("Pooled"));
 //		addToPanel(jpServerPanel, editConstraints, 3, 3, cbUseSTARTTLS = new JCheckBox("STARTTLS"));
 //		addToPanel(jpServerPanel, labelConstraints, 0, 1, new JLabel("Default Timeout: ", JLabel.LEFT));
 //		addToPanel(jpServerPanel, editConstraints, 1, 1, tfDefaultTimeout = new JTextField(5));
@@ -232,7 +277,8 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		addToPanel(mainPanel, editConstraints, 0, 0, jpHeaderPanel);
 		addToPanel(mainPanel, editConstraints, 0, 1, jpGeneralPanel);
 		addToPanel(mainPanel, editConstraints, 0, 2, jpCommandPanel);
-		addToPanel(mainPanel, editConstraints, 0, 3, jpServerPanel);
+		addToPanel(mainPanel, editConstraints, 0, 3, jpAuthPanel);
+		addToPanel(mainPanel, editConstraints, 0, 4, jpServerPanel);
 
 		JPanel container = new JPanel(new BorderLayout());
 		container.add(makeTitlePanel(), BorderLayout.NORTH);
@@ -251,6 +297,13 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		cbAdditionalReply.setEnabled(enabled);
 	}
 
+	private void setEnabledAuthPanel(boolean enabled) {
+		jpAuthPanel.setEnabled(enabled);
+		cbAuthMechanism.setEnabled(enabled);
+		tfUsername.setEnabled(enabled);
+		tfPassword.setEnabled(enabled);
+	}
+
 	private void setEnabledServerPanel(boolean enabled) {
 		jpServerPanel.setEnabled(enabled);
 		tfHostname.setEnabled(enabled);
@@ -260,5 +313,6 @@ public class POP3SamplerGUI extends AbstractSamplerGui {
 		cbUseSSL.setEnabled(enabled);
 //		cbUseSTARTTLS.setEnabled(enabled);
 		cbTcpNoDelay.setEnabled(enabled);
+		cbUsePool.setEnabled(enabled);
 	}
 }
\ No newline at end of file
@@ -17,11 +17,17 @@
  */
 package me.schiz.jmeter.protocol.pop3.sampler;
 
+import me.schiz.jmeter.protocol.Session;
+import me.schiz.jmeter.protocol.SessionPool;
 import me.schiz.jmeter.protocol.SessionStorage;
+import me.schiz.jmeter.protocol.net.Sasl;
+import me.schiz.jmeter.protocol.net.SaslMechanism;
+import me.schiz.jmeter.protocol.net.SessionClient;
+import me.schiz.jmeter.protocol.net.WireTrace;
+import me.schiz.jmeter.protocol.pop3.client.POP3SessionClient;
 import org.apache.commons.net.SocketClient;
 import org.apache.commons.net.pop3.POP3Client;
 import org.apache.commons.net.pop3.POP3Reply;
-import org.apache.commons.net.pop3.POP3SClient;
 import org.apache.jmeter.samplers.AbstractSampler;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
@@ -38,8 +44,6 @@ import java.util.LinkedList;
  * low-level POP3 Sampler based on Apache Commons Net
  */
 public class POP3Sampler extends AbstractSampler{
-	//TODO: Support SSL (execTLS)
-	//TODO: Support STARTTLS (execTLS)
 	//TODO: use String for all jmeter fields
 
 	private static final Logger log = LoggingManager.getLoggerForClass();
@@ -54,6 +58,10 @@ public class POP3Sampler extends AbstractSampler{
 	public static final String CONNECTION_TIMEOUT = "POP3Sampler.connection_timeout";
 	public static final String USE_SSL = "POP3Sampler.use_ssl";
 	public static final String TCP_NODELAY = "POP3Sampler.tcp_nodelay";
+	public static final String USE_POOL = "POP3Sampler.use_pool";
+	public static final String AUTH_MECHANISM = "POP3Sampler.auth_mechanism";
+	public static final String USERNAME = "POP3Sampler.username";
+	public static final String PASSWORD = "POP3Sampler.password";
 
 
 	private final static String RC_200 = "200";
@@ -70,6 +78,8 @@ public class POP3Sampler extends AbstractSampler{
 		operations.push("DISCONNECT");
 		operations.push("NOOP");
 		operations.push("COMMAND");
+		operations.push("AUTH");
+		operations.push("STARTTLS");
 		operations.push("RSET");
 		operations.push("CONNECT");
 	}
@@ -137,35 +147,109 @@ public class POP3Sampler extends AbstractSampler{
 	public void setAdditionalReply(boolean use) {
 		setProperty(ADDITIONAL_REPLY, use);
 	}
+	public boolean getUsePool() {
+		return getPropertyAsBoolean(USE_POOL);
+	}
+	public void setUsePool(boolean use) {
+		setProperty(USE_POOL, use);
+	}
+	/**
+	 * @return SASL mechanism of AUTH, one of {@link Sasl#MECHANISMS}
+	 */
+	public String getAuthMechanism() {
+		return getPropertyAsString(AUTH_MECHANISM, Sasl.PLAIN);
+	}
+	public void setAuthMechanism(String mechanism) {
+		setProperty(AUTH_MECHANISM, mechanism);
+	}
+	public String getUsername() {
+		return getPropertyAsString(USERNAME);
+	}
+	public void setUsername(String username) {
+		setProperty(USERNAME, username);
+	}
+	public String getPassword() {
+		return getPropertyAsString(PASSWORD);
+	}
+	public void setPassword(String password) {
+		setProperty(PASSWORD, password);
+	}
+	public SessionStorage.proto_type getProtoType() {
+		return getUseSSL() ? SessionStorage.proto_type.SSL : SessionStorage.proto_type.PLAIN;
+	}
 	@Override
 	public SampleResult sample(Entry e) {
 		SampleResult sr = new SampleResult();
 
 		sr.setSampleLabel(getName());
 
+		SessionClient before = getSessionClient();
+		if(before != null) before.getStats().mark();
+		// SessionKeeper doesn't reap session in the middle of sample
+		Session session = SessionStorage.getInstance().getSession(getSOClient());
+		boolean acquired = session != null && session.acquire();
+		try {
+			sampleOperation(sr);
+		} finally {
+			if(acquired) session.release();
+		}
+		// CONNECT attaches new client, DISCONNECT removes it
+		SessionClient after = getSessionClient();
+		if(after != null) after.getStats().reportBytes(sr);
+		else if(before != null) before.getStats().reportBytes(sr);
+		return sr;
+	}
+
+	private SampleResult sampleOperation(SampleResult sr) {
 		if(getOperation().equals("CONNECT"))    return sampleConnect(sr);
 		if(getOperation().equals("DISCONNECT"))    return sampleDisconnect(sr);
 		if(getOperation().equals("NOOP"))   return sampleNoop(sr);
 		if(getOperation().equals("RSET"))   return sampleReset(sr);
 		if(getOperation().equals("COMMAND"))    return sampleCommand(sr);
+		if(getOperation().equals("AUTH"))    return sampleAuth(sr);
+		if(getOperation().equals("STARTTLS"))    return sampleStartTls(sr);
 
 		return sr;
 	}
 
-	private SampleResult sampleConnect(SampleResult sr) {
-		POP3Client client;
+	private SessionClient getSessionClient() {
+		SocketClient client = SessionStorage.getInstance().getClient(getSOClient());
+		if(client instanceof SessionClient) return (SessionClient) client;
+		return null;
+	}
 
-		if(getUseSSL()) {
-			client = new POP3SClient(true);
-//		} else if(getUseSTARTTLS()) {
-//			client = new POP3SClient(false);
-		} else {
-			client = new POP3Client();
-		}
+	/**
+	 * Connector with snapshot of server settings, pool may call it from own thread
+	 */
+	private SessionPool.Connector getConnector() {
+		final boolean useSSL = getUseSSL();
+		final String hostname = getHostname();
+		final int port = getPort();
+		final int connectionTimeout = getConnectionTimeout();
+		final int soTimeout = getSoTimeout();
+		final boolean tcpNoDelay = getTcpNoDelay();
+		return new SessionPool.Connector() {
+			@Override
+			public POP3Client connect() throws IOException {
+				POP3Client client = new POP3SessionClient(useSSL);
+				WireTrace.getInstance().attach(client, "pop3://" + hostname + ":" + port);
+				client.setConnectTimeout(connectionTimeout);
+				client.connect(hostname, port);
+				if(client.isConnected()) {
+					client.setSoTimeout(soTimeout);
+					client.setTcpNoDelay(tcpNoDelay);
+				}
+				return client;
+			}
+		};
+	}
+
+	private SampleResult sampleConnect(SampleResult sr) {
+		if(getUsePool()) return samplePooledConnect(sr);
 
 		StringBuilder requestBuilder = new StringBuilder();
+		SessionClient connected = null;
 		try {
-			//String request = "CONNECT \n";
 			requestBuilder.append("CONNECT\n");
 			requestBuilder.append("Host : " + getHostname() + ":" + getPort() + "\n");
 			requestBuilder.append("Connect Timeout: " + getConnectionTimeout() + "\n");
@@ -173,25 +257,16 @@ public class POP3Sampler extends AbstractSampler{
 			requestBuilder.append("Client : " + getClient() + "\n");
 			if(getUseSSL()) requestBuilder.append("SSL : true\n");
 			else requestBuilder.append("SSL : false\n");
-//			if(getUseSTARTTLS())    request += "STARTTLS : true\n";
-//			else request += "STARTTLS : false\n";
 
 			sr.setRequestHeaders(requestBuilder.toString());
 			sr.sampleStart();
-			client.setConnectTimeout(getConnectionTimeout());
-			client.connect(getHostname(), getPort());
+			POP3Client client = (POP3Client) getConnector().connect();
 			if(client.isConnected()) {
-				SessionStorage.proto_type protoType = SessionStorage.proto_type.PLAIN;
-				if(getUseSSL())	protoType = SessionStorage.proto_type.SSL;
-//				if(getUseSSL() && !getUseSTARTTLS()) protoType = SessionStorage.proto_type.SSL;
-//				if(!getUseSSL() && getUseSTARTTLS()) protoType = SessionStorage.proto_type.STARTTLS;
-
-				SessionStorage.getInstance().putClient(getSOClient(), client, protoType);
-				client.setSoTimeout(getSoTimeout());
-				client.setTcpNoDelay(getTcpNoDelay());
+				SessionStorage.getInstance().putClient(getSOClient(), client, getProtoType());
 				sr.setResponseCode(RC_200);
 				sr.setResponseData(client.getReplyString().getBytes());
 				sr.setSuccessful(true);
+				connected = (SessionClient) client;
 			} else {
 				sr.setResponseCode(RC_500);
 				sr.setSuccessful(false);
@@ -200,26 +275,64 @@ public class POP3Sampler extends AbstractSampler{
 			sr.setResponseMessage(se.toString());
 			sr.setSuccessful(false);
 			sr.setResponseCode(se.getClass().getName());
-			log.error("client `" + client + "` ", se);
+			log.error("client `" + getClient() + "` ", se);
 		} catch (IOException ioe) {
 			sr.setResponseMessage(ioe.toString());
 			sr.setSuccessful(false);
 			sr.setResponseCode(ioe.getClass().getName());
-			log.error("client `" + client + "` ", ioe);
+			log.error("client `" + getClient() + "` ", ioe);
+		}
+		sr.sampleEnd();
+		if(connected != null) connected.getStats().reportConnect(sr);
+		return sr;
+	}
+	private SampleResult samplePooledConnect(SampleResult sr) {
+		SessionPool.Key key = new SessionPool.Key(SessionStorage.PROTOCOL.POP3, getHostname(), getPort(), getProtoType());
+		StringBuilder requestBuilder = new StringBuilder();
+		requestBuilder.append("CONNECT (pooled)\n");
+		requestBuilder.append("Pool : " + key + "\n");
+		requestBuilder.append("Client : " + getClient() + "\n");
+		sr.setRequestHeaders(requestBuilder.toString());
+		sr.sampleStart();
+		try {
+			Session session = SessionStorage.getInstance().getPool().borrow(key, null, getConnector());
+			SessionStorage.getInstance().putSession(getSOClient(), session);
+			sr.setResponseCode(RC_200);
+			sr.setResponseData(((POP3Client) session.getClient()).getReplyString().getBytes());
+			sr.setSuccessful(true);
+		} catch (IOException ioe) {
+			sr.setResponseMessage(ioe.toString());
+			sr.setSuccessful(false);
+			sr.setResponseCode(ioe.getClass().getName());
+			log.error("client `" + getClient() + "` ", ioe);
 		}
 		sr.sampleEnd();
 		return sr;
 	}
 	private SampleResult sampleDisconnect(SampleResult sr) {
-		SocketClient soclient = SessionStorage.getInstance().getClient( getSOClient());
+		// keeper and reaper may remove session meanwhile, so it is looked up once
+		Session session = SessionStorage.getInstance().getSession(getSOClient());
 		POP3Client client = null;
-		if(soclient instanceof POP3Client) client = (POP3Client) soclient;
+		if(session != null && session.getClient() instanceof POP3Client) client = (POP3Client) session.getClient();
 
 		String request = "DISCONNECT\n";
 		request += "Client : " + getClient() + "\n";
 		sr.setRequestHeaders(request);
 		if(client == null) {
 			clientNotFound(sr);
+		} else if(session.isPooled()) {
+			sr.sampleStart();
+			if(SessionStorage.getInstance().releaseClient(getSOClient())) {
+				sr.setResponseCode(RC_200);
+				sr.setResponseMessage("returned to pool");
+				sr.setSuccessful(true);
+			} else {
+				// closed by SessionKeeper meanwhile
+				sr.setResponseCode(RC_404);
+				sr.setResponseMessage("already closed");
+				sr.setSuccessful(false);
+			}
+			sr.sampleEnd();
 		} else {
 			synchronized(client) {
 				sr.sampleStart();
@@ -306,6 +419,11 @@ public class POP3Sampler extends AbstractSampler{
 								client.sendCommand(command)
 							);
 					if(getAdditionalReply())    client.getAdditionalReply();
+					// USER/PASS or APOP sent as commands, pool must know who is logged in
+					Session session = SessionStorage.getInstance().getSession(getSOClient());
+					if(session != null && client instanceof POP3SessionClient && ((POP3SessionClient) client).getLogin() != null) {
+						session.setAuthenticated(((POP3SessionClient) client).getLogin());
+					}
 					setSuccessfulByResponseCode(sr, responseCode);
 					setResponse(sr, client.getReplyStrings());
 				} catch (IOException e) {
@@ -320,6 +438,103 @@ public class POP3Sampler extends AbstractSampler{
 		}
 		return sr;
 	}
+	/**
+	 * SASL authentication (RFC 5034), SCRAM salted passwords are cached per account
+	 */
+	private SampleResult sampleAuth(SampleResult sr) {
+		SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+		POP3SessionClient client = null;
+		if(soclient instanceof POP3SessionClient) client = (POP3SessionClient) soclient;
+
+		String request = "AUTH\n";
+		request += "Client : " + getClient() + "\n";
+		request += "Mechanism : " + getAuthMechanism() + "\n";
+		request += "Username : " + getUsername() + "\n";
+		sr.setRequestHeaders(request);
+		if(client == null) {
+			clientNotFound(sr);
+			return sr;
+		}
+		SaslMechanism mechanism;
+		try {
+			mechanism = Sasl.mechanism(getAuthMechanism(), getUsername(), getPassword());
+		} catch (IllegalArgumentException e) {
+			sr.sampleStart();
+			sr.setSuccessful(false);
+			sr.setResponseCode(e.getClass().getName());
+			sr.setResponseMessage(e.getMessage());
+			sr.sampleEnd();
+			return sr;
+		}
+		synchronized(client) {
+			sr.sampleStart();
+			try {
+				boolean accepted = client.auth(mechanism);
+				String error = mechanism.getError(accepted);
+				boolean success = accepted && error == null;
+				Session session = SessionStorage.getInstance().getSession(getSOClient());
+				if(success && session != null) session.setAuthenticated(getUsername());
+				sr.setSuccessful(success);
+				sr.setResponseCode(success ? RC_200 : RC_500);
+				if(error != null) sr.setResponseMessage(error);
+				setResponse(sr, client.getReplyStrings());
+			} catch (IOException e) {
+				sr.setSuccessful(false);
+				sr.setResponseData(e.toString().getBytes());
+				sr.setResponseCode(e.getClass().getName());
+				log.error("client `" + client + "` ", e);
+				removeClient();
+			}
+			sr.sampleEnd();
+		}
+		mechanism.report(sr);
+		return sr;
+	}
+	/**
+	 * Upgrades stored session to TLS (RFC 2595), sub-results split STLS round-trip and TLS handshake
+	 */
+	private SampleResult sampleStartTls(SampleResult sr) {
+		SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+		POP3SessionClient client = null;
+		if(soclient instanceof POP3SessionClient) client = (POP3SessionClient) soclient;
+
+		String request = "STLS\n";
+		request += "Client : " + getClient() + "\n";
+		sr.setRequestHeaders(request);
+		if(client == null) {
+			clientNotFound(sr);
+			return sr;
+		}
+		int handshakes;
+		synchronized(client) {
+			handshakes = client.getStats().getHandshakes();
+			sr.sampleStart();
+			if(client.isSecure()) {
+				sr.setSuccessful(false);
+				sr.setResponseCode(RC_500);
+				sr.setResponseMessage("connection is already secure");
+				sr.sampleEnd();
+				return sr;
+			}
+			try {
+				boolean upgraded = client.execTLS();
+				Session session = SessionStorage.getInstance().getSession(getSOClient());
+				if(upgraded && session != null) session.setType(SessionStorage.proto_type.STARTTLS);
+				sr.setSuccessful(upgraded);
+				sr.setResponseCode(upgraded ? RC_200 : RC_500);
+				setResponse(sr, client.getReplyStrings());
+			} catch (IOException e) {
+				sr.setSuccessful(false);
+				sr.setResponseData(e.toString().getBytes());
+				sr.setResponseCode(e.getClass().getName());
+				log.error("client `" + client + "` ", e);
+				removeClient();
+			}
+			sr.sampleEnd();
+		}
+		client.getStats().reportUpgrade(sr, "STLS", handshakes);
+		return sr;
+	}
 	private SampleResult sampleReset(SampleResult sr) {
 		SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
 		POP3Client client = null;
@@ -380,10 +595,14 @@ public class POP3Sampler extends AbstractSampler{
 		sr.sampleEnd();
 	}
 	private void removeClient() {
-		try {
-			SessionStorage.getInstance().getClient(getSOClient()).disconnect();
-		} catch (IOException e) {
-			log.warn("Cannot disconnect client `" + getSOClient() + "` " , e);
+		// SessionKeeper may have removed session meanwhile
+		SocketClient client = SessionStorage.getInstance().getClient(getSOClient());
+		if(client != null) {
+			try {
+				client.disconnect();
+			} catch (IOException e) {
+				log.warn("Cannot disconnect client `" + getSOClient() + "` " , e);
+			}
 		}
 		SessionStorage.getInstance().removeClient(getSOClient());
 		log.warn("session `" + getClient() + "` removed from pool");
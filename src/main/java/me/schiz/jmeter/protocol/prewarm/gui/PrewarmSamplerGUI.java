@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.prewarm.gui;
+
+import me.schiz.jmeter.protocol.prewarm.sampler.PrewarmSampler;
+import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
+import org.apache.jmeter.testelement.TestElement;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * GUI for parallel session pre-warm
+ */
+public class PrewarmSamplerGUI extends AbstractSamplerGui {
+    private static final long serialVersionUID = 8121640551183315541L;
+    private JTextField      tfName;
+    private JTextField      tfComments;
+
+    //General panel
+    private JComboBox       cbProtocol;
+    private JTextField      tfClientPrefix;
+    private JTextField      tfFirstIndex;
+    private JTextField      tfCount;
+    private JTextField      tfThreads;
+
+    //Server settings
+    private JTextField      tfHostname;
+    private JTextField      tfPort;
+    private JTextField      tfDefaultTimeout;
+    private JTextField      tfSoTimeout;
+    private JTextField      tfConnectionTimeout;
+    private JCheckBox       cbUseSSL;
+    private JCheckBox       cbTcpNoDelay;
+
+    //Client settings
+    private JCheckBox       cbLogin;
+    private JTextField      tfClientName;
+    private JTextField      tfClientPassword;
+
+    public PrewarmSamplerGUI() {
+        super();
+        init();
+        initFields();
+    }
+
+    public String getStaticLabel() {
+        return "Mail Sessions Pre-warm";
+    }
+
+    public String getStaticLabelResource() {
+        return getStaticLabel();
+    }
+
+    @Override
+    public TestElement createTestElement() {
+        PrewarmSampler sampler = new PrewarmSampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    public void configure(TestElement te) {
+        super.configure(te);
+        if(te instanceof PrewarmSampler) {
+            PrewarmSampler cs = (PrewarmSampler)te;
+            this.tfName.setText(cs.getName());
+            this.tfComments.setText(cs.getComment());
+
+            //General panel
+            this.cbProtocol.setSelectedItem(cs.getProtocol());
+            this.tfClientPrefix.setText(cs.getClientPrefix());
+            this.tfFirstIndex.setText(String.valueOf(cs.getFirstIndex()));
+            this.tfCount.setText(String.valueOf(cs.getCount()));
+            this.tfThreads.setText(String.valueOf(cs.getThreads()));
+
+            //Server settings
+            this.tfHostname.setText(cs.getHostname());
+            this.tfPort.setText(String.valueOf(cs.getPort()));
+            this.tfDefaultTimeout.setText(String.valueOf(cs.getDefaultTimeout()));
+            this.tfSoTimeout.setText(String.valueOf(cs.getSoTimeout()));
+            this.tfConnectionTimeout.setText(String.valueOf(cs.getConnectionTimeout()));
+            this.cbUseSSL.setSelected(cs.getUseSSL());
+            this.cbTcpNoDelay.setSelected(cs.getTcpNoDelay());
+
+            //Client settings
+            this.cbLogin.setSelected(cs.getLogin());
+            this.tfClientName.setText(cs.getClientName());
+            this.tfClientPassword.setText(cs.getClientPassword());
+        }
+    }
+
+    @Override
+    public void modifyTestElement(TestElement sampler) {
+        super.configureTestElement(sampler);
+        if (sampler instanceof PrewarmSampler) {
+            PrewarmSampler s = (PrewarmSampler) sampler;
+            s.setName(tfName.getText());
+            s.setComment(tfComments.getText());
+
+            //General panel
+            s.setProtocol((String) cbProtocol.getSelectedItem());
+            s.setClientPrefix(tfClientPrefix.getText());
+            s.setFirstIndex(Integer.parseInt(tfFirstIndex.getText()));
+            s.setCount(Integer.parseInt(tfCount.getText()));
+            s.setThreads(Integer.parseInt(tfThreads.getText()));
+
+            //Server settings
+            s.setHostname(tfHostname.getText());
+            s.setPort(Integer.parseInt(tfPort.getText()));
+            s.setDefaultTimeout(Integer.parseInt(tfDefaultTimeout.getText()));
+            s.setSoTimeout(Integer.parseInt(tfSoTimeout.getText()));
+            s.setConnectionTimeout(Integer.parseInt(tfConnectionTimeout.getText()));
+            s.setUseSSL(cbUseSSL.isSelected());
+            s.setTcpNoDelay(cbTcpNoDelay.isSelected());
+
+            //Client settings
+            s.setLogin(cbLogin.isSelected());
+            s.setClientName(tfClientName.getText());
+            s.setClientPassword(tfClientPassword.getText());
+        }
+    }
+    private void initFields() {
+        this.tfName.setText("Mail Sessions Pre-warm");
+        this.tfComments.setText("");
+
+        //General panel
+        this.cbProtocol.setSelectedItem("IMAP");
+        this.tfClientPrefix.setText("");
+        this.tfFirstIndex.setText("1");
+        this.tfCount.setText("100");
+        this.tfThreads.setText("16");
+
+        //Server settings
+        this.tfHostname.setText("127.0.0.1");
+        this.tfPort.setText("143");
+        this.tfDefaultTimeout.setText("2000");
+        this.tfConnectionTimeout.setText("1000");
+        this.tfSoTimeout.setText("2000");
+        this.cbUseSSL.setSelected(false);
+        this.cbTcpNoDelay.setSelected(true);
+
+        //Client settings
+        this.cbLogin.setSelected(false);
+        this.tfClientName.setText("user%d@example.com");
+        this.tfClientPassword.setText("SexyPassord");
+    }
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        JPanel mainPanel = new JPanel(new GridBagLayout());
+
+        GridBagConstraints labelConstraints = new GridBagConstraints();
+        labelConstraints.anchor = GridBagConstraints.FIRST_LINE_END;
+
+        GridBagConstraints editConstraints = new GridBagConstraints();
+        editConstraints.anchor = GridBagConstraints.FIRST_LINE_START;
+        editConstraints.weightx = 1.0;
+        editConstraints.fill = GridBagConstraints.HORIZONTAL;
+
+        editConstraints.insets = new java.awt.Insets(2, 0, 0, 0);
+        labelConstraints.insets = new java.awt.Insets(2, 0, 0, 0);
+
+        JPanel jpHeaderPanel = new JPanel(new GridBagLayout());
+        addToPanel(jpHeaderPanel, labelConstraints, 0, 0, new JLabel("Name: ", JLabel.LEFT));
+        addToPanel(jpHeaderPanel, editConstraints, 1, 0, tfName = new JTextField(20));
+        addToPanel(jpHeaderPanel, labelConstraints, 0, 1, new JLabel("Comments: ", JLabel.LEFT));
+        addToPanel(jpHeaderPanel, editConstraints, 1, 1, tfComments = new JTextField(20));
+
+        JPanel jpGeneralPanel = new JPanel(new GridBagLayout());
+        jpGeneralPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Sessions")); // $NON-NLS-1$
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 0, new JLabel("Protocol: ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 0, cbProtocol = new JComboBox(PrewarmSampler.protocols.toArray(new String[]{})));
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 1, new JLabel("Client Prefix: ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 1, tfClientPrefix = new JTextField(16));
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 2, new JLabel("First Index: ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 2, tfFirstIndex = new JTextField(5));
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 3, new JLabel("Count: ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 3, tfCount = new JTextField(5));
+        addToPanel(jpGeneralPanel, labelConstraints, 0, 4, new JLabel("Threads: ", JLabel.RIGHT));
+        addToPanel(jpGeneralPanel, editConstraints, 1, 4, tfThreads = new JTextField(5));
+
+        JPanel jpServerPanel = new JPanel(new GridBagLayout());
+        jpServerPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Server Settings")); // $NON-NLS-1$
+        addToPanel(jpServerPanel, labelConstraints, 0, 0, new JLabel("Server: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 0, tfHostname = new JTextField(20));
+        addToPanel(jpServerPanel, labelConstraints, 2, 0, new JLabel("Port: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 3, 0, tfPort = new JTextField(5));
+        addToPanel(jpServerPanel, editConstraints, 3, 1, cbUseSSL = new JCheckBox("SSL"));
+        addToPanel(jpServerPanel, editConstraints, 3, 2, cbTcpNoDelay = new JCheckBox("TCP_NODELAY"));
+        addToPanel(jpServerPanel, labelConstraints, 0, 1, new JLabel("Default Timeout: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 1, tfDefaultTimeout = new JTextField(5));
+        addToPanel(jpServerPanel, labelConstraints, 0, 2, new JLabel("Socket Timeout: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 2, tfSoTimeout = new JTextField(5));
+        addToPanel(jpServerPanel, labelConstraints, 0, 3, new JLabel("Connection Timeout: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 3, tfConnectionTimeout = new JTextField(5));
+
+        JPanel jpClientPanel = new JPanel(new GridBagLayout());
+        jpClientPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Client Settings (IMAP, POP3)")); // $NON-NLS-1$
+        addToPanel(jpClientPanel, editConstraints, 0, 0, cbLogin = new JCheckBox("Login"));
+        addToPanel(jpClientPanel, labelConstraints, 0, 1, new JLabel("User (%d - index): ", JLabel.LEFT));
+        addToPanel(jpClientPanel, editConstraints, 1, 1, tfClientName = new JTextField(16));
+        addToPanel(jpClientPanel, labelConstraints, 2, 1, new JLabel("Password: ", JLabel.LEFT));
+        addToPanel(jpClientPanel, editConstraints, 3, 1, tfClientPassword = new JTextField(16));
+
+        // Compilation panels
+        addToPanel(mainPanel, editConstraints, 0, 0, jpHeaderPanel);
+        addToPanel(mainPanel, editConstraints, 0, 1, jpGeneralPanel);
+        addToPanel(mainPanel, editConstraints, 0, 2, jpServerPanel);
+        addToPanel(mainPanel, editConstraints, 0, 3, jpClientPanel);
+
+        JPanel container = new JPanel(new BorderLayout());
+        container.add(mainPanel, BorderLayout.NORTH);
+        add(container, BorderLayout.CENTER);
+    }
+    private void addToPanel(JPanel panel, GridBagConstraints constraints, int col, int row, JComponent component) {
+        constraints.gridx = col;
+        constraints.gridy = row;
+        panel.add(component, constraints);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.prewarm.sampler;
+
+import me.schiz.jmeter.protocol.SessionStorage;
+import me.schiz.jmeter.protocol.imap.sampler.IMAPSampler;
+import me.schiz.jmeter.protocol.pop3.sampler.POP3Sampler;
+import me.schiz.jmeter.protocol.smtp.sampler.SMTPSampler;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Opens (and optionally logs in) many sessions in parallel before the load starts.
+ * Sessions are stored under names prefix + index, so IMAP/POP3/SMTP samplers
+ * with client `${__threadNum}` find them. Intended for setUp Thread Group.
+ */
+public class PrewarmSampler extends AbstractSampler {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final long serialVersionUID = -4400466270542331593L;
+
+    private static final String RC_500 = "500";
+
+    public static final String PROTOCOL = "PrewarmSampler.protocol";
+    public static final String CLIENT_PREFIX = "PrewarmSampler.client_prefix";
+    public static final String FIRST_INDEX = "PrewarmSampler.first_index";
+    public static final String COUNT = "PrewarmSampler.count";
+    public static final String THREADS = "PrewarmSampler.threads";
+    public static final String HOSTNAME = "PrewarmSampler.hostname";
+    public static final String PORT = "PrewarmSampler.port";
+    public static final String DEFAULT_TIMEOUT = "PrewarmSampler.default_timeout";
+    public static final String SO_TIMEOUT = "PrewarmSampler.so_timeout";
+    public static final String CONNECTION_TIMEOUT = "PrewarmSampler.connection_timeout";
+    public static final String USE_SSL = "PrewarmSampler.use_ssl";
+    public static final String TCP_NODELAY = "PrewarmSampler.tcp_nodelay";
+    public static final String LOGIN = "PrewarmSampler.login";
+    public static final String CLIENT_NAME = "PrewarmSampler.client_name";
+    public static final String CLIENT_PASSWORD = "PrewarmSampler.client_password";
+
+    public static final LinkedList<String> protocols = new LinkedList<String>();
+
+    static {
+        for(SessionStorage.PROTOCOL p : SessionStorage.PROTOCOL.values()) {
+            protocols.add(p.name());
+        }
+    }
+
+    public String getProtocol() {
+        return getPropertyAsString(PROTOCOL);
+    }
+    public void setProtocol(String protocol) {
+        setProperty(PROTOCOL, protocol);
+    }
+    public String getClientPrefix() {
+        return getPropertyAsString(CLIENT_PREFIX);
+    }
+    public void setClientPrefix(String prefix) {
+        setProperty(CLIENT_PREFIX, prefix);
+    }
+    public int getFirstIndex() {
+        return getPropertyAsInt(FIRST_INDEX);
+    }
+    public void setFirstIndex(int index) {
+        setProperty(FIRST_INDEX, index);
+    }
+    public int getCount() {
+        return getPropertyAsInt(COUNT);
+    }
+    public void setCount(int count) {
+        setProperty(COUNT, count);
+    }
+    public int getThreads() {
+        return getPropertyAsInt(THREADS);
+    }
+    public void setThreads(int threads) {
+        setProperty(THREADS, threads);
+    }
+    public String getHostname() {
+        return getPropertyAsString(HOSTNAME);
+    }
+    public void setHostname(String hostname) {
+        setProperty(HOSTNAME, hostname);
+    }
+    public int getPort() {
+        return getPropertyAsInt(PORT);
+    }
+    public void setPort(int port) {
+        setProperty(PORT, port);
+    }
+    public int getDefaultTimeout() {
+        return getPropertyAsInt(DEFAULT_TIMEOUT);
+    }
+    public void setDefaultTimeout(int defaultTimeout) {
+        setProperty(DEFAULT_TIMEOUT, defaultTimeout);
+    }
+    public int getSoTimeout() {
+        return getPropertyAsInt(SO_TIMEOUT);
+    }
+    public void setSoTimeout(int soTimeout) {
+        setProperty(SO_TIMEOUT, soTimeout);
+    }
+    public int getConnectionTimeout() {
+        return getPropertyAsInt(CONNECTION_TIMEOUT);
+    }
+    public void setConnectionTimeout(int connectionTimeout) {
+        setProperty(CONNECTION_TIMEOUT, connectionTimeout);
+    }
+    public boolean getUseSSL() {
+        return getPropertyAsBoolean(USE_SSL);
+    }
+    public void setUseSSL(boolean use) {
+        setProperty(USE_SSL, use);
+    }
+    public boolean getTcpNoDelay() {
+        return getPropertyAsBoolean(TCP_NODELAY);
+    }
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        setProperty(TCP_NODELAY, tcpNoDelay);
+    }
+    public boolean getLogin() {
+        return getPropertyAsBoolean(LOGIN);
+    }
+    public void setLogin(boolean login) {
+        setProperty(LOGIN, login);
+    }
+    /**
+     * @return user name, `%d` is replaced by session index
+     */
+    public String getClientName() {
+        return getPropertyAsString(CLIENT_NAME);
+    }
+    public void setClientName(String clientName) {
+        setProperty(CLIENT_NAME, clientName);
+    }
+    public String getClientPassword() {
+        return getPropertyAsString(CLIENT_PASSWORD);
+    }
+    public void setClientPassword(String clientPassword) {
+        setProperty(CLIENT_PASSWORD, clientPassword);
+    }
+
+    @Override
+    public SampleResult sample(Entry e) {
+        SampleResult sr = new SampleResult();
+        sr.setSampleLabel(getName());
+
+        final SessionStorage.PROTOCOL protocol = SessionStorage.PROTOCOL.valueOf(getProtocol());
+        int count = getCount();
+        int first = getFirstIndex();
+
+        String request = "PREWARM\n";
+        request += "Protocol : " + protocol + "\n";
+        request += "Host : " + getHostname() + ":" + getPort() + "\n";
+        request += "Clients : " + getClientPrefix() + first + " .. " + getClientPrefix() + (first + count - 1) + "\n";
+        request += "Threads : " + getThreads() + "\n";
+        if(getLogin()) request += "Client Name : " + getClientName() + "\n";
+        sr.setRequestHeaders(request);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(getThreads(), 1));
+        List<Future<SampleResult>> futures = new ArrayList<Future<SampleResult>>(count);
+        int opened = 0;
+        int failed = 0;
+        sr.sampleStart();
+        try {
+            for(int i = first; i < first + count; ++i) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<SampleResult>() {
+                    @Override
+                    public SampleResult call() {
+                        return prewarm(protocol, index);
+                    }
+                }));
+            }
+            for(Future<SampleResult> future : futures) {
+                SampleResult result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException ee) {
+                    result = new SampleResult();
+                    result.setSampleLabel(getName());
+                    result.setSuccessful(false);
+                    result.setResponseCode(ee.getCause().getClass().getName());
+                    result.setResponseMessage(ee.getCause().toString());
+                    log.error("prewarm failed", ee.getCause());
+                }
+                if(result.isSuccessful()) {
+                    opened++;
+                } else {
+                    failed++;
+                    sr.addSubResult(result);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.warn("prewarm interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+        sr.sampleEnd();
+
+        sr.setSuccessful(failed == 0 && opened == count);
+        if(sr.isSuccessful()) sr.setResponseCodeOK();
+        else sr.setResponseCode(RC_500);
+        sr.setResponseMessage(opened + " opened, " + failed + " failed");
+        sr.setResponseData((protocol + " sessions opened: " + opened + "/" + count
+                + ", failed: " + failed + ", duration: " + sr.getTime() + "ms").getBytes());
+        log.info(getName() + ": " + protocol + " " + opened + "/" + count + " sessions opened in " + sr.getTime() + "ms");
+        return sr;
+    }
+
+    private SampleResult prewarm(SessionStorage.PROTOCOL protocol, int index) {
+        String client = getClientPrefix() + index;
+        String user = getClientName().replace("%d", String.valueOf(index));
+        SampleResult result;
+        switch(protocol) {
+            case IMAP:
+                IMAPSampler imap = new IMAPSampler();
+                imap.setName(getName() + " " + client);
+                imap.setClient(client);
+                imap.setOperation("CONNECT");
+                imap.setHostname(getHostname());
+                imap.setPort(getPort());
+                imap.setLocalAddr("");
+                imap.setDefaultTimeout(getDefaultTimeout());
+                imap.setConnectionTimeout(getConnectionTimeout());
+                imap.setSoTimeout(getSoTimeout());
+                imap.setUseSSL(getUseSSL());
+                imap.setTcpNoDelay(getTcpNoDelay());
+                imap.setClientName(user);
+                imap.setClientPassword(getClientPassword());
+                imap.setCheckSuccessful(true);
+                result = imap.sample(null);
+                if(result.isSuccessful() && getLogin()) {
+                    imap.setOperation("LOGIN");
+                    result = imap.sample(null);
+                }
+                return result;
+            case POP3:
+                POP3Sampler pop3 = new POP3Sampler();
+                pop3.setName(getName() + " " + client);
+                pop3.setClient(client);
+                pop3.setOperation("CONNECT");
+                pop3.setHostname(getHostname());
+                pop3.setPort(getPort());
+                pop3.setConnectionTimeout(getConnectionTimeout());
+                pop3.setSoTimeout(getSoTimeout());
+                pop3.setUseSSL(getUseSSL());
+                pop3.setTcpNoDelay(getTcpNoDelay());
+                result = pop3.sample(null);
+                if(result.isSuccessful() && getLogin()) {
+                    // USER/PASS as COMMAND, so session is traced and marked authenticated like inline ones;
+                    // command text ends with line break as in sampler GUI
+                    pop3.setOperation("COMMAND");
+                    pop3.setCommand("USER " + user + "\n");
+                    result = pop3.sample(null);
+                    if(result.isSuccessful()) {
+                        pop3.setCommand("PASS " + getClientPassword() + "\n");
+                        result = pop3.sample(null);
+                    }
+                }
+                return result;
+            case SMTP:
+                SMTPSampler smtp = new SMTPSampler();
+                smtp.setName(getName() + " " + client);
+                smtp.setClient(client);
+                smtp.setOperation("CONNECT");
+                smtp.setHostname(getHostname());
+                smtp.setPort(getPort());
+                smtp.setDefaultTimeout(getDefaultTimeout());
+                smtp.setConnectionTimeout(getConnectionTimeout());
+                smtp.setSoTimeout(getSoTimeout());
+                smtp.setUseSSL(getUseSSL());
+                smtp.setTcpNoDelay(getTcpNoDelay());
+                return smtp.sample(null);
+        }
+        throw new IllegalArgumentException("unknown protocol " + protocol);
+    }
+}
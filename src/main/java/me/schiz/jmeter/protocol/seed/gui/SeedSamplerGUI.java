@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.seed.gui;
+
+import me.schiz.jmeter.protocol.seed.sampler.SeedSampler;
+import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
+import org.apache.jmeter.testelement.TestElement;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * GUI for parallel mailbox seeding
+ */
+public class SeedSamplerGUI extends AbstractSamplerGui {
+    private static final long serialVersionUID = -2961307518640726127L;
+    private JTextField      tfName;
+    private JTextField      tfComments;
+
+    //Mailboxes panel
+    private JTextField      tfClientName;
+    private JTextField      tfClientPassword;
+    private JTextField      tfFirstIndex;
+    private JTextField      tfCount;
+    private JTextField      tfThreads;
+    private JTextField      tfProgressFile;
+
+    //Messages panel
+    private JTextField      tfMailbox;
+    private JTextField      tfFlags;
+    private JTextField      tfMessages;
+    private JTextField      tfMessageFile;
+    private JTextField      tfGenerator;
+    private JTextField      tfBatchSize;
+
+    //Server settings
+    private JTextField      tfHostname;
+    private JTextField      tfPort;
+    private JTextField      tfDefaultTimeout;
+    private JTextField      tfSoTimeout;
+    private JTextField      tfConnectionTimeout;
+    private JCheckBox       cbUseSSL;
+
+    public SeedSamplerGUI() {
+        super();
+        init();
+        initFields();
+    }
+
+    public String getStaticLabel() {
+        return "IMAP Mailbox Seeder";
+    }
+
+    public String getStaticLabelResource() {
+        return getStaticLabel();
+    }
+
+    @Override
+    public TestElement createTestElement() {
+        SeedSampler sampler = new SeedSampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    public void configure(TestElement te) {
+        super.configure(te);
+        if(te instanceof SeedSampler) {
+            SeedSampler cs = (SeedSampler)te;
+            this.tfName.setText(cs.getName());
+            this.tfComments.setText(cs.getComment());
+
+            //Mailboxes panel
+            this.tfClientName.setText(cs.getClientName());
+            this.tfClientPassword.setText(cs.getClientPassword());
+            this.tfFirstIndex.setText(String.valueOf(cs.getFirstIndex()));
+            this.tfCount.setText(String.valueOf(cs.getCount()));
+            this.tfThreads.setText(String.valueOf(cs.getThreads()));
+            this.tfProgressFile.setText(cs.getProgressFile());
+
+            //Messages panel
+            this.tfMailbox.setText(cs.getMailbox());
+            this.tfFlags.setText(cs.getFlags());
+            this.tfMessages.setText(cs.getMessages());
+            this.tfMessageFile.setText(cs.getMessageFile());
+            this.tfGenerator.setText(cs.getGenerator());
+            this.tfBatchSize.setText(String.valueOf(cs.getBatchSize()));
+
+            //Server settings
+            this.tfHostname.setText(cs.getHostname());
+            this.tfPort.setText(String.valueOf(cs.getPort()));
+            this.tfDefaultTimeout.setText(String.valueOf(cs.getDefaultTimeout()));
+            this.tfSoTimeout.setText(String.valueOf(cs.getSoTimeout()));
+            this.tfConnectionTimeout.setText(String.valueOf(cs.getConnectionTimeout()));
+            this.cbUseSSL.setSelected(cs.getUseSSL());
+        }
+    }
+
+    @Override
+    public void modifyTestElement(TestElement sampler) {
+        super.configureTestElement(sampler);
+        if (sampler instanceof SeedSampler) {
+            SeedSampler s = (SeedSampler) sampler;
+            s.setName(tfName.getText());
+            s.setComment(tfComments.getText());
+
+            //Mailboxes panel
+            s.setClientName(tfClientName.getText());
+            s.setClientPassword(tfClientPassword.getText());
+            s.setFirstIndex(Integer.parseInt(tfFirstIndex.getText()));
+            s.setCount(Integer.parseInt(tfCount.getText()));
+            s.setThreads(Integer.parseInt(tfThreads.getText()));
+            s.setProgressFile(tfProgressFile.getText());
+
+            //Messages panel
+            s.setMailbox(tfMailbox.getText());
+            s.setFlags(tfFlags.getText());
+            s.setMessages(tfMessages.getText());
+            s.setMessageFile(tfMessageFile.getText());
+            s.setGenerator(tfGenerator.getText());
+            s.setBatchSize(Integer.parseInt(tfBatchSize.getText()));
+
+            //Server settings
+            s.setHostname(tfHostname.getText());
+            s.setPort(Integer.parseInt(tfPort.getText()));
+            s.setDefaultTimeout(Integer.parseInt(tfDefaultTimeout.getText()));
+            s.setSoTimeout(Integer.parseInt(tfSoTimeout.getText()));
+            s.setConnectionTimeout(Integer.parseInt(tfConnectionTimeout.getText()));
+            s.setUseSSL(cbUseSSL.isSelected());
+        }
+    }
+    private void initFields() {
+        this.tfName.setText("IMAP Mailbox Seeder");
+        this.tfComments.setText("");
+
+        //Mailboxes panel
+        this.tfClientName.setText("user%d@example.com");
+        this.tfClientPassword.setText("SexyPassord");
+        this.tfFirstIndex.setText("1");
+        this.tfCount.setText("1000");
+        this.tfThreads.setText("16");
+        this.tfProgressFile.setText("seed.progress");
+
+        //Messages panel
+        this.tfMailbox.setText("INBOX");
+        this.tfFlags.setText("");
+        this.tfMessages.setText("10:50, 100-500:40, 5000:10");
+        this.tfMessageFile.setText("");
+        this.tfGenerator.setText("4k:50, 64k:30, 1m:15, 10m:5");
+        this.tfBatchSize.setText("16");
+
+        //Server settings
+        this.tfHostname.setText("127.0.0.1");
+        this.tfPort.setText("143");
+        this.tfDefaultTimeout.setText("10000");
+        this.tfConnectionTimeout.setText("10000");
+        this.tfSoTimeout.setText("60000");
+        this.cbUseSSL.setSelected(false);
+    }
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        JPanel mainPanel = new JPanel(new GridBagLayout());
+
+        GridBagConstraints labelConstraints = new GridBagConstraints();
+        labelConstraints.anchor = GridBagConstraints.FIRST_LINE_END;
+
+        GridBagConstraints editConstraints = new GridBagConstraints();
+        editConstraints.anchor = GridBagConstraints.FIRST_LINE_START;
+        editConstraints.weightx = 1.0;
+        editConstraints.fill = GridBagConstraints.HORIZONTAL;
+
+        editConstraints.insets = new java.awt.Insets(2, 0, 0, 0);
+        labelConstraints.insets = new java.awt.Insets(2, 0, 0, 0);
+
+        JPanel jpHeaderPanel = new JPanel(new GridBagLayout());
+        addToPanel(jpHeaderPanel, labelConstraints, 0, 0, new JLabel("Name: ", JLabel.LEFT));
+        addToPanel(jpHeaderPanel, editConstraints, 1, 0, tfName = new JTextField(20));
+        addToPanel(jpHeaderPanel, labelConstraints, 0, 1, new JLabel("Comments: ", JLabel.LEFT));
+        addToPanel(jpHeaderPanel, editConstraints, 1, 1, tfComments = new JTextField(20));
+
+        JPanel jpMailboxesPanel = new JPanel(new GridBagLayout());
+        jpMailboxesPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Mailboxes")); // $NON-NLS-1$
+        addToPanel(jpMailboxesPanel, labelConstraints, 0, 0, new JLabel("User (%d - index): ", JLabel.RIGHT));
+        addToPanel(jpMailboxesPanel, editConstraints, 1, 0, tfClientName = new JTextField(16));
+        addToPanel(jpMailboxesPanel, labelConstraints, 2, 0, new JLabel("Password: ", JLabel.RIGHT));
+        addToPanel(jpMailboxesPanel, editConstraints, 3, 0, tfClientPassword = new JTextField(16));
+        addToPanel(jpMailboxesPanel, labelConstraints, 0, 1, new JLabel("First Index: ", JLabel.RIGHT));
+        addToPanel(jpMailboxesPanel, editConstraints, 1, 1, tfFirstIndex = new JTextField(5));
+        addToPanel(jpMailboxesPanel, labelConstraints, 0, 2, new JLabel("Count: ", JLabel.RIGHT));
+        addToPanel(jpMailboxesPanel, editConstraints, 1, 2, tfCount = new JTextField(5));
+        addToPanel(jpMailboxesPanel, labelConstraints, 0, 3, new JLabel("Threads: ", JLabel.RIGHT));
+        addToPanel(jpMailboxesPanel, editConstraints, 1, 3, tfThreads = new JTextField(5));
+        addToPanel(jpMailboxesPanel, labelConstraints, 0, 4, new JLabel("Progress File: ", JLabel.RIGHT));
+        addToPanel(jpMailboxesPanel, editConstraints, 1, 4, tfProgressFile = new JTextField(16));
+
+        JPanel jpMessagesPanel = new JPanel(new GridBagLayout());
+        jpMessagesPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Messages")); // $NON-NLS-1$
+        addToPanel(jpMessagesPanel, labelConstraints, 0, 0, new JLabel("Mailbox: ", JLabel.RIGHT));
+        addToPanel(jpMessagesPanel, editConstraints, 1, 0, tfMailbox = new JTextField(16));
+        addToPanel(jpMessagesPanel, labelConstraints, 0, 1, new JLabel("Flags: ", JLabel.RIGHT));
+        addToPanel(jpMessagesPanel, editConstraints, 1, 1, tfFlags = new JTextField(16));
+        addToPanel(jpMessagesPanel, labelConstraints, 0, 2, new JLabel("Messages per Mailbox (count or range:weight, ...): ", JLabel.RIGHT));
+        addToPanel(jpMessagesPanel, editConstraints, 1, 2, tfMessages = new JTextField(20));
+        addToPanel(jpMessagesPanel, labelConstraints, 0, 3, new JLabel("Message File or Directory: ", JLabel.RIGHT));
+        addToPanel(jpMessagesPanel, editConstraints, 1, 3, tfMessageFile = new JTextField(20));
+        addToPanel(jpMessagesPanel, labelConstraints, 0, 4, new JLabel("Generated Sizes (size:weight, ...): ", JLabel.RIGHT));
+        addToPanel(jpMessagesPanel, editConstraints, 1, 4, tfGenerator = new JTextField(20));
+        addToPanel(jpMessagesPanel, labelConstraints, 0, 5, new JLabel("MULTIAPPEND Batch: ", JLabel.RIGHT));
+        addToPanel(jpMessagesPanel, editConstraints, 1, 5, tfBatchSize = new JTextField(5));
+
+        JPanel jpServerPanel = new JPanel(new GridBagLayout());
+        jpServerPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Server Settings")); // $NON-NLS-1$
+        addToPanel(jpServerPanel, labelConstraints, 0, 0, new JLabel("Server: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 0, tfHostname = new JTextField(20));
+        addToPanel(jpServerPanel, labelConstraints, 2, 0, new JLabel("Port: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 3, 0, tfPort = new JTextField(5));
+        addToPanel(jpServerPanel, editConstraints, 3, 1, cbUseSSL = new JCheckBox("SSL"));
+        addToPanel(jpServerPanel, labelConstraints, 0, 1, new JLabel("Default Timeout: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 1, tfDefaultTimeout = new JTextField(5));
+        addToPanel(jpServerPanel, labelConstraints, 0, 2, new JLabel("Socket Timeout: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 2, tfSoTimeout = new JTextField(5));
+        addToPanel(jpServerPanel, labelConstraints, 0, 3, new JLabel("Connection Timeout: ", JLabel.LEFT));
+        addToPanel(jpServerPanel, editConstraints, 1, 3, tfConnectionTimeout = new JTextField(5));
+
+        // Compilation panels
+        addToPanel(mainPanel, editConstraints, 0, 0, jpHeaderPanel);
+        addToPanel(mainPanel, editConstraints, 0, 1, jpMailboxesPanel);
+        addToPanel(mainPanel, editConstraints, 0, 2, jpMessagesPanel);
+        addToPanel(mainPanel, editConstraints, 0, 3, jpServerPanel);
+
+        JPanel container = new JPanel(new BorderLayout());
+        container.add(mainPanel, BorderLayout.NORTH);
+        add(container, BorderLayout.CENTER);
+    }
+    private void addToPanel(JPanel panel, GridBagConstraints constraints, int col, int row, JComponent component) {
+        constraints.gridx = col;
+        constraints.gridy = row;
+        panel.add(component, constraints);
+    }
+}
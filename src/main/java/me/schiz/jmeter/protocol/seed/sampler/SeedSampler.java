@@ -0,0 +1,536 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.seed.sampler;
+
+import me.schiz.jmeter.protocol.imap.client.IMAPSessionClient;
+import me.schiz.jmeter.protocol.net.MessageCorpus;
+import me.schiz.jmeter.protocol.net.MessageGenerator;
+import org.apache.commons.net.imap.IMAPReply;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Populates many mailboxes in parallel before the load: every worker logs in as one user of the range,
+ * tops mailbox up to its message count by APPEND (MULTIAPPEND batches if announced with LITERAL+) and logs out.
+ * Message count of mailbox is drawn from distribution like "10:50, 100-500:40, 5000:10" (count or range:weight),
+ * seeded by mailbox index, so repeated run aims at the same counts. Seeding is resumable: mailboxes listed
+ * in progress file are skipped, others are topped up from their STATUS. Intended for setUp Thread Group,
+ * or standalone: <code>java -cp ... SeedSampler hostname=imap.local client_name=user%d@example.org count=1000 ...</code>
+ */
+public class SeedSampler extends AbstractSampler {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final long serialVersionUID = 6617036522376301850L;
+
+    private static final String RC_500 = "500";
+    // failed mailboxes reported as sub-results
+    private static final int MAX_FAILURE_RESULTS = 100;
+
+    public static final String HOSTNAME = "SeedSampler.hostname";
+    public static final String PORT = "SeedSampler.port";
+    public static final String DEFAULT_TIMEOUT = "SeedSampler.default_timeout";
+    public static final String SO_TIMEOUT = "SeedSampler.so_timeout";
+    public static final String CONNECTION_TIMEOUT = "SeedSampler.connection_timeout";
+    public static final String USE_SSL = "SeedSampler.use_ssl";
+    public static final String CLIENT_NAME = "SeedSampler.client_name";
+    public static final String CLIENT_PASSWORD = "SeedSampler.client_password";
+    public static final String FIRST_INDEX = "SeedSampler.first_index";
+    public static final String COUNT = "SeedSampler.count";
+    public static final String THREADS = "SeedSampler.threads";
+    public static final String MAILBOX = "SeedSampler.mailbox";
+    public static final String FLAGS = "SeedSampler.flags";
+    public static final String MESSAGES = "SeedSampler.messages";
+    public static final String MESSAGE_FILE = "SeedSampler.message_file";
+    public static final String GENERATOR = "SeedSampler.generator";
+    public static final String BATCH_SIZE = "SeedSampler.batch_size";
+    public static final String PROGRESS_FILE = "SeedSampler.progress_file";
+
+    private transient Writer progress = null;
+
+    /**
+     * Result of one mailbox
+     */
+    private static class Seeded {
+        final int index;
+        final String user;
+        final int target;
+        final int existing;
+        final int appended;
+        final SampleResult failure;
+
+        Seeded(int index, String user, int target, int existing, int appended, SampleResult failure) {
+            this.index = index;
+            this.user = user;
+            this.target = target;
+            this.existing = existing;
+            this.appended = appended;
+            this.failure = failure;
+        }
+    }
+
+    public String getHostname() {
+        return getPropertyAsString(HOSTNAME);
+    }
+    public void setHostname(String hostname) {
+        setProperty(HOSTNAME, hostname);
+    }
+    public int getPort() {
+        return getPropertyAsInt(PORT);
+    }
+    public void setPort(int port) {
+        setProperty(PORT, port);
+    }
+    public int getDefaultTimeout() {
+        return getPropertyAsInt(DEFAULT_TIMEOUT);
+    }
+    public void setDefaultTimeout(int defaultTimeout) {
+        setProperty(DEFAULT_TIMEOUT, defaultTimeout);
+    }
+    public int getSoTimeout() {
+        return getPropertyAsInt(SO_TIMEOUT);
+    }
+    public void setSoTimeout(int soTimeout) {
+        setProperty(SO_TIMEOUT, soTimeout);
+    }
+    public int getConnectionTimeout() {
+        return getPropertyAsInt(CONNECTION_TIMEOUT);
+    }
+    public void setConnectionTimeout(int connectionTimeout) {
+        setProperty(CONNECTION_TIMEOUT, connectionTimeout);
+    }
+    public boolean getUseSSL() {
+        return getPropertyAsBoolean(USE_SSL);
+    }
+    public void setUseSSL(boolean use) {
+        setProperty(USE_SSL, use);
+    }
+    /**
+     * @return user name, `%d` is replaced by mailbox index
+     */
+    public String getClientName() {
+        return getPropertyAsString(CLIENT_NAME);
+    }
+    public void setClientName(String clientName) {
+        setProperty(CLIENT_NAME, clientName);
+    }
+    public String getClientPassword() {
+        return getPropertyAsString(CLIENT_PASSWORD);
+    }
+    public void setClientPassword(String clientPassword) {
+        setProperty(CLIENT_PASSWORD, clientPassword);
+    }
+    public int getFirstIndex() {
+        return getPropertyAsInt(FIRST_INDEX);
+    }
+    public void setFirstIndex(int index) {
+        setProperty(FIRST_INDEX, index);
+    }
+    public int getCount() {
+        return getPropertyAsInt(COUNT);
+    }
+    public void setCount(int count) {
+        setProperty(COUNT, count);
+    }
+    public int getThreads() {
+        return getPropertyAsInt(THREADS);
+    }
+    public void setThreads(int threads) {
+        setProperty(THREADS, threads);
+    }
+    public String getMailbox() {
+        return getPropertyAsString(MAILBOX);
+    }
+    public void setMailbox(String mailbox) {
+        setProperty(MAILBOX, mailbox);
+    }
+    /**
+     * @return flag list of appended messages, e.g. "(\Seen)", empty - no flags
+     */
+    public String getFlags() {
+        return getPropertyAsString(FLAGS);
+    }
+    public void setFlags(String flags) {
+        setProperty(FLAGS, flags);
+    }
+    /**
+     * @return distribution of message count per mailbox, e.g. "10:50, 100-500:40, 5000:10"
+     */
+    public String getMessages() {
+        return getPropertyAsString(MESSAGES);
+    }
+    public void setMessages(String messages) {
+        setProperty(MESSAGES, messages);
+    }
+    /**
+     * @return .eml file or directory of messages, empty - generated messages
+     */
+    public String getMessageFile() {
+        return getPropertyAsString(MESSAGE_FILE);
+    }
+    public void setMessageFile(String file) {
+        setProperty(MESSAGE_FILE, file);
+    }
+    /**
+     * @return size distribution of generated messages, e.g. "4k:50, 64k:30, 1m:15, 10m:5"
+     */
+    public String getGenerator() {
+        return getPropertyAsString(GENERATOR);
+    }
+    public void setGenerator(String spec) {
+        setProperty(GENERATOR, spec);
+    }
+    /**
+     * @return messages per MULTIAPPEND command, 1 - one APPEND per message
+     */
+    public int getBatchSize() {
+        return getPropertyAsInt(BATCH_SIZE);
+    }
+    public void setBatchSize(int size) {
+        setProperty(BATCH_SIZE, size);
+    }
+    /**
+     * @return file of seeded mailboxes, empty - no resume
+     */
+    public String getProgressFile() {
+        return getPropertyAsString(PROGRESS_FILE);
+    }
+    public void setProgressFile(String file) {
+        setProperty(PROGRESS_FILE, file);
+    }
+
+    @Override
+    public SampleResult sample(Entry e) {
+        SampleResult sr = new SampleResult();
+        sr.setSampleLabel(getName());
+        int count = getCount();
+        int first = getFirstIndex();
+
+        String request = "SEED\n";
+        request += "Host : " + getHostname() + ":" + getPort() + "\n";
+        request += "Users : " + getClientName() + ", " + first + " .. " + (first + count - 1) + "\n";
+        request += "Mailbox : " + getMailbox() + "\n";
+        request += "Messages : " + getMessages() + "\n";
+        request += (getMessageFile().isEmpty() ? "Generator : " + getGenerator() : "Message File : " + getMessageFile()) + "\n";
+        request += "Threads : " + getThreads() + "\n";
+        request += "Batch Size : " + getBatchSize() + "\n";
+        sr.setRequestHeaders(request);
+
+        final MessageCorpus corpus;
+        final MessageGenerator generator;
+        final int[][] distribution;
+        Set<Integer> done;
+        sr.sampleStart();
+        try {
+            corpus = getMessageFile().isEmpty() ? null : MessageCorpus.get(getMessageFile());
+            if(corpus == null && getGenerator().isEmpty()) throw new IllegalArgumentException("neither message file nor generator is set");
+            generator = corpus == null ? MessageGenerator.get(getGenerator()) : null;
+            distribution = parseDistribution(getMessages());
+            done = loadProgress();
+            openProgress();
+        } catch (IOException ioe) {
+            return setupFailed(sr, ioe);
+        } catch (IllegalArgumentException iae) {
+            return setupFailed(sr, iae);
+        }
+
+        final AtomicLong bytes = new AtomicLong(0);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(getThreads(), 1));
+        List<Future<Seeded>> futures = new ArrayList<Future<Seeded>>(count);
+        int seeded = 0, skipped = 0, failed = 0;
+        long appended = 0;
+        try {
+            for(int i = first; i < first + count; ++i) {
+                if(done.contains(i)) {
+                    skipped++;
+                    continue;
+                }
+                final int index = i;
+                futures.add(executor.submit(new Callable<Seeded>() {
+                    @Override
+                    public Seeded call() {
+                        return seed(index, target(distribution, index), corpus, generator, bytes);
+                    }
+                }));
+            }
+            for(Future<Seeded> future : futures) {
+                Seeded result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException ee) {
+                    failed++;
+                    log.error("seeding failed", ee.getCause());
+                    continue;
+                }
+                appended += result.appended;
+                if(result.failure == null) {
+                    seeded++;
+                } else {
+                    failed++;
+                    if(failed <= MAX_FAILURE_RESULTS) sr.addSubResult(result.failure);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.warn("seeding interrupted");
+        } finally {
+            executor.shutdownNow();
+            closeProgress();
+        }
+        sr.sampleEnd();
+
+        int total = count - skipped;
+        sr.setSuccessful(failed == 0 && seeded == total);
+        if(sr.isSuccessful()) sr.setResponseCodeOK();
+        else sr.setResponseCode(RC_500);
+        sr.setResponseMessage(seeded + " seeded, " + skipped + " skipped, " + failed + " failed");
+        long rate = sr.getTime() > 0 ? appended * 1000 / sr.getTime() : appended;
+        sr.setResponseData(("mailboxes seeded: " + seeded + "/" + total + ", skipped: " + skipped + ", failed: " + failed
+                + ", messages appended: " + appended + " (" + rate + "/s), bytes: " + bytes.get()
+                + ", duration: " + sr.getTime() + "ms").getBytes());
+        sr.setResponseHeaders("Appended : " + appended + "\nAppended Bytes : " + bytes.get() + "\n");
+        log.info(getName() + ": " + seeded + "/" + total + " mailboxes seeded, " + appended + " messages in " + sr.getTime() + "ms");
+        return sr;
+    }
+
+    /**
+     * Tops up mailbox of user <code>index</code> to <code>target</code> messages
+     */
+    private Seeded seed(int index, int target, MessageCorpus corpus, MessageGenerator generator, AtomicLong bytes) {
+        String user = getClientName().replace("%d", String.valueOf(index));
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName() + " " + user);
+        result.sampleStart();
+        IMAPSessionClient client = new IMAPSessionClient(getUseSSL());
+        int existing = 0;
+        int appended = 0;
+        try {
+            client.setDefaultTimeout(getDefaultTimeout());
+            client.setConnectTimeout(getConnectionTimeout());
+            client.connect(getHostname(), getPort());
+            client.setSoTimeout(getSoTimeout());
+            if(!client.login(user, getClientPassword())) throw new IOException("LOGIN failed: " + client.getReplyString().trim());
+            existing = status(client);
+            if(existing == -1) {
+                String reply = client.getReplyString().trim();
+                if(!client.create(getMailbox())) throw new IOException("STATUS failed: " + reply + ", CREATE failed: " + client.getReplyString().trim());
+                existing = 0;
+            }
+            if(client.getCapabilities() == null) client.capability();
+            int batch = client.hasCapability("MULTIAPPEND") && client.hasCapability("LITERAL+") ? Math.max(getBatchSize(), 1) : 1;
+            while(existing + appended < target) {
+                int size = Math.min(batch, target - existing - appended);
+                List<ByteBuffer[]> messages = new ArrayList<ByteBuffer[]>(size);
+                for(int i = 0; i < size; ++i) {
+                    ByteBuffer[] message = corpus != null ? new ByteBuffer[] {corpus.getMessage(corpus.nextIndex())}
+                            : generator.next(user, new String[] {user});
+                    for(ByteBuffer segment : message) bytes.addAndGet(segment.remaining());
+                    messages.add(message);
+                }
+                IMAPSessionClient.Reply reply;
+                if(size == 1) {
+                    IMAPSessionClient.Reply[] replies = client.append(getMailbox() + (getFlags().isEmpty() ? "" : " " + getFlags()), messages.get(0), true);
+                    reply = replies[replies.length - 1];
+                } else {
+                    reply = client.multiAppend(getMailbox(), getFlags(), messages);
+                }
+                if(reply.code != IMAPReply.OK) throw new IOException("APPEND failed: " + reply.text.trim());
+                appended += size;
+            }
+            client.logout();
+            client.disconnect();
+            progress(index, user, target);
+            result.sampleEnd();
+            return new Seeded(index, user, target, existing, appended, null);
+        } catch (IOException ioe) {
+            result.sampleEnd();
+            result.setSuccessful(false);
+            result.setResponseCode(ioe.getClass().getName());
+            result.setResponseMessage(ioe.toString());
+            result.setResponseData((user + ": " + (existing + appended) + "/" + target + " messages").getBytes());
+            log.warn("can't seed mailbox of " + user, ioe);
+            try {
+                client.disconnect();
+            } catch (IOException ignored) {
+                // already broken
+            }
+            return new Seeded(index, user, target, existing, appended, result);
+        }
+    }
+
+    /**
+     * @return MESSAGES of STATUS, -1 if STATUS failed, e.g. mailbox does not exist
+     */
+    private int status(IMAPSessionClient client) throws IOException {
+        if(!client.status(getMailbox(), new String[] {"MESSAGES"})) return -1;
+        for(String line : client.getReplyStrings()) {
+            int start = line.toUpperCase().indexOf("MESSAGES ");
+            if(!line.startsWith("* ") || start == -1) continue;
+            int end = start + 9;
+            while(end < line.length() && Character.isDigit(line.charAt(end))) end++;
+            return Integer.parseInt(line.substring(start + 9, end));
+        }
+        throw new IOException("no MESSAGES in STATUS reply: " + client.getReplyString().trim());
+    }
+
+    /**
+     * @return pairs of min and max count with cumulative weights: {min, max, weight}
+     */
+    static int[][] parseDistribution(String spec) {
+        String[] items = spec.trim().split("\\s*,\\s*");
+        int[][] distribution = new int[items.length][];
+        int total = 0;
+        for(int i = 0; i < items.length; ++i) {
+            String[] pair = items[i].split(":");
+            String range = pair[0].trim();
+            int dash = range.indexOf('-');
+            int min = Integer.parseInt(dash == -1 ? range : range.substring(0, dash).trim());
+            int max = dash == -1 ? min : Integer.parseInt(range.substring(dash + 1).trim());
+            if(min < 0 || max < min) throw new IllegalArgumentException("bad message count " + range);
+            total += pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            distribution[i] = new int[] {min, max, total};
+        }
+        if(total <= 0) throw new IllegalArgumentException("weights of `" + spec + "` are zero");
+        return distribution;
+    }
+
+    /**
+     * @return message count of mailbox, the same for index in every run
+     */
+    static int target(int[][] distribution, int index) {
+        Random random = new Random(index * 0x9E3779B97F4A7C15L);
+        int value = random.nextInt(distribution[distribution.length - 1][2]);
+        for(int[] item : distribution) {
+            if(value < item[2]) return item[0] + random.nextInt(item[1] - item[0] + 1);
+        }
+        return 0;
+    }
+
+    private Set<Integer> loadProgress() throws IOException {
+        Set<Integer> done = new HashSet<Integer>();
+        if(getProgressFile().isEmpty() || !new File(getProgressFile()).exists()) return done;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(getProgressFile()), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+                done.add(Integer.parseInt(line.split("\\s+")[0]));
+            }
+        } finally {
+            reader.close();
+        }
+        log.info(getName() + ": " + done.size() + " mailboxes already seeded by " + getProgressFile());
+        return done;
+    }
+
+    private void openProgress() throws IOException {
+        if(getProgressFile().isEmpty()) return;
+        progress = new OutputStreamWriter(new FileOutputStream(getProgressFile(), true), "UTF-8");
+    }
+
+    // index, user and message count of seeded mailbox, written as soon as it is done
+    private synchronized void progress(int index, String user, int target) {
+        if(progress == null) return;
+        try {
+            progress.write(index + " " + user + " " + target + "\n");
+            progress.flush();
+        } catch (IOException ioe) {
+            log.warn("can't write progress to " + getProgressFile(), ioe);
+        }
+    }
+
+    private synchronized void closeProgress() {
+        if(progress == null) return;
+        try {
+            progress.close();
+        } catch (IOException ioe) {
+            log.warn("can't close " + getProgressFile(), ioe);
+        }
+        progress = null;
+    }
+
+    private SampleResult setupFailed(SampleResult sr, Exception e) {
+        sr.sampleEnd();
+        sr.setSuccessful(false);
+        sr.setResponseCode(e.getClass().getName());
+        sr.setResponseMessage(e.toString());
+        log.error(getName() + ": can't start seeding", e);
+        return sr;
+    }
+
+    /**
+     * Standalone seeding, arguments are properties without prefix, e.g. <code>hostname=imap.local port=143 count=1000</code>
+     */
+    public static void main(String[] args) {
+        SeedSampler seeder = new SeedSampler();
+        seeder.setName("seed");
+        seeder.setHostname("127.0.0.1");
+        seeder.setPort(143);
+        seeder.setDefaultTimeout(10000);
+        seeder.setSoTimeout(60000);
+        seeder.setConnectionTimeout(10000);
+        seeder.setClientName("user%d@example.com");
+        seeder.setFirstIndex(1);
+        seeder.setCount(1);
+        seeder.setThreads(16);
+        seeder.setMailbox("INBOX");
+        seeder.setFlags("");
+        seeder.setMessages("100");
+        seeder.setGenerator("4k:50, 64k:30, 1m:15, 10m:5");
+        seeder.setBatchSize(16);
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq == -1) {
+                System.err.println("usage: SeedSampler name=value ..., names: hostname port default_timeout so_timeout connection_timeout"
+                        + " use_ssl client_name client_password first_index count threads mailbox flags messages message_file"
+                        + " generator batch_size progress_file");
+                System.exit(2);
+            }
+            seeder.setProperty("SeedSampler." + arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        SampleResult result = seeder.sample(null);
+        System.out.println(result.getResponseDataAsString());
+        for(SampleResult failure : result.getSubResults()) System.out.println(failure.getSampleLabel() + ": " + failure.getResponseMessage());
+        System.exit(result.isSuccessful() ? 0 : 1);
+    }
+}
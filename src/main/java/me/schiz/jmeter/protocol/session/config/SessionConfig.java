@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.session.config;
+
+import me.schiz.jmeter.protocol.SessionStorage;
+import me.schiz.jmeter.protocol.imap.client.IdleLoop;
+import me.schiz.jmeter.protocol.net.BoundedCache;
+import me.schiz.jmeter.protocol.net.Capabilities;
+import me.schiz.jmeter.protocol.net.DeliveryClock;
+import me.schiz.jmeter.protocol.net.MessageCorpus;
+import me.schiz.jmeter.protocol.net.MessageGenerator;
+import me.schiz.jmeter.protocol.net.RecipientSource;
+import me.schiz.jmeter.protocol.net.Scram;
+import me.schiz.jmeter.protocol.net.SharedSSLContext;
+import me.schiz.jmeter.protocol.net.WireTrace;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Test-wide settings of SessionStorage, applied when test starts
+ */
+public class SessionConfig extends AbstractTestElement implements TestStateListener {
+    private static final long serialVersionUID = 3203829137563541262L;
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String POOL_MAX_SIZE = "SessionConfig.pool_max_size";
+    public static final String POOL_MIN_IDLE = "SessionConfig.pool_min_idle";
+    public static final String POOL_WAIT_TIMEOUT = "SessionConfig.pool_wait_timeout";
+    public static final String KEEPALIVE_INTERVAL = "SessionConfig.keepalive_interval";
+    public static final String IDLE_TTL = "SessionConfig.idle_ttl";
+    public static final String KEEPER_THREADS = "SessionConfig.keeper_threads";
+    public static final String SSL_KEYSTORE = "SessionConfig.ssl_keystore";
+    public static final String SSL_KEYSTORE_PASSWORD = "SessionConfig.ssl_keystore_password";
+    public static final String SSL_TRUSTSTORE = "SessionConfig.ssl_truststore";
+    public static final String SSL_TRUSTSTORE_PASSWORD = "SessionConfig.ssl_truststore_password";
+    public static final String SSL_TRUST_ALL = "SessionConfig.ssl_trust_all";
+    public static final String SSL_PROTOCOLS = "SessionConfig.ssl_protocols";
+    public static final String SSL_CIPHER_SUITES = "SessionConfig.ssl_cipher_suites";
+    public static final String SSL_RESUMPTION = "SessionConfig.ssl_resumption";
+    public static final String TRACE_FILE = "SessionConfig.trace_file";
+    public static final String TRACE_SAMPLE_RATE = "SessionConfig.trace_sample_rate";
+    public static final String TRACE_BUFFER_SIZE = "SessionConfig.trace_buffer_size";
+    public static final String TRACE_MAX_FILE_SIZE = "SessionConfig.trace_max_file_size";
+    public static final String TRACE_MAX_FILES = "SessionConfig.trace_max_files";
+    public static final String TRACE_MASK = "SessionConfig.trace_mask";
+
+    public int getPoolMaxSize() {
+        return getPropertyAsInt(POOL_MAX_SIZE);
+    }
+    public void setPoolMaxSize(int maxSize) {
+        setProperty(POOL_MAX_SIZE, maxSize);
+    }
+    public int getPoolMinIdle() {
+        return getPropertyAsInt(POOL_MIN_IDLE);
+    }
+    public void setPoolMinIdle(int minIdle) {
+        setProperty(POOL_MIN_IDLE, minIdle);
+    }
+    public int getPoolWaitTimeout() {
+        return getPropertyAsInt(POOL_WAIT_TIMEOUT);
+    }
+    public void setPoolWaitTimeout(int waitTimeout) {
+        setProperty(POOL_WAIT_TIMEOUT, waitTimeout);
+    }
+
+    public int getKeepAliveInterval() {
+        return getPropertyAsInt(KEEPALIVE_INTERVAL);
+    }
+    public void setKeepAliveInterval(int interval) {
+        setProperty(KEEPALIVE_INTERVAL, interval);
+    }
+    public int getIdleTtl() {
+        return getPropertyAsInt(IDLE_TTL);
+    }
+    public void setIdleTtl(int ttl) {
+        setProperty(IDLE_TTL, ttl);
+    }
+    public int getKeeperThreads() {
+        return getPropertyAsInt(KEEPER_THREADS);
+    }
+    public void setKeeperThreads(int threads) {
+        setProperty(KEEPER_THREADS, threads);
+    }
+
+    public String getSSLKeyStore() {
+        return getPropertyAsString(SSL_KEYSTORE);
+    }
+    public void setSSLKeyStore(String keyStore) {
+        setProperty(SSL_KEYSTORE, keyStore);
+    }
+    public String getSSLKeyStorePassword() {
+        return getPropertyAsString(SSL_KEYSTORE_PASSWORD);
+    }
+    public void setSSLKeyStorePassword(String password) {
+        setProperty(SSL_KEYSTORE_PASSWORD, password);
+    }
+    public String getSSLTrustStore() {
+        return getPropertyAsString(SSL_TRUSTSTORE);
+    }
+    public void setSSLTrustStore(String trustStore) {
+        setProperty(SSL_TRUSTSTORE, trustStore);
+    }
+    public String getSSLTrustStorePassword() {
+        return getPropertyAsString(SSL_TRUSTSTORE_PASSWORD);
+    }
+    public void setSSLTrustStorePassword(String password) {
+        setProperty(SSL_TRUSTSTORE_PASSWORD, password);
+    }
+    public boolean getSSLTrustAll() {
+        return getPropertyAsBoolean(SSL_TRUST_ALL);
+    }
+    public void setSSLTrustAll(boolean trustAll) {
+        setProperty(SSL_TRUST_ALL, trustAll);
+    }
+    public String getSSLProtocols() {
+        return getPropertyAsString(SSL_PROTOCOLS);
+    }
+    public void setSSLProtocols(String protocols) {
+        setProperty(SSL_PROTOCOLS, protocols);
+    }
+    public String getSSLCipherSuites() {
+        return getPropertyAsString(SSL_CIPHER_SUITES);
+    }
+    public void setSSLCipherSuites(String cipherSuites) {
+        setProperty(SSL_CIPHER_SUITES, cipherSuites);
+    }
+    public boolean getSSLResumption() {
+        return getPropertyAsBoolean(SSL_RESUMPTION, true);
+    }
+    public void setSSLResumption(boolean resumption) {
+        setProperty(SSL_RESUMPTION, resumption);
+    }
+
+    public String getTraceFile() {
+        return getPropertyAsString(TRACE_FILE);
+    }
+    public void setTraceFile(String file) {
+        setProperty(TRACE_FILE, file);
+    }
+    public int getTraceSampleRate() {
+        return getPropertyAsInt(TRACE_SAMPLE_RATE);
+    }
+    public void setTraceSampleRate(int rate) {
+        setProperty(TRACE_SAMPLE_RATE, rate);
+    }
+    public int getTraceBufferSize() {
+        return getPropertyAsInt(TRACE_BUFFER_SIZE);
+    }
+    public void setTraceBufferSize(int size) {
+        setProperty(TRACE_BUFFER_SIZE, size);
+    }
+    /**
+     * @return max trace file size, MB
+     */
+    public int getTraceMaxFileSize() {
+        return getPropertyAsInt(TRACE_MAX_FILE_SIZE);
+    }
+    public void setTraceMaxFileSize(int size) {
+        setProperty(TRACE_MAX_FILE_SIZE, size);
+    }
+    public int getTraceMaxFiles() {
+        return getPropertyAsInt(TRACE_MAX_FILES);
+    }
+    public void setTraceMaxFiles(int files) {
+        setProperty(TRACE_MAX_FILES, files);
+    }
+    public boolean getTraceMask() {
+        return getPropertyAsBoolean(TRACE_MASK, true);
+    }
+    public void setTraceMask(boolean mask) {
+        setProperty(TRACE_MASK, mask);
+    }
+
+    @Override
+    public void testStarted() {
+        SessionStorage storage = SessionStorage.getInstance();
+        storage.getPool().configure(getPoolMaxSize(), getPoolMinIdle(), getPoolWaitTimeout());
+        storage.getKeeper().start(getKeepAliveInterval(), getIdleTtl(), getKeeperThreads());
+        try {
+            SharedSSLContext.getInstance().configure(getSSLKeyStore(), getSSLKeyStorePassword(),
+                    getSSLTrustStore(), getSSLTrustStorePassword(), getSSLTrustAll(),
+                    getSSLProtocols(), getSSLCipherSuites(), getSSLResumption());
+        } catch (IOException e) {
+            log.error("can't configure shared SSLContext, JVM defaults are used", e);
+        }
+        if(!getTraceFile().isEmpty()) {
+            WireTrace.getInstance().start(getTraceFile(), getTraceSampleRate(), getTraceBufferSize(),
+                    getTraceMaxFileSize() * 1024L * 1024L, getTraceMaxFiles(), getTraceMask());
+        }
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        SessionStorage storage = SessionStorage.getInstance();
+        storage.getKeeper().stop();
+        IdleLoop.getInstance().stop();
+        DeliveryClock.clear();
+        storage.invalidatePooled();
+        storage.getPool().clear();
+        WireTrace.getInstance().stop();
+        MessageCorpus.clear();
+        MessageGenerator.clear();
+        RecipientSource.clear();
+        SharedSSLContext ssl = SharedSSLContext.getInstance();
+        log.info("TLS handshakes: " + ssl.getHandshakes() + ", resumed: " + ssl.getResumed());
+        BoundedCache<String, byte[]> scram = Scram.getCache();
+        log.info("SCRAM salted password cache: " + scram.getHits() + " hits, " + scram.getMisses() + " misses");
+        scram.clear();
+        BoundedCache<String, Capabilities> capabilities = Capabilities.getCache();
+        log.info("capability cache: " + capabilities.getHits() + " hits, " + capabilities.getMisses() + " misses");
+        capabilities.clear();
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+}
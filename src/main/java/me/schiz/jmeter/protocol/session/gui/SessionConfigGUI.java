@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.session.gui;
+
+import me.schiz.jmeter.protocol.session.config.SessionConfig;
+import org.apache.jmeter.config.gui.AbstractConfigGui;
+import org.apache.jmeter.testelement.TestElement;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * GUI for test-wide mail session settings
+ */
+public class SessionConfigGUI extends AbstractConfigGui {
+    private static final long serialVersionUID = -2619271625380465126L;
+    private JTextField      tfName;
+    private JTextField      tfComments;
+
+    //Pool settings
+    private JPanel          jpPoolPanel;
+    private JTextField      tfPoolMaxSize;
+    private JTextField      tfPoolMinIdle;
+    private JTextField      tfPoolWaitTimeout;
+
+    //Keepalive settings
+    private JPanel          jpKeeperPanel;
+    private JTextField      tfKeepAliveInterval;
+    private JTextField      tfIdleTtl;
+    private JTextField      tfKeeperThreads;
+
+    //SSL settings
+    private JPanel          jpSSLPanel;
+    private JTextField      tfSSLKeyStore;
+    private JPasswordField  tfSSLKeyStorePassword;
+    private JTextField      tfSSLTrustStore;
+    private JPasswordField  tfSSLTrustStorePassword;
+    private JCheckBox       cbSSLTrustAll;
+    private JTextField      tfSSLProtocols;
+    private JTextField      tfSSLCipherSuites;
+    private JCheckBox       cbSSLResumption;
+
+    //Wire trace settings
+    private JPanel          jpTracePanel;
+    private JTextField      tfTraceFile;
+    private JTextField      tfTraceSampleRate;
+    private JTextField      tfTraceBufferSize;
+    private JTextField      tfTraceMaxFileSize;
+    private JTextField      tfTraceMaxFiles;
+    private JCheckBox       cbTraceMask;
+
+    public SessionConfigGUI() {
+        super();
+        init();
+        initFields();
+    }
+
+    public String getStaticLabel() {
+        return "Mail Session Config";
+    }
+
+    public String getStaticLabelResource() {
+        return getStaticLabel();
+    }
+
+    @Override
+    public TestElement createTestElement() {
+        SessionConfig config = new SessionConfig();
+        modifyTestElement(config);
+        return config;
+    }
+
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    public void configure(TestElement te) {
+        super.configure(te);
+        if(te instanceof SessionConfig) {
+            SessionConfig cs = (SessionConfig)te;
+            this.tfName.setText(cs.getName());
+            this.tfComments.setText(cs.getComment());
+
+            //Pool settings
+            this.tfPoolMaxSize.setText(String.valueOf(cs.getPoolMaxSize()));
+            this.tfPoolMinIdle.setText(String.valueOf(cs.getPoolMinIdle()));
+            this.tfPoolWaitTimeout.setText(String.valueOf(cs.getPoolWaitTimeout()));
+
+            //Keepalive settings
+            this.tfKeepAliveInterval.setText(String.valueOf(cs.getKeepAliveInterval()));
+            this.tfIdleTtl.setText(String.valueOf(cs.getIdleTtl()));
+            this.tfKeeperThreads.setText(String.valueOf(cs.getKeeperThreads()));
+
+            //SSL settings
+            this.tfSSLKeyStore.setText(cs.getSSLKeyStore());
+            this.tfSSLKeyStorePassword.setText(cs.getSSLKeyStorePassword());
+            this.tfSSLTrustStore.setText(cs.getSSLTrustStore());
+            this.tfSSLTrustStorePassword.setText(cs.getSSLTrustStorePassword());
+            this.cbSSLTrustAll.setSelected(cs.getSSLTrustAll());
+            this.tfSSLProtocols.setText(cs.getSSLProtocols());
+            this.tfSSLCipherSuites.setText(cs.getSSLCipherSuites());
+            this.cbSSLResumption.setSelected(cs.getSSLResumption());
+
+            //Wire trace settings
+            this.tfTraceFile.setText(cs.getTraceFile());
+            this.tfTraceSampleRate.setText(String.valueOf(cs.getTraceSampleRate()));
+            this.tfTraceBufferSize.setText(String.valueOf(cs.getTraceBufferSize()));
+            this.tfTraceMaxFileSize.setText(String.valueOf(cs.getTraceMaxFileSize()));
+            this.tfTraceMaxFiles.setText(String.valueOf(cs.getTraceMaxFiles()));
+            this.cbTraceMask.setSelected(cs.getTraceMask());
+        }
+    }
+
+    @Override
+    public void modifyTestElement(TestElement element) {
+        super.configureTestElement(element);
+        if(element instanceof SessionConfig) {
+            SessionConfig config = (SessionConfig) element;
+            config.setName(tfName.getText());
+            config.setComment(tfComments.getText());
+
+            //Pool settings
+            config.setPoolMaxSize(Integer.parseInt(tfPoolMaxSize.getText()));
+            config.setPoolMinIdle(Integer.parseInt(tfPoolMinIdle.getText()));
+            config.setPoolWaitTimeout(Integer.parseInt(tfPoolWaitTimeout.getText()));
+
+            //Keepalive settings
+            config.setKeepAliveInterval(Integer.parseInt(tfKeepAliveInterval.getText()));
+            config.setIdleTtl(Integer.parseInt(tfIdleTtl.getText()));
+            config.setKeeperThreads(Integer.parseInt(tfKeeperThreads.getText()));
+
+            //SSL settings
+            config.setSSLKeyStore(tfSSLKeyStore.getText());
+            config.setSSLKeyStorePassword(new String(tfSSLKeyStorePassword.getPassword()));
+            config.setSSLTrustStore(tfSSLTrustStore.getText());
+            config.setSSLTrustStorePassword(new String(tfSSLTrustStorePassword.getPassword()));
+            config.setSSLTrustAll(cbSSLTrustAll.isSelected());
+            config.setSSLProtocols(tfSSLProtocols.getText());
+            config.setSSLCipherSuites(tfSSLCipherSuites.getText());
+            config.setSSLResumption(cbSSLResumption.isSelected());
+
+            //Wire trace settings
+            config.setTraceFile(tfTraceFile.getText());
+            config.setTraceSampleRate(Integer.parseInt(tfTraceSampleRate.getText()));
+            config.setTraceBufferSize(Integer.parseInt(tfTraceBufferSize.getText()));
+            config.setTraceMaxFileSize(Integer.parseInt(tfTraceMaxFileSize.getText()));
+            config.setTraceMaxFiles(Integer.parseInt(tfTraceMaxFiles.getText()));
+            config.setTraceMask(cbTraceMask.isSelected());
+        }
+    }
+    private void initFields() {
+        this.tfName.setText("Mail Session Config");
+        this.tfComments.setText("");
+
+        //Pool settings
+        this.tfPoolMaxSize.setText("100");
+        this.tfPoolMinIdle.setText("0");
+        this.tfPoolWaitTimeout.setText("5000");
+
+        //Keepalive settings
+        this.tfKeepAliveInterval.setText("0");
+        this.tfIdleTtl.setText("0");
+        this.tfKeeperThreads.setText("2");
+
+        //SSL settings
+        this.tfSSLKeyStore.setText("");
+        this.tfSSLKeyStorePassword.setText("");
+        this.tfSSLTrustStore.setText("");
+        this.tfSSLTrustStorePassword.setText("");
+        this.cbSSLTrustAll.setSelected(false);
+        this.tfSSLProtocols.setText("");
+        this.tfSSLCipherSuites.setText("");
+        this.cbSSLResumption.setSelected(true);
+
+        //Wire trace settings
+        this.tfTraceFile.setText("");
+        this.tfTraceSampleRate.setText("1000");
+        this.tfTraceBufferSize.setText("65536");
+        this.tfTraceMaxFileSize.setText("100");
+        this.tfTraceMaxFiles.setText("5");
+        this.cbTraceMask.setSelected(true);
+    }
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        JPanel mainPanel = new JPanel(new GridBagLayout());
+
+        GridBagConstraints labelConstraints = new GridBagConstraints();
+        labelConstraints.anchor = GridBagConstraints.FIRST_LINE_END;
+
+        GridBagConstraints editConstraints = new GridBagConstraints();
+        editConstraints.anchor = GridBagConstraints.FIRST_LINE_START;
+        editConstraints.weightx = 1.0;
+        editConstraints.fill = GridBagConstraints.HORIZONTAL;
+
+        editConstraints.insets = new java.awt.Insets(2, 0, 0, 0);
+        labelConstraints.insets = new java.awt.Insets(2, 0, 0, 0);
+
+        JPanel jpHeaderPanel = new JPanel(new GridBagLayout());
+        addToPanel(jpHeaderPanel, labelConstraints, 0, 0, new JLabel("Name: ", JLabel.LEFT));
+        addToPanel(jpHeaderPanel, editConstraints, 1, 0, tfName = new JTextField(20));
+        addToPanel(jpHeaderPanel, labelConstraints, 0, 1, new JLabel("Comments: ", JLabel.LEFT));
+        addToPanel(jpHeaderPanel, editConstraints, 1, 1, tfComments = new JTextField(20));
+
+        jpPoolPanel = new JPanel(new GridBagLayout());
+        jpPoolPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Session Pool")); // $NON-NLS-1$
+        addToPanel(jpPoolPanel, labelConstraints, 0, 0, new JLabel("Max Size (per host, 0 - unbounded): ", JLabel.LEFT));
+        addToPanel(jpPoolPanel, editConstraints, 1, 0, tfPoolMaxSize = new JTextField(5));
+        addToPanel(jpPoolPanel, labelConstraints, 0, 1, new JLabel("Min Idle: ", JLabel.LEFT));
+        addToPanel(jpPoolPanel, editConstraints, 1, 1, tfPoolMinIdle = new JTextField(5));
+        addToPanel(jpPoolPanel, labelConstraints, 0, 2, new JLabel("Wait Timeout: ", JLabel.LEFT));
+        addToPanel(jpPoolPanel, editConstraints, 1, 2, tfPoolWaitTimeout = new JTextField(5));
+
+        jpKeeperPanel = new JPanel(new GridBagLayout());
+        jpKeeperPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Keepalive")); // $NON-NLS-1$
+        addToPanel(jpKeeperPanel, labelConstraints, 0, 0, new JLabel("NOOP Interval (0 - disabled): ", JLabel.LEFT));
+        addToPanel(jpKeeperPanel, editConstraints, 1, 0, tfKeepAliveInterval = new JTextField(5));
+        addToPanel(jpKeeperPanel, labelConstraints, 0, 1, new JLabel("Idle TTL (0 - disabled): ", JLabel.LEFT));
+        addToPanel(jpKeeperPanel, editConstraints, 1, 1, tfIdleTtl = new JTextField(5));
+        addToPanel(jpKeeperPanel, labelConstraints, 0, 2, new JLabel("Threads: ", JLabel.LEFT));
+        addToPanel(jpKeeperPanel, editConstraints, 1, 2, tfKeeperThreads = new JTextField(5));
+
+        jpSSLPanel = new JPanel(new GridBagLayout());
+        jpSSLPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "SSL/TLS")); // $NON-NLS-1$
+        addToPanel(jpSSLPanel, labelConstraints, 0, 0, new JLabel("Keystore (client certificate): ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 0, tfSSLKeyStore = new JTextField(20));
+        addToPanel(jpSSLPanel, labelConstraints, 0, 1, new JLabel("Keystore Password: ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 1, tfSSLKeyStorePassword = new JPasswordField(20));
+        addToPanel(jpSSLPanel, labelConstraints, 0, 2, new JLabel("Truststore (empty - JVM default): ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 2, tfSSLTrustStore = new JTextField(20));
+        addToPanel(jpSSLPanel, labelConstraints, 0, 3, new JLabel("Truststore Password: ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 3, tfSSLTrustStorePassword = new JPasswordField(20));
+        addToPanel(jpSSLPanel, labelConstraints, 0, 4, new JLabel("Trust All Certificates: ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 4, cbSSLTrustAll = new JCheckBox());
+        addToPanel(jpSSLPanel, labelConstraints, 0, 5, new JLabel("Protocols (empty - JVM default): ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 5, tfSSLProtocols = new JTextField(20));
+        addToPanel(jpSSLPanel, labelConstraints, 0, 6, new JLabel("Cipher Suites (empty - JVM default): ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 6, tfSSLCipherSuites = new JTextField(20));
+        addToPanel(jpSSLPanel, labelConstraints, 0, 7, new JLabel("Session Resumption: ", JLabel.LEFT));
+        addToPanel(jpSSLPanel, editConstraints, 1, 7, cbSSLResumption = new JCheckBox());
+
+        jpTracePanel = new JPanel(new GridBagLayout());
+        jpTracePanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Wire Trace")); // $NON-NLS-1$
+        addToPanel(jpTracePanel, labelConstraints, 0, 0, new JLabel("File (empty - disabled): ", JLabel.LEFT));
+        addToPanel(jpTracePanel, editConstraints, 1, 0, tfTraceFile = new JTextField(20));
+        addToPanel(jpTracePanel, labelConstraints, 0, 1, new JLabel("Trace 1 of N Sessions: ", JLabel.LEFT));
+        addToPanel(jpTracePanel, editConstraints, 1, 1, tfTraceSampleRate = new JTextField(5));
+        addToPanel(jpTracePanel, labelConstraints, 0, 2, new JLabel("Buffer (records): ", JLabel.LEFT));
+        addToPanel(jpTracePanel, editConstraints, 1, 2, tfTraceBufferSize = new JTextField(5));
+        addToPanel(jpTracePanel, labelConstraints, 0, 3, new JLabel("Max File Size (MB): ", JLabel.LEFT));
+        addToPanel(jpTracePanel, editConstraints, 1, 3, tfTraceMaxFileSize = new JTextField(5));
+        addToPanel(jpTracePanel, labelConstraints, 0, 4, new JLabel("Max Files: ", JLabel.LEFT));
+        addToPanel(jpTracePanel, editConstraints, 1, 4, tfTraceMaxFiles = new JTextField(5));
+        addToPanel(jpTracePanel, labelConstraints, 0, 5, new JLabel("Mask Credentials: ", JLabel.LEFT));
+        addToPanel(jpTracePanel, editConstraints, 1, 5, cbTraceMask = new JCheckBox());
+
+        // Compilation panels
+        addToPanel(mainPanel, editConstraints, 0, 0, jpHeaderPanel);
+        addToPanel(mainPanel, editConstraints, 0, 1, jpPoolPanel);
+        addToPanel(mainPanel, editConstraints, 0, 2, jpKeeperPanel);
+        addToPanel(mainPanel, editConstraints, 0, 3, jpSSLPanel);
+        addToPanel(mainPanel, editConstraints, 0, 4, jpTracePanel);
+
+        JPanel container = new JPanel(new BorderLayout());
+        container.add(mainPanel, BorderLayout.NORTH);
+        add(container, BorderLayout.CENTER);
+    }
+    private void addToPanel(JPanel panel, GridBagConstraints constraints, int col, int row, JComponent component) {
+        constraints.gridx = col;
+        constraints.gridy = row;
+        panel.add(component, constraints);
+    }
+}
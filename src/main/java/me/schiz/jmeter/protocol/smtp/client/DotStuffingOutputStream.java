@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.smtp.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.1
+ * Streaming dot-stuffing of SMTP DATA (RFC 5321, 4.5.2), bare LF becomes CRLF.
+ * Lines are written in bulk ranges, {@link #finish()} terminates message with CRLF.CRLF
+ */
+public class DotStuffingOutputStream extends FilterOutputStream {
+    private static final byte[] STUFF = {'.'};
+    private static final byte[] CR = {'\r'};
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] TERMINATOR = {'.', '\r', '\n'};
+
+    // previous byte of message, every LF written is preceded by CR
+    private int last = '\n';
+
+    public DotStuffingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(b == '.' && last == '\n') out.write('.');
+        if(b == '\n' && last != '\r') out.write('\r');
+        out.write(b);
+        last = b & 0xff;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if(len <= 0) return;
+        int end = off + len;
+        int from = off;
+        int prev = last;
+        for(int i = off; i < end; ++i) {
+            byte b = buf[i];
+            if(b == '.' && prev == '\n') {
+                out.write(buf, from, i - from);
+                out.write(STUFF);
+                from = i;
+            } else if(b == '\n' && prev != '\r') {
+                out.write(buf, from, i - from);
+                out.write(CR);
+                from = i;
+            }
+            prev = b;
+        }
+        out.write(buf, from, end - from);
+        last = buf[end - 1] & 0xff;
+    }
+
+    /**
+     * Writes end of data indicator and flushes, underlying stream stays open
+     */
+    public void finish() throws IOException {
+        if(last != '\n') out.write(CRLF);
+        out.write(TERMINATOR);
+        out.flush();
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package me.schiz.jmeter.protocol.smtp.client;
+
+import me.schiz.jmeter.protocol.net.Capabilities;
+import me.schiz.jmeter.protocol.net.ConnectionStats;
+import me.schiz.jmeter.protocol.net.MeteredSocketFactory;
+import me.schiz.jmeter.protocol.net.SaslMechanism;
+import me.schiz.jmeter.protocol.net.SessionClient;
+import me.schiz.jmeter.protocol.net.SharedSSLContext;
+import org.apache.commons.net.smtp.SMTPReply;
+import org.apache.commons.net.smtp.SMTPSClient;
+
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Epikhin Mikhail (epikhinm@gmail.com)
+ * @version 0.3
+ * SMTP client over SharedSSLContext: implicit TLS, STARTTLS and plain connections with connect phase and TLS handshake statistics.
+ * Remembers EHLO extensions (parsed once per endpoint, see Capabilities), sends pipelined commands (RFC 2920) and authenticates by SASL (RFC 4954).
+ * Session greeted by LHLO is LMTP (RFC 2033): end of data is answered for every accepted recipient
+ */
+public class SMTPSessionClient extends SMTPSClient implements SessionClient {
+    private static final int CHUNK_SIZE = 65536;
+    // server challenge, RFC 4954
+    private static final int AUTH_CONTINUE = 334;
+    private static final int MAX_AUTH_STEPS = 8;
+    private final boolean implicit;
+    private final ConnectionStats stats = new ConnectionStats();
+    private String hostname = null;
+    // end of STARTTLS command, start of TLS handshake
+    private long upgraded = 0;
+    // EHLO keywords, null before EHLO
+    private Capabilities extensions = null;
+    private boolean lmtp = false;
+    // copy buffer for streaming mapped messages
+    private byte[] chunk = null;
+
+    /**
+     * Reply to one command of transaction
+     */
+    public static class Reply {
+        public final String command;
+        public final int code;
+        public final String text;
+        public final long start;
+        public final long end;
+
+        Reply(String command, int code, String text, long start, long end) {
+            this.command = command;
+            this.code = code;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param implicit TLS handshake right after TCP connect, otherwise plain connection (STARTTLS is possible)
+     */
+    public SMTPSessionClient(boolean implicit) {
+        super(false, SharedSSLContext.getInstance().getContext());
+        this.implicit = implicit;
+        setSocketFactory(new MeteredSocketFactory(stats));
+        SharedSSLContext shared = SharedSSLContext.getInstance();
+        if(shared.getProtocols() != null) setEnabledProtocols(shared.getProtocols());
+        if(shared.getCipherSuites() != null) setEnabledCipherSuites(shared.getCipherSuites());
+    }
+
+    @Override
+    public void connect(String hostname, int port) throws SocketException, IOException {
+        this.hostname = hostname;
+        super.connect(resolve(hostname), port);
+    }
+
+    @Override
+    public void connect(String hostname, int port, InetAddress localAddr, int localPort) throws SocketException, IOException {
+        this.hostname = hostname;
+        super.connect(resolve(hostname), port, localAddr, localPort);
+    }
+
+    @Override
+    protected void _connectAction_() throws IOException {
+        if(implicit) {
+            String host = hostname != null ? hostname : getRemoteAddress().getHostAddress();
+            _socket_ = SharedSSLContext.getInstance().handshake(_socket_, host, getRemotePort(), stats);
+            _input_ = _socket_.getInputStream();
+            _output_ = _socket_.getOutputStream();
+        }
+        stats.greetingStarted();
+        super._connectAction_();
+        stats.greetingReceived();
+    }
+
+    @Override
+    public boolean execTLS() throws IOException {
+        if(!super.execTLS()) return false;
+        // RFC 3207: forget everything learned before TLS
+        extensions = null;
+        SharedSSLContext.getInstance().handshaked((SSLSocket) _socket_, upgraded, stats);
+        return true;
+    }
+
+    @Override
+    public int sendCommand(String command, String args) throws IOException {
+        int reply = super.sendCommand(command, args);
+        if(command.equalsIgnoreCase("STARTTLS")) upgraded = System.currentTimeMillis();
+        String verb = command.trim();
+        if(verb.indexOf(' ') != -1) verb = verb.substring(0, verb.indexOf(' '));
+        if((verb.equalsIgnoreCase("EHLO") || verb.equalsIgnoreCase("LHLO")) && SMTPReply.isPositiveCompletion(reply)) {
+            String host = hostname != null ? hostname : getRemoteAddress().getHostAddress();
+            extensions = Capabilities.smtp(Capabilities.key("SMTP", host, getRemotePort(), isSecure()), getReplyStrings());
+            lmtp = verb.equalsIgnoreCase("LHLO");
+        }
+        return reply;
+    }
+
+    /**
+     * Aborts mail transaction by RSET
+     */
+    @Override
+    public boolean recycle() throws IOException {
+        if(!implicit && isSecure()) return false;
+        return reset();
+    }
+
+    /**
+     * @return true if session was greeted by LHLO
+     */
+    public boolean isLmtp() {
+        return lmtp;
+    }
+
+    /**
+     * @param keyword EHLO keyword, e.g. PIPELINING
+     */
+    public boolean hasExtension(String keyword) {
+        return extensions != null && extensions.has(keyword);
+    }
+
+    /**
+     * @return parameters of EHLO keyword or null if not advertised
+     */
+    public String getExtension(String keyword) {
+        return extensions == null ? null : extensions.get(keyword);
+    }
+
+    /**
+     * @return EHLO keywords of this session, null before EHLO
+     */
+    public Capabilities getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * Writes all commands with one flush, then reads reply to every command (RFC 2920)
+     */
+    public Reply[] pipeline(String[] commands) throws IOException {
+        StringBuilder batch = new StringBuilder();
+        for(String command : commands) batch.append(command).append("\r\n");
+        long start = System.currentTimeMillis();
+        _output_.write(batch.toString().getBytes(encoding));
+        _output_.flush();
+        for(String command : commands) fireCommandSent(verb(command), command + "\r\n");
+        Reply[] replies = new Reply[commands.length];
+        for(int i = 0; i < commands.length; ++i) {
+            int code = getReply();
+            replies[i] = new Reply(commands[i], code, getReplyString(), start, System.currentTimeMillis());
+        }
+        return replies;
+    }
+
+    /**
+     * Sends one command and reads its reply
+     */
+    public Reply command(String command) throws IOException {
+        long start = System.currentTimeMillis();
+        int code = sendCommand(command);
+        return new Reply(command, code, getReplyString(), start, System.currentTimeMillis());
+    }
+
+    /**
+     * Authenticates by SASL mechanism, initial response is sent with AUTH command.
+     * Exchange is cancelled by "*" if mechanism fails on server challenge
+     * @return replies to AUTH command and to every response
+     */
+    public Reply[] auth(SaslMechanism mechanism) throws IOException {
+        List<Reply> replies = new ArrayList<Reply>(4);
+        String initial = mechanism.initialResponse();
+        Reply reply;
+        if(initial == null) {
+            replies.add(reply = command("AUTH " + mechanism.getName()));
+        } else {
+            // RFC 4954: empty initial response is sent as "="
+            String command = "AUTH " + mechanism.getName() + " " + (initial.isEmpty() ? "=" : initial);
+            replies.add(reply = command(command, "AUTH " + mechanism.getName() + " <initial response>"));
+        }
+        for(int step = 0; reply.code == AUTH_CONTINUE; ++step) {
+            String response = step < MAX_AUTH_STEPS ? mechanism.respond(challenge(reply)) : null;
+            if(response == null) replies.add(reply = command("*", "<cancel>"));
+            else replies.add(reply = command(response, "<response>"));
+        }
+        return replies.toArray(new Reply[replies.size()]);
+    }
+
+    // sends SASL response, reply is labeled to keep credentials out of results
+    private Reply command(String command, String label) throws IOException {
+        long start = System.currentTimeMillis();
+        int code = sendCommand(command);
+        return new Reply(label, code, getReplyString(), start, System.currentTimeMillis());
+    }
+
+    private static String challenge(Reply reply) {
+        String text = reply.text.trim();
+        return text.length() > 4 ? text.substring(4) : "";
+    }
+
+    /**
+     * Sends message after positive DATA reply: dot-stuffing, end of data indicator, final reply
+     */
+    public Reply sendData(byte[] message) throws IOException {
+        return sendData(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Streams message after positive DATA reply in chunks, e.g. memory-mapped file or generated segments
+     */
+    public Reply sendData(ByteBuffer... message) throws IOException {
+        long start = System.currentTimeMillis();
+        writeData(message);
+        int code = getReply();
+        return new Reply("<message>", code, getReplyString(), start, System.currentTimeMillis());
+    }
+
+    /**
+     * Streams message after positive DATA reply and reads LMTP reply for every accepted recipient.
+     * Delivery replies are timed from end of data
+     * @param recipients accepted recipients in RCPT TO order
+     */
+    public Reply[] sendData(ByteBuffer[] message, String[] recipients) throws IOException {
+        writeData(message);
+        return deliveries(recipients, System.currentTimeMillis());
+    }
+
+    private void writeData(ByteBuffer[] message) throws IOException {
+        if(chunk == null) chunk = new byte[CHUNK_SIZE];
+        DotStuffingOutputStream data = new DotStuffingOutputStream(new BufferedOutputStream(_output_, CHUNK_SIZE));
+        for(ByteBuffer segment : message) {
+            while(segment.hasRemaining()) {
+                int length = Math.min(chunk.length, segment.remaining());
+                segment.get(chunk, 0, length);
+                data.write(chunk, 0, length);
+            }
+        }
+        data.finish();
+    }
+
+    private Reply[] deliveries(String[] recipients, long start) throws IOException {
+        Reply[] replies = new Reply[Math.max(recipients.length, 1)];
+        for(int i = 0; i < replies.length; ++i) {
+            int code = getReply();
+            String label = recipients.length == 0 ? "<message>" : "LMTP <" + recipients[i] + ">";
+            replies[i] = new Reply(label, code, getReplyString(), start, System.currentTimeMillis());
+        }
+        return replies;
+    }
+
+    /**
+     * Sends message by BDAT chunks (RFC 3030) as is, without dot-stuffing
+     * @param chunkSize max chunk size, 0 - one chunk
+     * @param pipelined write all chunks before reading replies
+     */
+    public Reply[] sendChunks(ByteBuffer[] message, int chunkSize, boolean pipelined) throws IOException {
+        return sendChunks(message, chunkSize, pipelined, null);
+    }
+
+    /**
+     * Sends message by BDAT chunks, LAST chunk of LMTP session is answered for every accepted recipient
+     * @param recipients accepted recipients in RCPT TO order, null - one reply to LAST chunk
+     */
+    public Reply[] sendChunks(ByteBuffer[] message, int chunkSize, boolean pipelined, String[] recipients) throws IOException {
+        int remaining = 0;
+        for(ByteBuffer segment : message) remaining += segment.remaining();
+        if(chunkSize <= 0) chunkSize = Math.max(remaining, 1);
+        int count = Math.max((remaining + chunkSize - 1) / chunkSize, 1);
+        if(chunk == null) chunk = new byte[CHUNK_SIZE];
+        BufferedOutputStream out = new BufferedOutputStream(_output_, CHUNK_SIZE);
+        List<Reply> replies = new ArrayList<Reply>(count);
+        String[] commands = new String[count];
+        int segment = 0;
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < count; ++i) {
+            int size = Math.min(chunkSize, remaining);
+            remaining -= size;
+            String command = "BDAT " + size + (i == count - 1 ? " LAST" : "");
+            commands[i] = command;
+            out.write((command + "\r\n").getBytes(encoding));
+            int left = size;
+            while(left > 0) {
+                while(!message[segment].hasRemaining()) segment++;
+                int length = Math.min(Math.min(chunk.length, left), message[segment].remaining());
+                message[segment].get(chunk, 0, length);
+                out.write(chunk, 0, length);
+                left -= length;
+            }
+            fireCommandSent("BDAT", command + "\r\n");
+            if(!pipelined) {
+                out.flush();
+                if(i == count - 1 && recipients != null) {
+                    replies.addAll(Arrays.asList(deliveries(recipients, System.currentTimeMillis())));
+                    break;
+                }
+                int code = getReply();
+                replies.add(new Reply(command, code, getReplyString(), start, System.currentTimeMillis()));
+                start = System.currentTimeMillis();
+                // server rejected chunk, transaction is over
+                if(!SMTPReply.isPositiveCompletion(code)) break;
+            }
+        }
+        if(pipelined) {
+            out.flush();
+            long flushed = System.currentTimeMillis();
+            for(int i = 0; i < count; ++i) {
+                if(i == count - 1 && recipients != null) {
+                    replies.addAll(Arrays.asList(deliveries(recipients, flushed)));
+                    break;
+                }
+                int code = getReply();
+                replies.add(new Reply(commands[i], code, getReplyString(), start, System.currentTimeMillis()));
+            }
+        }
+        return replies.toArray(new Reply[replies.size()]);
+    }
+
+    private static String verb(String command) {
+        int space = command.indexOf(' ');
+        return space == -1 ? command : command.substring(0, space);
+    }
+
+    private InetAddress resolve(String hostname) throws IOException {
+        long start = System.currentTimeMillis();
+        InetAddress address = InetAddress.getByName(hostname);
+        stats.resolved(start, System.currentTimeMillis());
+        return address;
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return _socket_ instanceof SSLSocket;
+    }
+}
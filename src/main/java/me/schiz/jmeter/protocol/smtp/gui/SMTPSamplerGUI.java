@@ -17,6 +17,7 @@
  */
 package me.schiz.jmeter.protocol.smtp.gui;
 
+import me.schiz.jmeter.protocol.net.Sasl;
 import me.schiz.jmeter.protocol.smtp.sampler.SMTPSampler;
 import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
 import org.apache.jmeter.testelement.TestElement;
@@ -45,6 +46,26 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
     private JPanel          jpCommandPanel;
     private JTextArea       taCommand;
 
+    //Message panel
+    private JPanel          jpMessagePanel;
+    private JTextField      tfMailFrom;
+    private JTextField      tfRcptTo;
+    private JTextField      tfRcptSource;
+    private JTextField      tfRcptCount;
+    private JTextArea       taMessage;
+    private JTextField      tfMessageFile;
+    private JTextField      tfGenerator;
+    private JCheckBox       cbUsePipelining;
+    private JCheckBox       cbUseChunking;
+    private JCheckBox       cbUseBinaryMime;
+    private JTextField      tfChunkSize;
+
+    //Authentication panel
+    private JPanel          jpAuthPanel;
+    private JComboBox       cbAuthMechanism;
+    private JTextField      tfUsername;
+    private JPasswordField  tfPassword;
+
     //Server settings
     private JPanel          jpServerPanel;
     private JTextField      tfHostname;
@@ -55,6 +76,7 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
     private JCheckBox       cbUseSSL;
     private JCheckBox       cbUseSTARTTLS;
     private JCheckBox       cbTcpNoDelay;
+    private JCheckBox       cbUsePool;
 
     public SMTPSamplerGUI() {
         super();
@@ -97,6 +119,24 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
             //Command panel
             this.taCommand.setText(cs.getPropertyAsString(SMTPSampler.COMMAND));
 
+            //Message panel
+            this.tfMailFrom.setText(cs.getMailFrom());
+            this.tfRcptTo.setText(cs.getRcptTo());
+            this.tfRcptSource.setText(cs.getRcptSource());
+            this.tfRcptCount.setText(cs.getRcptCount());
+            this.taMessage.setText(cs.getMessage());
+            this.tfMessageFile.setText(cs.getMessageFile());
+            this.tfGenerator.setText(cs.getGenerator());
+            this.cbUsePipelining.setSelected(cs.getUsePipelining());
+            this.cbUseChunking.setSelected(cs.getUseChunking());
+            this.cbUseBinaryMime.setSelected(cs.getUseBinaryMime());
+            this.tfChunkSize.setText(String.valueOf(cs.getChunkSize()));
+
+            //Authentication panel
+            this.cbAuthMechanism.setSelectedItem(cs.getAuthMechanism());
+            this.tfUsername.setText(cs.getUsername());
+            this.tfPassword.setText(cs.getPassword());
+
             //Server settings
             this.tfHostname.setText(cs.getPropertyAsString(SMTPSampler.HOSTNAME));
             this.tfPort.setText("" + cs.getPropertyAsInt(SMTPSampler.PORT));
@@ -108,6 +148,7 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
             this.cbUseSSL.setSelected(cs.getUseSSL());
             this.cbUseSTARTTLS.setSelected(cs.getUseSTARTTLS());
             this.cbTcpNoDelay.setSelected(cs.getPropertyAsBoolean(SMTPSampler.TCP_NODELAY));
+            this.cbUsePool.setSelected(cs.getUsePool());
         }
     }
 
@@ -124,6 +165,24 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
             //Command panel
             smtpSampler.setCommand(taCommand.getText());
 
+            //Message panel
+            smtpSampler.setMailFrom(tfMailFrom.getText());
+            smtpSampler.setRcptTo(tfRcptTo.getText());
+            smtpSampler.setRcptSource(tfRcptSource.getText());
+            smtpSampler.setRcptCount(tfRcptCount.getText());
+            smtpSampler.setMessage(taMessage.getText());
+            smtpSampler.setMessageFile(tfMessageFile.getText());
+            smtpSampler.setGenerator(tfGenerator.getText());
+            smtpSampler.setUsePipelining(cbUsePipelining.isSelected());
+            smtpSampler.setUseChunking(cbUseChunking.isSelected());
+            smtpSampler.setUseBinaryMime(cbUseBinaryMime.isSelected());
+            smtpSampler.setChunkSize(Integer.parseInt(tfChunkSize.getText()));
+
+            //Authentication panel
+            smtpSampler.setAuthMechanism((String) cbAuthMechanism.getSelectedItem());
+            smtpSampler.setUsername(tfUsername.getText());
+            smtpSampler.setPassword(new String(tfPassword.getPassword()));
+
             //Server settings
             smtpSampler.setHostname(tfHostname.getText());
             smtpSampler.setPort(Integer.parseInt(tfPort.getText()));
@@ -133,17 +192,36 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
             smtpSampler.setUseSSL(cbUseSSL.isSelected());
             smtpSampler.setUseSTARTTLS(cbUseSTARTTLS.isSelected());
             smtpSampler.setTcpNoDelay(cbTcpNoDelay.isSelected());
+            smtpSampler.setUsePool(cbUsePool.isSelected());
 
             String curOp = cbOperation.getSelectedItem().toString();
             if(curOp.equals("CONNECT")) {
                 setEnabledServerPanel(true);
                 setEnabledCommandPanel(false);
+                setEnabledMessagePanel(false);
+                // pooled CONNECT prefers session authenticated as this user
+                setEnabledAuthPanel(false);
+                tfUsername.setEnabled(true);
             } else if (curOp.equals("COMMAND")) {
                 setEnabledServerPanel(false);
                 setEnabledCommandPanel(true);
+                setEnabledMessagePanel(false);
+                setEnabledAuthPanel(false);
+            } else if (curOp.equals("SEND")) {
+                setEnabledServerPanel(false);
+                setEnabledCommandPanel(false);
+                setEnabledMessagePanel(true);
+                setEnabledAuthPanel(false);
+            } else if (curOp.equals("AUTH")) {
+                setEnabledServerPanel(false);
+                setEnabledCommandPanel(false);
+                setEnabledMessagePanel(false);
+                setEnabledAuthPanel(true);
             } else {
                 setEnabledServerPanel(false);
                 setEnabledCommandPanel(false);
+                setEnabledMessagePanel(false);
+                setEnabledAuthPanel(false);
             }
         }
     }
@@ -158,6 +236,24 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         //Command panel
         this.taCommand.setText("HELO smtp.example.org");
 
+        //Message panel
+        this.tfMailFrom.setText("sender@example.org");
+        this.tfRcptTo.setText("rcpt@example.org");
+        this.tfRcptSource.setText("");
+        this.tfRcptCount.setText("1-500");
+        this.taMessage.setText("Subject: test\n\ntest message");
+        this.tfMessageFile.setText("");
+        this.tfGenerator.setText("");
+        this.cbUsePipelining.setSelected(true);
+        this.cbUseChunking.setSelected(false);
+        this.cbUseBinaryMime.setSelected(false);
+        this.tfChunkSize.setText("1048576");
+
+        //Authentication panel
+        this.cbAuthMechanism.setSelectedItem("PLAIN");
+        this.tfUsername.setText("");
+        this.tfPassword.setText("");
+
         //Server settings
         this.tfHostname.setText("127.0.0.1");
         this.tfPort.setText("25");
@@ -167,6 +263,7 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         this.cbUseSSL.setSelected(false);
         this.cbUseSTARTTLS.setSelected(false);
         this.cbTcpNoDelay.setSelected(true);
+        this.cbUsePool.setSelected(false);
     }
     private void init() {
         setLayout(new BorderLayout(0, 5));
@@ -213,6 +310,43 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         taCommand.setLineWrap(true);
         taCommand.setWrapStyleWord(true);
 
+        jpMessagePanel = new JPanel(new GridBagLayout());
+        jpMessagePanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Message")); // $NON-NLS-1$
+        addToPanel(jpMessagePanel, labelConstraints, 0, 0, new JLabel("Mail From: ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 0, tfMailFrom = new JTextField(20));
+        addToPanel(jpMessagePanel, labelConstraints, 0, 1, new JLabel("Rcpt To: ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 1, tfRcptTo = new JTextField(20));
+        addToPanel(jpMessagePanel, labelConstraints, 0, 2, new JLabel("Rcpt Source (file or user{1-1000}@host): ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 2, tfRcptSource = new JTextField(20));
+        addToPanel(jpMessagePanel, labelConstraints, 0, 3, new JLabel("Recipients per Message (n or min-max): ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 3, tfRcptCount = new JTextField(10));
+        addToPanel(jpMessagePanel, labelConstraints, 0, 4, new JLabel("Message: ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 4, taMessage = new JTextArea());
+        taMessage.setColumns(32);
+        taMessage.setRows(6);
+        addToPanel(jpMessagePanel, labelConstraints, 0, 5, new JLabel("Message File or Directory: ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 5, tfMessageFile = new JTextField(20));
+        addToPanel(jpMessagePanel, labelConstraints, 0, 6, new JLabel("Generated Sizes (size:weight, ...): ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 6, tfGenerator = new JTextField(20));
+        addToPanel(jpMessagePanel, editConstraints, 1, 7, cbUsePipelining = new JCheckBox("PIPELINING"));
+        addToPanel(jpMessagePanel, editConstraints, 1, 8, cbUseChunking = new JCheckBox("CHUNKING (BDAT)"));
+        addToPanel(jpMessagePanel, editConstraints, 1, 9, cbUseBinaryMime = new JCheckBox("BINARYMIME"));
+        addToPanel(jpMessagePanel, labelConstraints, 0, 10, new JLabel("Chunk Size (0 - whole message): ", JLabel.LEFT));
+        addToPanel(jpMessagePanel, editConstraints, 1, 10, tfChunkSize = new JTextField(10));
+
+        jpAuthPanel = new JPanel(new GridBagLayout());
+        jpAuthPanel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Authentication")); // $NON-NLS-1$
+        addToPanel(jpAuthPanel, labelConstraints, 0, 0, new JLabel("Mechanism: ", JLabel.LEFT));
+        addToPanel(jpAuthPanel, editConstraints, 1, 0, cbAuthMechanism = new JComboBox(Sasl.MECHANISMS));
+        addToPanel(jpAuthPanel, labelConstraints, 0, 1, new JLabel("Username: ", JLabel.LEFT));
+        addToPanel(jpAuthPanel, editConstraints, 1, 1, tfUsername = new JTextField(20));
+        addToPanel(jpAuthPanel, labelConstraints, 0, 2, new JLabel("Password or Token: ", JLabel.LEFT));
+        addToPanel(jpAuthPanel, editConstraints, 1, 2, tfPassword = new JPasswordField(20));
+
         jpServerPanel = new JPanel(new GridBagLayout());
         jpServerPanel.setBorder(BorderFactory.createTitledBorder(
                 BorderFactory.createEtchedBorder(),
@@ -224,6 +358,7 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         addToPanel(jpServerPanel, editConstraints, 3, 0, tfPort = new JTextField(5));
         addToPanel(jpServerPanel, editConstraints, 3, 1, cbUseSSL = new JCheckBox("SSL"));
         addToPanel(jpServerPanel, editConstraints, 3, 2, cbTcpNoDelay = new JCheckBox("TCP_NODELAY"));
+        addToPanel(jpServerPanel, editConstraints, 3, 4, cbUsePool = new JCheckBox("Pooled"));
         addToPanel(jpServerPanel, editConstraints, 3, 3, cbUseSTARTTLS = new JCheckBox("STARTTLS"));
         addToPanel(jpServerPanel, labelConstraints, 0, 1, new JLabel("Default Timeout: ", JLabel.LEFT));
         addToPanel(jpServerPanel, editConstraints, 1, 1, tfDefaultTimeout = new JTextField(5));
@@ -236,7 +371,9 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         addToPanel(mainPanel, editConstraints, 0, 0, jpHeaderPanel);
         addToPanel(mainPanel, editConstraints, 0, 1, jpGeneralPanel);
         addToPanel(mainPanel, editConstraints, 0, 2, jpCommandPanel);
-        addToPanel(mainPanel, editConstraints, 0, 3, jpServerPanel);
+        addToPanel(mainPanel, editConstraints, 0, 3, jpMessagePanel);
+        addToPanel(mainPanel, editConstraints, 0, 4, jpAuthPanel);
+        addToPanel(mainPanel, editConstraints, 0, 5, jpServerPanel);
 
         JPanel container = new JPanel(new BorderLayout());
         container.add(makeTitlePanel(), BorderLayout.NORTH);
@@ -254,6 +391,28 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         taCommand.setEnabled(enabled);
     }
 
+    private void setEnabledMessagePanel(boolean enabled) {
+        jpMessagePanel.setEnabled(enabled);
+        tfMailFrom.setEnabled(enabled);
+        tfRcptTo.setEnabled(enabled);
+        tfRcptSource.setEnabled(enabled);
+        tfRcptCount.setEnabled(enabled);
+        taMessage.setEnabled(enabled);
+        tfMessageFile.setEnabled(enabled);
+        tfGenerator.setEnabled(enabled);
+        cbUsePipelining.setEnabled(enabled);
+        cbUseChunking.setEnabled(enabled);
+        cbUseBinaryMime.setEnabled(enabled);
+        tfChunkSize.setEnabled(enabled);
+    }
+
+    private void setEnabledAuthPanel(boolean enabled) {
+        jpAuthPanel.setEnabled(enabled);
+        cbAuthMechanism.setEnabled(enabled);
+        tfUsername.setEnabled(enabled);
+        tfPassword.setEnabled(enabled);
+    }
+
     private void setEnabledServerPanel(boolean enabled) {
         jpServerPanel.setEnabled(enabled);
         tfHostname.setEnabled(enabled);
@@ -264,5 +423,6 @@ public class SMTPSamplerGUI extends AbstractSamplerGui {
         cbUseSSL.setEnabled(enabled);
         cbUseSTARTTLS.setEnabled(enabled);
         cbTcpNoDelay.setEnabled(enabled);
+        cbUsePool.setEnabled(enabled);
     }
 }
\ No newline at end of file
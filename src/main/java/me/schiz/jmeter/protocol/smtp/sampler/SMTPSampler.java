@@ -17,7 +17,18 @@
  */
 package me.schiz.jmeter.protocol.smtp.sampler;
 
+import me.schiz.jmeter.protocol.Session;
+import me.schiz.jmeter.protocol.SessionPool;
 import me.schiz.jmeter.protocol.SessionStorage;
+import me.schiz.jmeter.protocol.net.DeliveryClock;
+import me.schiz.jmeter.protocol.net.MessageCorpus;
+import me.schiz.jmeter.protocol.net.MessageGenerator;
+import me.schiz.jmeter.protocol.net.RecipientSource;
+import me.schiz.jmeter.protocol.net.Sasl;
+import me.schiz.jmeter.protocol.net.SaslMechanism;
+import me.schiz.jmeter.protocol.net.SessionClient;
+import me.schiz.jmeter.protocol.net.WireTrace;
+import me.schiz.jmeter.protocol.smtp.client.SMTPSessionClient;
 import org.apache.commons.net.SocketClient;
 import org.apache.commons.net.smtp.SMTPClient;
 import org.apache.commons.net.smtp.SMTPReply;
@@ -30,7 +41,13 @@ import org.apache.log.Logger;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author Epikhin Mikhail (epihin-m@yandex.ru)
@@ -57,13 +74,35 @@ public class SMTPSampler extends AbstractSampler{
     public static final String USE_SSL = "SMTPSampler.use_ssl";
     public static final String USE_STARTTLS = "SMTPSampler.use_starttls";
     public static final String TCP_NODELAY = "SMTPSampler.tcp_nodelay";
+    public static final String USE_POOL = "SMTPSampler.use_pool";
+    public static final String MAIL_FROM = "SMTPSampler.mail_from";
+    public static final String RCPT_TO = "SMTPSampler.rcpt_to";
+    public static final String RCPT_SOURCE = "SMTPSampler.rcpt_source";
+    public static final String RCPT_COUNT = "SMTPSampler.rcpt_count";
+    public static final String MESSAGE = "SMTPSampler.message";
+    public static final String MESSAGE_FILE = "SMTPSampler.message_file";
+    public static final String GENERATOR = "SMTPSampler.generator";
+    public static final String USE_PIPELINING = "SMTPSampler.use_pipelining";
+    public static final String USE_CHUNKING = "SMTPSampler.use_chunking";
+    public static final String CHUNK_SIZE = "SMTPSampler.chunk_size";
+    public static final String USE_BINARYMIME = "SMTPSampler.use_binarymime";
+    public static final String AUTH_MECHANISM = "SMTPSampler.auth_mechanism";
+    public static final String USERNAME = "SMTPSampler.username";
+    public static final String PASSWORD = "SMTPSampler.password";
 
 
     public static final LinkedList<String> operations = new LinkedList<String>();
 
+    // label prefixes of replies to RCPT TO and of LMTP deliveries
+    private static final String RCPT = "RCPT TO:<";
+    private static final String LMTP = "LMTP <";
+
     //Operations
     static {
         operations.push("DISCONNECT");
+        operations.push("SEND");
+        operations.push("AUTH");
+        operations.push("STARTTLS");
         operations.push("NOOP");
         operations.push("COMMAND");
         operations.push("RESET");
@@ -133,38 +172,213 @@ public class SMTPSampler extends AbstractSampler{
     public void setUseSSL(boolean use) {
         setProperty(USE_SSL, use);
     }
+    /**
+     * @return true if connection starts plain and is upgraded by STARTTLS operation or by first LHLO/EHLO/HELO command
+     */
     public boolean getUseSTARTTLS() {
         return getPropertyAsBoolean(USE_STARTTLS);
     }
     public void setUseSTARTTLS(boolean use) {
         setProperty(USE_STARTTLS, use);
     }
+    public boolean getUsePool() {
+        return getPropertyAsBoolean(USE_POOL);
+    }
+    public void setUsePool(boolean use) {
+        setProperty(USE_POOL, use);
+    }
+    public String getMailFrom() {
+        return getPropertyAsString(MAIL_FROM);
+    }
+    public void setMailFrom(String mailFrom) {
+        setProperty(MAIL_FROM, mailFrom);
+    }
+    /**
+     * @return recipients separated by comma, space or new line
+     */
+    public String getRcptTo() {
+        return getPropertyAsString(RCPT_TO);
+    }
+    public void setRcptTo(String rcptTo) {
+        setProperty(RCPT_TO, rcptTo);
+    }
+    public String[] getRecipients() {
+        String rcptTo = getRcptTo().trim();
+        if(rcptTo.isEmpty()) return new String[0];
+        return rcptTo.split("[,;\\s]+");
+    }
+    /**
+     * @return file of recipients or pattern like "user{1-100000}@example.org", empty - Rcpt To list
+     */
+    public String getRcptSource() {
+        return getPropertyAsString(RCPT_SOURCE);
+    }
+    public void setRcptSource(String source) {
+        setProperty(RCPT_SOURCE, source);
+    }
+    /**
+     * @return recipients per message from source, count or range like "1-500"
+     */
+    public String getRcptCount() {
+        return getPropertyAsString(RCPT_COUNT, "1");
+    }
+    public void setRcptCount(String count) {
+        setProperty(RCPT_COUNT, count);
+    }
+    public String getMessage() {
+        return getPropertyAsString(MESSAGE);
+    }
+    public void setMessage(String message) {
+        setProperty(MESSAGE, message);
+    }
+    /**
+     * @return .eml file or directory of messages, empty - inline message
+     */
+    public String getMessageFile() {
+        return getPropertyAsString(MESSAGE_FILE);
+    }
+    public void setMessageFile(String file) {
+        setProperty(MESSAGE_FILE, file);
+    }
+    /**
+     * @return size distribution of generated messages, e.g. "4k:50, 64k:30, 1m:15, 10m:5", empty - not generated
+     */
+    public String getGenerator() {
+        return getPropertyAsString(GENERATOR);
+    }
+    public void setGenerator(String spec) {
+        setProperty(GENERATOR, spec);
+    }
+    public boolean getUsePipelining() {
+        return getPropertyAsBoolean(USE_PIPELINING);
+    }
+    public void setUsePipelining(boolean use) {
+        setProperty(USE_PIPELINING, use);
+    }
+    public boolean getUseChunking() {
+        return getPropertyAsBoolean(USE_CHUNKING);
+    }
+    public void setUseChunking(boolean use) {
+        setProperty(USE_CHUNKING, use);
+    }
+    /**
+     * @return BDAT chunk size, 0 - whole message in one chunk
+     */
+    public int getChunkSize() {
+        return getPropertyAsInt(CHUNK_SIZE);
+    }
+    public void setChunkSize(int size) {
+        setProperty(CHUNK_SIZE, size);
+    }
+    public boolean getUseBinaryMime() {
+        return getPropertyAsBoolean(USE_BINARYMIME);
+    }
+    public void setUseBinaryMime(boolean use) {
+        setProperty(USE_BINARYMIME, use);
+    }
+    /**
+     * @return SASL mechanism of AUTH, one of {@link Sasl#MECHANISMS}
+     */
+    public String getAuthMechanism() {
+        return getPropertyAsString(AUTH_MECHANISM, Sasl.PLAIN);
+    }
+    public void setAuthMechanism(String mechanism) {
+        setProperty(AUTH_MECHANISM, mechanism);
+    }
+    public String getUsername() {
+        return getPropertyAsString(USERNAME);
+    }
+    public void setUsername(String username) {
+        setProperty(USERNAME, username);
+    }
+    /**
+     * @return password or OAuth 2.0 access token for XOAUTH2
+     */
+    public String getPassword() {
+        return getPropertyAsString(PASSWORD);
+    }
+    public void setPassword(String password) {
+        setProperty(PASSWORD, password);
+    }
+    public SessionStorage.proto_type getProtoType() {
+        if(getUseSSL() && !getUseSTARTTLS()) return SessionStorage.proto_type.SSL;
+        if(!getUseSSL() && getUseSTARTTLS()) return SessionStorage.proto_type.STARTTLS;
+        return SessionStorage.proto_type.PLAIN;
+    }
     @Override
     public SampleResult sample(Entry e) {
         SampleResult sr = new SampleResult();
 
         sr.setSampleLabel(getName());
 
+        SessionClient before = getSessionClient();
+        if(before != null) before.getStats().mark();
+        // SessionKeeper doesn't reap session in the middle of sample
+        Session session = SessionStorage.getInstance().getSession(getSOClient());
+        boolean acquired = session != null && session.acquire();
+        try {
+            sampleOperation(sr);
+        } finally {
+            if(acquired) session.release();
+        }
+        // CONNECT attaches new client, DISCONNECT removes it
+        SessionClient after = getSessionClient();
+        if(after != null) after.getStats().reportBytes(sr);
+        else if(before != null) before.getStats().reportBytes(sr);
+        return sr;
+    }
+
+    private SampleResult sampleOperation(SampleResult sr) {
         if(getOperation().equals("CONNECT"))    return sampleConnect(sr);
         if(getOperation().equals("DISCONNECT"))    return sampleDisconnect(sr);
         if(getOperation().equals("NOOP"))   return sampleNoop(sr);
         if(getOperation().equals("RESET"))   return sampleReset(sr);
         if(getOperation().equals("COMMAND"))    return sampleCommand(sr);
+        if(getOperation().equals("SEND"))    return sampleSend(sr);
+        if(getOperation().equals("AUTH"))    return sampleAuth(sr);
+        if(getOperation().equals("STARTTLS"))    return sampleStartTls(sr);
 
         return sr;
     }
 
-    private SampleResult sampleConnect(SampleResult sr) {
-        SMTPClient client;
+    private SessionClient getSessionClient() {
+        SocketClient client = SessionStorage.getInstance().getClient(getSOClient());
+        if(client instanceof SessionClient) return (SessionClient) client;
+        return null;
+    }
 
-        if(getUseSSL()) {
-            client = new SMTPSClient(true);
-        } else if(getUseSTARTTLS()) {
-            client = new SMTPSClient(false);
-        } else {
-            client = new SMTPClient();
-        }
+    /**
+     * Connector with snapshot of server settings, pool may call it from own thread
+     */
+    private SessionPool.Connector getConnector() {
+        final boolean useSSL = getUseSSL();
+        final boolean useSTARTTLS = getUseSTARTTLS();
+        final String hostname = getHostname();
+        final int port = getPort();
+        final int defaultTimeout = getDefaultTimeout();
+        final int connectionTimeout = getConnectionTimeout();
+        final int soTimeout = getSoTimeout();
+        final boolean tcpNoDelay = getTcpNoDelay();
+        return new SessionPool.Connector() {
+            @Override
+            public SMTPClient connect() throws IOException {
+                SMTPClient client = new SMTPSessionClient(useSSL && !useSTARTTLS);
+                WireTrace.getInstance().attach(client, "smtp://" + hostname + ":" + port);
+                client.setDefaultTimeout(defaultTimeout);
+                client.setConnectTimeout(connectionTimeout);
+                client.connect(hostname, port);
+                if(client.isConnected()) {
+                    client.setSoTimeout(soTimeout);
+                    client.setTcpNoDelay(tcpNoDelay);
+                }
+                return client;
+            }
+        };
+    }
 
+    private SampleResult sampleConnect(SampleResult sr) {
+        if(getUsePool()) return samplePooledConnect(sr);
+        SessionClient connected = null;
         try {
             String request = "CONNECT \n";
             request += "Host : " + getHostname() + ":" + getPort() + "\n";
@@ -179,45 +393,76 @@ public class SMTPSampler extends AbstractSampler{
 
             sr.setRequestHeaders(request);
             sr.sampleStart();
-            client.setDefaultTimeout(getDefaultTimeout());
-            client.setConnectTimeout(getConnectionTimeout());
-            client.connect(getHostname(), getPort());
+            SMTPClient client = (SMTPClient) getConnector().connect();
             if(client.isConnected()) {
-                SessionStorage.proto_type protoType = SessionStorage.proto_type.PLAIN;
-                if(getUseSSL() && !getUseSTARTTLS()) protoType = SessionStorage.proto_type.SSL;
-                if(!getUseSSL() && getUseSTARTTLS()) protoType = SessionStorage.proto_type.STARTTLS;
-
-                SessionStorage.getInstance().putClient(getSOClient(), client, protoType);
-                client.setSoTimeout(getSoTimeout());
-                client.setTcpNoDelay(getTcpNoDelay());
+                SessionStorage.getInstance().putClient(getSOClient(), client, getProtoType());
                 sr.setResponseCode(String.valueOf(client.getReplyCode()));
                 sr.setResponseData(client.getReplyString().getBytes());
                 setSuccessfulByResponseCode(sr, client.getReplyCode());
+                connected = (SessionClient) client;
             }
         } catch (SocketException se) {
             sr.setResponseMessage(se.toString());
             sr.setSuccessful(false);
             sr.setResponseCode(se.getClass().getName());
-            log.error("client `" + client + "` ", se);
+            log.error("client `" + getClient() + "` ", se);
+        } catch (IOException ioe) {
+            sr.setResponseMessage(ioe.toString());
+            sr.setSuccessful(false);
+            sr.setResponseCode(ioe.getClass().getName());
+            log.error("client `" + getClient() + "` ", ioe);
+        }
+        sr.sampleEnd();
+        if(connected != null) connected.getStats().reportConnect(sr);
+        return sr;
+    }
+    private SampleResult samplePooledConnect(SampleResult sr) {
+        SessionPool.Key key = new SessionPool.Key(SessionStorage.PROTOCOL.SMTP, getHostname(), getPort(), getProtoType());
+        String request = "CONNECT (pooled)\n";
+        request += "Pool : " + key + "\n";
+        request += "Client : " + getClient() + "\n";
+        sr.setRequestHeaders(request);
+        sr.sampleStart();
+        try {
+            Session session = SessionStorage.getInstance().getPool().borrow(key, getUsername().isEmpty() ? null : getUsername(), getConnector());
+            SessionStorage.getInstance().putSession(getSOClient(), session);
+            SMTPClient client = (SMTPClient) session.getClient();
+            sr.setResponseCode(String.valueOf(client.getReplyCode()));
+            sr.setResponseData(client.getReplyString().getBytes());
+            setSuccessfulByResponseCode(sr, client.getReplyCode());
         } catch (IOException ioe) {
             sr.setResponseMessage(ioe.toString());
             sr.setSuccessful(false);
             sr.setResponseCode(ioe.getClass().getName());
-            log.error("client `" + client + "` ", ioe);
+            log.error("client `" + getClient() + "` ", ioe);
         }
         sr.sampleEnd();
         return sr;
     }
     private SampleResult sampleDisconnect(SampleResult sr) {
-        SocketClient soclient = SessionStorage.getInstance().getClient( getSOClient());
+        // keeper and reaper may remove session meanwhile, so it is looked up once
+        Session session = SessionStorage.getInstance().getSession(getSOClient());
         SMTPClient client = null;
-        if(soclient instanceof SMTPClient) client = (SMTPClient) soclient;
+        if(session != null && session.getClient() instanceof SMTPClient) client = (SMTPClient) session.getClient();
 
         String request = "DISCONNECT \n";
         request += "Client : " + getClient() + "\n";
         sr.setRequestHeaders(request);
         if(client == null) {
             clientNotFound(sr);
+        } else if(session.isPooled()) {
+            sr.sampleStart();
+            if(SessionStorage.getInstance().releaseClient(getSOClient())) {
+                sr.setSuccessful(true);
+                sr.setResponseCodeOK();
+                sr.setResponseMessage("returned to pool");
+            } else {
+                // closed by SessionKeeper meanwhile
+                sr.setSuccessful(false);
+                sr.setResponseCode("404");
+                sr.setResponseMessage("already closed");
+            }
+            sr.sampleEnd();
         } else {
             synchronized(client) {
                 sr.sampleStart();
@@ -298,9 +543,11 @@ public class SMTPSampler extends AbstractSampler{
                         String command;
                         if(getCommand().indexOf(' ') != -1) command = getCommand().substring(0, getCommand().indexOf(' '));
                         else command = getCommand();
+                        // greeting after STARTTLS operation or previous upgrade goes over TLS already
                         if((command.equalsIgnoreCase("lhlo") || command.equalsIgnoreCase("ehlo") || command.equalsIgnoreCase("helo")) &&
-                                getUseSTARTTLS() && client instanceof SMTPSClient) {
+                                getUseSTARTTLS() && client instanceof SMTPSClient && !isSecure(client)) {
                             SMTPSClient sclient = (SMTPSClient)client;
+                            int handshakes = sclient instanceof SessionClient ? ((SessionClient) sclient).getStats().getHandshakes() : 0;
                             if(sclient.execTLS() == false) {
                                 sr.setSuccessful(false);
                                 sr.setResponseCode("403");;
@@ -309,6 +556,7 @@ public class SMTPSampler extends AbstractSampler{
                                 removeClient();
                             } else {
                                 response += "\nSTARTTLS OK";
+                                if(sclient instanceof SessionClient) ((SessionClient) sclient).getStats().report(sr, handshakes);
                             }
                         }
                     }
@@ -358,6 +606,411 @@ public class SMTPSampler extends AbstractSampler{
         }
         return sr;
     }
+    /**
+     * Mail transaction: MAIL FROM, RCPT TO for every recipient, DATA and message or BDAT chunks (CHUNKING).
+     * Envelope commands are sent in one flush if server advertises PIPELINING.
+     * Recipients come from Rcpt To list or from recipient source (fan-out), replies to RCPT TO are summarized by code.
+     */
+    private SampleResult sampleSend(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        SMTPSessionClient client = null;
+        if(soclient instanceof SMTPSessionClient) client = (SMTPSessionClient) soclient;
+
+        String request = "SEND\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Mail From : " + getMailFrom() + "\n";
+        sr.setRequestHeaders(request + "Rcpt To : " + getRcptTo() + "\n");
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        String[] recipients;
+        if(!getRcptSource().isEmpty()) {
+            try {
+                recipients = RecipientSource.get(getRcptSource()).next(RecipientSource.count(getRcptCount()));
+            } catch (IOException e) {
+                return setupFailed(sr, "can't load recipients " + getRcptSource(), e);
+            } catch (IllegalArgumentException e) {
+                return setupFailed(sr, "wrong recipients `" + getRcptSource() + "` or count `" + getRcptCount() + "`", e);
+            }
+            request += "Rcpt Source : " + getRcptSource() + "\n";
+            request += "Recipients : " + recipients.length + "\n";
+        } else {
+            recipients = getRecipients();
+            request += "Rcpt To : " + getRcptTo() + "\n";
+        }
+        MessageCorpus corpus = null;
+        MessageGenerator generator = null;
+        int message = 0;
+        if(!getMessageFile().isEmpty()) {
+            try {
+                corpus = MessageCorpus.get(getMessageFile());
+            } catch (IOException e) {
+                return setupFailed(sr, "can't load messages " + getMessageFile(), e);
+            }
+            message = corpus.nextIndex();
+            request += "Message : " + corpus.getName(message) + "\n";
+        } else if(!getGenerator().isEmpty()) {
+            try {
+                generator = MessageGenerator.get(getGenerator());
+            } catch (IllegalArgumentException e) {
+                return setupFailed(sr, "wrong message sizes `" + getGenerator() + "`", e);
+            }
+            request += "Generator : " + getGenerator() + "\n";
+        }
+        List<SMTPSessionClient.Reply> replies = new ArrayList<SMTPSessionClient.Reply>();
+        synchronized(client) {
+            boolean pipelining = getUsePipelining() && client.hasExtension("PIPELINING");
+            boolean chunking = getUseChunking() && client.hasExtension("CHUNKING");
+            boolean binaryMime = chunking && getUseBinaryMime() && client.hasExtension("BINARYMIME");
+            boolean lmtp = client.isLmtp();
+            sr.setRequestHeaders(request + "Pipelining : " + pipelining + "\n" + "Chunking : " + chunking + "\n"
+                    + "Binary MIME : " + binaryMime + "\n" + "LMTP : " + lmtp + "\n");
+            sr.sampleStart();
+            try {
+                // BDAT replaces DATA
+                String[] commands = new String[recipients.length + (chunking ? 1 : 2)];
+                commands[0] = "MAIL FROM:<" + getMailFrom() + ">" + (binaryMime ? " BODY=BINARYMIME" : "");
+                for(int i = 0; i < recipients.length; ++i) commands[i + 1] = "RCPT TO:<" + recipients[i] + ">";
+                if(!chunking) commands[commands.length - 1] = "DATA";
+
+                if(pipelining) {
+                    replies.addAll(Arrays.asList(client.pipeline(commands)));
+                } else {
+                    // stop at first envelope failure, no DATA without recipients
+                    int accepted = 0;
+                    for(int i = 0; i < commands.length; ++i) {
+                        if(!chunking && i == commands.length - 1 && accepted == 0) break;
+                        SMTPSessionClient.Reply reply = client.command(commands[i]);
+                        replies.add(reply);
+                        if(i == 0 && !SMTPReply.isPositiveCompletion(reply.code)) break;
+                        if(i > 0 && SMTPReply.isPositiveCompletion(reply.code)) accepted++;
+                    }
+                }
+
+                List<String> acceptedRecipients = new ArrayList<String>(recipients.length);
+                for(int i = 1; i < replies.size() && i <= recipients.length; ++i) {
+                    if(SMTPReply.isPositiveCompletion(replies.get(i).code)) acceptedRecipients.add(recipients[i - 1]);
+                }
+                int accepted = acceptedRecipients.size();
+                // LMTP answers end of data for every accepted recipient
+                String[] delivered = lmtp ? acceptedRecipients.toArray(new String[accepted]) : null;
+                boolean mailAccepted = SMTPReply.isPositiveCompletion(replies.get(0).code);
+                boolean sent = false;
+                if(chunking) {
+                    if(mailAccepted && accepted > 0) {
+                        replies.addAll(Arrays.asList(client.sendChunks(getMessageData(corpus, message, generator, recipients), getChunkSize(), pipelining, delivered)));
+                        sent = true;
+                    }
+                } else {
+                    SMTPSessionClient.Reply last = replies.get(replies.size() - 1);
+                    if(replies.size() == commands.length && SMTPReply.isPositiveIntermediate(last.code)) {
+                        // RFC 2920: DATA may be accepted even if all recipients were rejected, send empty message then
+                        if(accepted == 0) replies.add(client.sendData(new byte[0]));
+                        else if(lmtp) replies.addAll(Arrays.asList(client.sendData(getMessageData(corpus, message, generator, recipients), delivered)));
+                        else replies.add(client.sendData(getMessageData(corpus, message, generator, recipients)));
+                        sent = accepted > 0;
+                    }
+                }
+                StringBuilder headers = new StringBuilder();
+                headers.append("Accepted Recipients : ").append(accepted).append("/").append(recipients.length).append("\n");
+                headers.append("Recipient Codes : ").append(summarize(replies, RCPT)).append("\n");
+                SMTPSessionClient.Reply last = replies.get(replies.size() - 1);
+                if(sent && lmtp && isGroup(last, LMTP)) {
+                    // partial delivery is success, response code is the first failure
+                    int deliveredCount = countPositive(replies, LMTP);
+                    sr.setResponseCode(String.valueOf(firstFailure(replies, LMTP, last.code)));
+                    sr.setSuccessful(deliveredCount > 0);
+                    headers.append("Delivered Recipients : ").append(deliveredCount).append("/").append(accepted).append("\n");
+                    headers.append("Delivery Codes : ").append(summarize(replies, LMTP)).append("\n");
+                    headers.append("Delivery Latency : ").append(latency(replies, LMTP)).append("\n");
+                } else {
+                    sr.setResponseCode(String.valueOf(last.code));
+                    sr.setSuccessful(sent && SMTPReply.isPositiveCompletion(last.code));
+                }
+                if(sent && DeliveryClock.isEnabled()) clockDeliveries(replies, acceptedRecipients, last);
+                // close unfinished transaction, so session can be used for the next one
+                if(mailAccepted && !sent) replies.add(client.command("RSET"));
+                sr.setResponseData(getResponse(replies).getBytes());
+                sr.setResponseHeaders(headers.toString());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + client + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        addSubResults(sr, replies);
+        return sr;
+    }
+    /**
+     * SASL authentication (RFC 4954), SCRAM salted passwords are cached per account
+     */
+    private SampleResult sampleAuth(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        SMTPSessionClient client = null;
+        if(soclient instanceof SMTPSessionClient) client = (SMTPSessionClient) soclient;
+
+        String request = "AUTH\n";
+        request += "Client : " + getClient() + "\n";
+        request += "Mechanism : " + getAuthMechanism() + "\n";
+        request += "Username : " + getUsername() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        SaslMechanism mechanism;
+        try {
+            mechanism = Sasl.mechanism(getAuthMechanism(), getUsername(), getPassword());
+        } catch (IllegalArgumentException e) {
+            sr.sampleStart();
+            sr.setSuccessful(false);
+            sr.setResponseCode(e.getClass().getName());
+            sr.setResponseMessage(e.getMessage());
+            sr.sampleEnd();
+            return sr;
+        }
+        List<SMTPSessionClient.Reply> replies = new ArrayList<SMTPSessionClient.Reply>();
+        synchronized(client) {
+            sr.sampleStart();
+            Session session = SessionStorage.getInstance().getSession(getSOClient());
+            if(session != null && session.isAuthenticated(getUsername())) {
+                sr.setSuccessful(true);
+                sr.setResponseCodeOK();
+                sr.setResponseMessage("already authenticated (pooled session)");
+                sr.sampleEnd();
+                return sr;
+            }
+            try {
+                replies.addAll(Arrays.asList(client.auth(mechanism)));
+                SMTPSessionClient.Reply last = replies.get(replies.size() - 1);
+                sr.setResponseCode(String.valueOf(last.code));
+                String error = mechanism.getError(SMTPReply.isPositiveCompletion(last.code));
+                sr.setSuccessful(SMTPReply.isPositiveCompletion(last.code) && error == null);
+                if(error != null) sr.setResponseMessage(error);
+                StringBuilder response = new StringBuilder();
+                for(SMTPSessionClient.Reply reply : replies) response.append(reply.text);
+                sr.setResponseData(response.toString().getBytes());
+                if(sr.isSuccessful() && session != null) session.setAuthenticated(getUsername());
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + client + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        mechanism.report(sr);
+        // single command mechanisms have no steps to show
+        if(replies.size() > 1) addSubResults(sr, replies);
+        return sr;
+    }
+    /**
+     * Upgrades stored session to TLS (RFC 3207), sub-results split STARTTLS round-trip and TLS handshake.
+     * EHLO has to be sent again after upgrade
+     */
+    private SampleResult sampleStartTls(SampleResult sr) {
+        SocketClient soclient = SessionStorage.getInstance().getClient(getSOClient());
+        SMTPSessionClient client = null;
+        if(soclient instanceof SMTPSessionClient) client = (SMTPSessionClient) soclient;
+
+        String request = "STARTTLS\n";
+        request += "Client : " + getClient() + "\n";
+        sr.setRequestHeaders(request);
+        if(client == null) {
+            clientNotFound(sr);
+            return sr;
+        }
+        int handshakes;
+        synchronized(client) {
+            handshakes = client.getStats().getHandshakes();
+            sr.sampleStart();
+            if(client.isSecure()) {
+                sr.setSuccessful(false);
+                sr.setResponseCode("500");
+                sr.setResponseMessage("connection is already secure");
+                sr.sampleEnd();
+                return sr;
+            }
+            try {
+                boolean upgraded = client.execTLS();
+                sr.setResponseCode(String.valueOf(client.getReplyCode()));
+                sr.setResponseData(client.getReplyString().getBytes());
+                sr.setSuccessful(upgraded);
+                Session session = SessionStorage.getInstance().getSession(getSOClient());
+                if(upgraded && session != null) session.setType(SessionStorage.proto_type.STARTTLS);
+            } catch (IOException e) {
+                sr.setSuccessful(false);
+                sr.setResponseData(e.toString().getBytes());
+                sr.setResponseCode(e.getClass().getName());
+                log.error("client `" + client + "` ", e);
+                removeClient();
+            }
+            sr.sampleEnd();
+        }
+        client.getStats().reportUpgrade(sr, "STARTTLS", handshakes);
+        return sr;
+    }
+    /**
+     * Delivery times for notification latency of IMAP IDLE: LMTP per recipient, SMTP by end of data reply
+     */
+    private void clockDeliveries(List<SMTPSessionClient.Reply> replies, List<String> acceptedRecipients, SMTPSessionClient.Reply last) {
+        if(isGroup(last, LMTP)) {
+            for(SMTPSessionClient.Reply reply : replies) {
+                if(isGroup(reply, LMTP) && SMTPReply.isPositiveCompletion(reply.code)) {
+                    DeliveryClock.delivered(reply.command.substring(LMTP.length(), reply.command.length() - 1), reply.end);
+                }
+            }
+        } else if(SMTPReply.isPositiveCompletion(last.code)) {
+            for(String recipient : acceptedRecipients) DeliveryClock.delivered(recipient, last.end);
+        }
+    }
+    /**
+     * One sub-result per reply, replies to RCPT TO and LMTP deliveries are merged into one sub-result each
+     */
+    private void addSubResults(SampleResult sr, List<SMTPSessionClient.Reply> replies) {
+        int i = 0;
+        while(i < replies.size()) {
+            SMTPSessionClient.Reply reply = replies.get(i);
+            String group = getGroup(reply);
+            if(group == null) {
+                SampleResult sub = new SampleResult();
+                sub.setSampleLabel(sr.getSampleLabel() + " " + reply.command);
+                sub.setStampAndTime(reply.start, reply.end - reply.start);
+                sub.setResponseCode(String.valueOf(reply.code));
+                sub.setResponseData(reply.text.getBytes());
+                setSuccessfulByResponseCode(sub, reply.code);
+                sr.addRawSubResult(sub);
+                i++;
+                continue;
+            }
+            int end = i;
+            while(end < replies.size() && isGroup(replies.get(end), group)) end++;
+            List<SMTPSessionClient.Reply> replyGroup = replies.subList(i, end);
+            SMTPSessionClient.Reply last = replyGroup.get(replyGroup.size() - 1);
+            SampleResult sub = new SampleResult();
+            sub.setStampAndTime(reply.start, last.end - reply.start);
+            sub.setResponseCode(String.valueOf(firstFailure(replyGroup, group, reply.code)));
+            if(group.equals(RCPT)) {
+                sub.setSampleLabel(sr.getSampleLabel() + " RCPT TO x" + replyGroup.size());
+                sub.setResponseData(getResponse(replyGroup).getBytes());
+            } else {
+                // deliveries are timed from end of data, list latency of every recipient
+                sub.setSampleLabel(sr.getSampleLabel() + " LMTP delivery x" + replyGroup.size());
+                StringBuilder response = new StringBuilder();
+                for(SMTPSessionClient.Reply r : replyGroup) {
+                    response.append(r.command.substring(LMTP.length() - 1)).append(' ').append(r.end - r.start).append(" ms ").append(r.text);
+                }
+                sub.setResponseData(response.toString().getBytes());
+            }
+            // partial delivery is success
+            sub.setSuccessful(countPositive(replyGroup, group) > 0);
+            sr.addRawSubResult(sub);
+            i = end;
+        }
+    }
+    private static String getGroup(SMTPSessionClient.Reply reply) {
+        if(isGroup(reply, RCPT)) return RCPT;
+        if(isGroup(reply, LMTP)) return LMTP;
+        return null;
+    }
+    private static boolean isGroup(SMTPSessionClient.Reply reply, String group) {
+        return reply.command.startsWith(group);
+    }
+    private static int countPositive(List<SMTPSessionClient.Reply> replies, String group) {
+        int positive = 0;
+        for(SMTPSessionClient.Reply reply : replies) {
+            if(isGroup(reply, group) && SMTPReply.isPositiveCompletion(reply.code)) positive++;
+        }
+        return positive;
+    }
+    private static int firstFailure(List<SMTPSessionClient.Reply> replies, String group, int code) {
+        for(SMTPSessionClient.Reply reply : replies) {
+            if(isGroup(reply, group) && !SMTPReply.isPositiveCompletion(reply.code)) return reply.code;
+        }
+        return code;
+    }
+    /**
+     * @return count of group replies by code, e.g. "250=480 550=20"
+     */
+    private static String summarize(List<SMTPSessionClient.Reply> replies, String group) {
+        TreeMap<Integer, Integer> codes = new TreeMap<Integer, Integer>();
+        for(SMTPSessionClient.Reply reply : replies) {
+            if(!isGroup(reply, group)) continue;
+            Integer count = codes.get(reply.code);
+            codes.put(reply.code, count == null ? 1 : count + 1);
+        }
+        StringBuilder summary = new StringBuilder();
+        for(Map.Entry<Integer, Integer> entry : codes.entrySet()) {
+            if(summary.length() > 0) summary.append(' ');
+            summary.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return summary.toString();
+    }
+    /**
+     * @return min/avg/max time of group replies, ms
+     */
+    private static String latency(List<SMTPSessionClient.Reply> replies, String group) {
+        long min = Long.MAX_VALUE, max = 0, sum = 0;
+        int count = 0;
+        for(SMTPSessionClient.Reply reply : replies) {
+            if(!isGroup(reply, group)) continue;
+            long time = reply.end - reply.start;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            sum += time;
+            count++;
+        }
+        if(count == 0) return "";
+        return min + "/" + (sum / count) + "/" + max;
+    }
+    /**
+     * @return reply texts, accepted recipients and successful deliveries are counted instead of listed
+     */
+    private static String getResponse(List<SMTPSessionClient.Reply> replies) {
+        StringBuilder response = new StringBuilder();
+        String group = null;
+        int positive = 0;
+        for(SMTPSessionClient.Reply reply : replies) {
+            String current = getGroup(reply);
+            if(current != group && positive > 0) {
+                response.append(positive).append(RCPT.equals(group) ? " recipients accepted\n" : " recipients delivered\n");
+                positive = 0;
+            }
+            group = current;
+            if(group == null) {
+                response.append(reply.text);
+            } else if(SMTPReply.isPositiveCompletion(reply.code)) {
+                positive++;
+            } else {
+                response.append(reply.command.substring(group.length() - 1)).append(' ').append(reply.text);
+            }
+        }
+        if(positive > 0) response.append(positive).append(RCPT.equals(group) ? " recipients accepted\n" : " recipients delivered\n");
+        return response.toString();
+    }
+    private SampleResult setupFailed(SampleResult sr, String message, Exception e) {
+        sr.sampleStart();
+        sr.setSuccessful(false);
+        sr.setResponseCode(e.getClass().getName());
+        sr.setResponseMessage(e.toString());
+        sr.sampleEnd();
+        log.error(message, e);
+        return sr;
+    }
+    private ByteBuffer[] getMessageData(MessageCorpus corpus, int message, MessageGenerator generator, String[] recipients) throws IOException {
+        if(corpus != null) return new ByteBuffer[] {corpus.getMessage(message)};
+        if(generator != null) return generator.next(getMailFrom(), recipients);
+        return new ByteBuffer[] {ByteBuffer.wrap(getMessageBytes())};
+    }
+    private byte[] getMessageBytes() throws IOException {
+        // message is edited with bare LF line ends, BDAT sends it as is
+        return getMessage().replaceAll("\r?\n", "\r\n").getBytes("UTF-8");
+    }
     private void setSuccessfulByResponseCode(SampleResult sr, int replyCode) {
         if(SMTPReply.isPositiveCompletion(replyCode)
                 || SMTPReply.isPositiveIntermediate(replyCode)
@@ -372,11 +1025,18 @@ public class SMTPSampler extends AbstractSampler{
         sr.setSuccessful(false);
         sr.sampleEnd();
     }
+    private static boolean isSecure(SMTPClient client) {
+        return client instanceof SessionClient && ((SessionClient) client).isSecure();
+    }
     private void removeClient() {
-        try {
-            SessionStorage.getInstance().getClient(getSOClient()).disconnect();
-        } catch (IOException e) {
-            log.warn("Cannot disconnect client `" + getSOClient() + "` " , e);
+        // SessionKeeper may have removed session meanwhile
+        SocketClient client = SessionStorage.getInstance().getClient(getSOClient());
+        if(client != null) {
+            try {
+                client.disconnect();
+            } catch (IOException e) {
+                log.warn("Cannot disconnect client `" + getSOClient() + "` " , e);
+            }
         }
         SessionStorage.getInstance().removeClient(getSOClient());
         log.warn("session `" + getClient() + "` removed from pool");